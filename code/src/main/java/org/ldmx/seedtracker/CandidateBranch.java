@@ -0,0 +1,176 @@
+package org.ldmx.seedtracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.recon.tracking.seedtracker.SeedCandidate;
+
+/**
+ * Track candidate in the confirm / extend search, stored as a pointer to the
+ * candidate it was made from plus the hit that was added.  Making a branch
+ * doesn't copy the hits of the candidate, so trial hits can be checked and
+ * fit without a new SeedCandidate.  The SeedCandidate for a branch is only
+ * made when it is needed, and is then kept with the branch.
+ * <p>
+ * The layers still to be checked are given by the index of the next layer in
+ * the list of layers for the search, which is shared by all the branches.
+ */
+class CandidateBranch {
+
+    private final CandidateBranch _parent;
+    private final HelicalTrackHit _hit;
+    private final HelicalTrackFit _helix;
+    private final int _nhits;
+    private final int _layer;
+    private final boolean _refit;
+    private IncrementalHelixFit _fit;
+    private SeedCandidate _seed;
+
+    private CandidateBranch(CandidateBranch parent, HelicalTrackHit hit, HelicalTrackFit helix, int nhits,
+            int layer, boolean refit, IncrementalHelixFit fit, SeedCandidate seed) {
+        _parent = parent;
+        _hit = hit;
+        _helix = helix;
+        _nhits = nhits;
+        _layer = layer;
+        _refit = refit;
+        _fit = fit;
+        _seed = seed;
+    }
+
+    /**
+     * Make the starting branch for a search.
+     *
+     * @param seed track candidate to be confirmed / extended
+     */
+    CandidateBranch(SeedCandidate seed) {
+        this(null, null, seed.getHelix(), seed.getHits().size(), 0, false, null, seed);
+    }
+
+    /**
+     * Make a branch with a hit added and a helix fit of its hits.
+     *
+     * @param hit hit to add
+     * @param seed track candidate with the hits of this branch and the new hit
+     * @return new branch
+     */
+    CandidateBranch AddHit(HelicalTrackHit hit, SeedCandidate seed) {
+        return new CandidateBranch(this, hit, seed.getHelix(), _nhits + 1, _layer + 1, false, null, seed);
+    }
+
+    /**
+     * Make a branch with a hit added and a helix that was found without a
+     * helix fit.  The branch will need to be refit when the search is done.
+     *
+     * @param hit hit to add
+     * @param helix updated helix
+     * @param fit incremental fit for the new branch (or null)
+     * @return new branch
+     */
+    CandidateBranch AddHit(HelicalTrackHit hit, HelicalTrackFit helix, IncrementalHelixFit fit) {
+        return new CandidateBranch(this, hit, helix, _nhits + 1, _layer + 1, true, fit, null);
+    }
+
+    /**
+     * Make a branch that skips the next layer without adding a hit.
+     *
+     * @return new branch
+     */
+    CandidateBranch SkipLayer() {
+        return new CandidateBranch(this, null, _helix, _nhits, _layer + 1, _refit, _fit, _seed);
+    }
+
+    /**
+     * Check a hit against all the hits of this branch.
+     *
+     * @param checker hit checker
+     * @param hit hit to check
+     * @return true if the hit is consistent with the hits of the branch
+     */
+    boolean CheckHit(FastCheck checker, HelicalTrackHit hit) {
+        for (CandidateBranch branch = this; branch != null; branch = branch._parent) {
+            if (branch._parent == null) {
+                for (HelicalTrackHit hit2 : branch._seed.getHits()) {
+                    if (!checker.CheckHitHelix(hit, hit2, _helix)) return false;
+                }
+            } else if (branch._hit != null) {
+                if (!checker.CheckHitHelix(hit, branch._hit, _helix)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make a new track candidate with the hits of this branch and one more hit.
+     * The helix of the new candidate is the helix of this branch.
+     *
+     * @param hit hit to add
+     * @return new track candidate
+     */
+    SeedCandidate NewSeed(HelicalTrackHit hit) {
+        SeedCandidate seed = new SeedCandidate(getSeed());
+        seed.addHit(hit);
+        return seed;
+    }
+
+    /**
+     * Return the track candidate for this branch, making it if needed.
+     *
+     * @return track candidate
+     */
+    SeedCandidate getSeed() {
+        if (_seed != null) return _seed;
+
+        //  Collect the hits added since the last branch with a track candidate
+        List<HelicalTrackHit> hits = new ArrayList<HelicalTrackHit>();
+        CandidateBranch branch = this;
+        while (branch._seed == null) {
+            if (branch._hit != null) hits.add(branch._hit);
+            branch = branch._parent;
+        }
+
+        //  Add them in the order they were found
+        _seed = new SeedCandidate(branch._seed);
+        for (int i = hits.size() - 1; i >= 0; i--) {
+            _seed.addHit(hits.get(i));
+        }
+        _seed.setHelix(_helix);
+        return _seed;
+    }
+
+    HelicalTrackFit getHelix() {
+        return _helix;
+    }
+
+    int getNHits() {
+        return _nhits;
+    }
+
+    /**
+     * Return the index of the next layer to check.
+     *
+     * @return layer index
+     */
+    int getLayer() {
+        return _layer;
+    }
+
+    /**
+     * Return true if the helix of this branch was not made by the helix fitter.
+     *
+     * @return refit flag
+     */
+    boolean NeedsRefit() {
+        return _refit;
+    }
+
+    IncrementalHelixFit getFit() {
+        return _fit;
+    }
+
+    void setFit(IncrementalHelixFit fit) {
+        _fit = fit;
+    }
+}
@@ -0,0 +1,299 @@
+package org.ldmx.seedtracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lcsim.constants.Constants;
+import org.lcsim.recon.tracking.seedtracker.HelixFitter;
+import org.lcsim.recon.tracking.seedtracker.SeedLayer;
+import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
+
+/**
+ * Seed finder that builds seeds from chains of hits found by a cellular
+ * automaton instead of trying every combination of hits in the seed layers.
+ * <p>
+ * The layers used by a strategy (seed, confirm and extend layers) are ordered
+ * outwards from the target.  Cells are hit doublets on layers that are next to
+ * each other in this order, or that skip up to a set number of layers to allow
+ * for missing hits.  Two cells that share a hit are neighbours if the three hits
+ * pass a curvature cut (the circle through the hits must not bend more than the
+ * minimum pT of the strategy allows) and a slope cut (the dz/ds slopes of the two
+ * cells must agree).  The state of a cell is the number of cells in the longest
+ * chain of neighbours ending at that cell.  Since cells only connect outwards,
+ * the states are found in a single pass over the cells.
+ * <p>
+ * Chains are then read off starting from the cells with the highest state.
+ * Chains with a hit in each of the seed layers give a seed that is checked, fit,
+ * confirmed and extended as in SeedTrackFinder, and once a chain has given a
+ * seed its hits are not used by any other chain.
+ * <p>
+ * The number of cells grows with the product of the occupancies of neighbouring
+ * layers, and the number of neighbour tests with the number of cells sharing a
+ * hit, rather than with the product of the occupancies of the three seed layers.
+ */
+public class CellularAutomatonSeedFinder extends SeedTrackFinder {
+
+    private int _maxskip = 1;
+
+    //  Cells for the current strategy
+    private int _ncells;
+    private int[] _inner = new int[1024];
+    private int[] _outer = new int[1024];
+    private int[] _state = new int[1024];
+    private int[] _left = new int[1024];
+    private int[] _next = new int[1024];
+
+    public CellularAutomatonSeedFinder(HitManager hitmanager, HelixFitter helixfitter) {
+        super(hitmanager, helixfitter);
+    }
+
+    /**
+     * Set the number of layers a cell may skip over.
+     *
+     * @param maxskip maximum number of layers skipped
+     */
+    public void setMaxLayerSkip(int maxskip) {
+        if (maxskip < 0)
+            throw new IllegalArgumentException("Number of skipped layers must not be negative");
+        _maxskip = maxskip;
+    }
+
+    @Override
+    public boolean FindTracks(SeedStrategy strategy, double bfield) {
+
+        HitManager hitmanager = getHitManager();
+        SectorManager smanager = hitmanager.getSectorManager();
+        PackedHits packed = hitmanager.getPackedHits();
+
+        //  Order the layers with hits outwards from the target
+        List<SeedLayer> layers = OrderLayers(strategy.getLayerList(), smanager);
+        int nlayers = layers.size();
+
+        //  Find the position of the seed layers in the layer order
+        List<SeedLayer> seedlayers = strategy.getLayers(SeedLayer.SeedType.Seed);
+        if (seedlayers.size() != 3) return FinderDone();
+        int[] seedpos = new int[seedlayers.size()];
+        for (int i = 0; i < seedpos.length; i++) {
+            seedpos[i] = layers.indexOf(seedlayers.get(i));
+            if (seedpos[i] < 0) return FinderDone();
+        }
+
+        //  Find the packed hit indices for the hits in each layer
+        int[][] layerhits = new int[nlayers][];
+        int[] hitlayer = new int[packed.size()];
+        Arrays.fill(hitlayer, -1);
+        for (int k = 0; k < nlayers; k++) {
+            layerhits[k] = packed.getIndices(smanager.getSectors(layers.get(k)));
+            for (int i : layerhits[k]) {
+                hitlayer[i] = k;
+            }
+        }
+
+        //  Bend plane uncertainties used in the curvature cut
+        double nsig = Math.sqrt(strategy.getMaxChisq());
+        double[] dbend = new double[packed.size()];
+        for (int[] hits : layerhits) {
+            for (int i : hits) {
+                dbend[i] = nsig * packed.drphi[i];
+            }
+        }
+
+        //  Make the cells and find their states
+        double kmax = Math.abs(Constants.fieldConversion * bfield / strategy.getMinPT());
+        FastCheck checker = newChecker(strategy, bfield);
+        MakeCells(layerhits, packed, checker, dbend, kmax, nsig);
+
+        //  Read off the chains and form seeds from them
+        boolean[] used = new boolean[packed.size()];
+        int[] chain = new int[nlayers];
+        for (int cell : OrderCells()) {
+
+            //  Need at least three hits in the chain
+            if (_state[cell] < 2) break;
+
+            //  Collect the hits in the chain, skipping chains that share a hit with a longer one
+            int nchain = Chain(cell, chain);
+            boolean free = true;
+            for (int j = 0; j < nchain; j++) {
+                if (used[chain[j]]) free = false;
+            }
+            if (!free) continue;
+
+            //  Find the seed hits, which are taken in the order of the strategy's seed layers
+            int[] seedidx = new int[seedpos.length];
+            int nseed = 0;
+            for (int i = 0; i < seedpos.length; i++) {
+                for (int j = 0; j < nchain; j++) {
+                    if (hitlayer[chain[j]] == seedpos[i]) {
+                        seedidx[i] = chain[j];
+                        nseed++;
+                    }
+                }
+            }
+            if (nseed != 3) continue;
+
+            //  Check the seed hits, then fit, confirm and extend the seed
+            if (!ProcessSeedHits(packed, seedidx[0], seedidx[1], seedidx[2], checker, strategy, bfield)) continue;
+
+            //  The hits in this chain are not used by any shorter chain
+            for (int j = 0; j < nchain; j++) {
+                used[chain[j]] = true;
+            }
+        }
+
+        return FinderDone();
+    }
+
+    /**
+     * Make the cells for the hits in the ordered layers.  The cells are made in
+     * order of their inner layer, so all the cells ending at a hit are made
+     * before the cells starting from it and the state of a cell can be found as
+     * soon as it is made.
+     */
+    private void MakeCells(int[][] layerhits, PackedHits packed, FastCheck checker, double[] dbend,
+            double kmax, double nsig) {
+
+        //  Cells ending at each hit are kept in linked lists
+        int[] head = new int[packed.size()];
+        Arrays.fill(head, -1);
+        _ncells = 0;
+
+        for (int k = 0; k < layerhits.length - 1; k++) {
+            for (int k2 = k + 1; k2 <= k + 1 + _maxskip && k2 < layerhits.length; k2++) {
+                for (int a : layerhits[k]) {
+                    for (int b : layerhits[k2]) {
+
+                        //  Check that the doublet is consistent with the strategy and the track check
+                        if (!checker.TwoPointCircleCheck(packed, a, b)) continue;
+                        if (_trackCheck instanceof SeedHitCheck &&
+                                !((SeedHitCheck) _trackCheck).checkHitPair(packed.hits[a], packed.hits[b])) continue;
+
+                        //  Find the longest chain of neighbours ending at the new cell
+                        int state = 1;
+                        int left = -1;
+                        for (int c = head[a]; c >= 0; c = _next[c]) {
+                            if (_state[c] + 1 <= state) continue;
+                            if (!Neighbours(packed, _inner[c], a, b, dbend, kmax, nsig)) continue;
+                            state = _state[c] + 1;
+                            left = c;
+                        }
+
+                        //  Add the cell
+                        if (_ncells == _inner.length) GrowCells();
+                        _inner[_ncells] = a;
+                        _outer[_ncells] = b;
+                        _state[_ncells] = state;
+                        _left[_ncells] = left;
+                        _next[_ncells] = head[b];
+                        head[b] = _ncells;
+                        _ncells++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if the cells (a, b) and (b, c) are neighbours.  The curvature of the
+     * circle through the hits must be below the maximum curvature plus the
+     * curvature that the bend plane uncertainties of the hits can give, and the
+     * dz/ds slopes of the two cells must agree within the z uncertainties.
+     */
+    private boolean Neighbours(PackedHits packed, int a, int b, int c, double[] dbend, double kmax, double nsig) {
+
+        double xab = packed.x[b] - packed.x[a];
+        double yab = packed.y[b] - packed.y[a];
+        double xbc = packed.x[c] - packed.x[b];
+        double ybc = packed.y[c] - packed.y[b];
+        double xac = packed.x[c] - packed.x[a];
+        double yac = packed.y[c] - packed.y[a];
+        double sab = Math.sqrt(xab*xab + yab*yab);
+        double sbc = Math.sqrt(xbc*xbc + ybc*ybc);
+        double sac2 = xac*xac + yac*yac;
+        if (sab <= 0. || sbc <= 0.) return false;
+
+        //  Curvature cut - the sagitta uncertainty gives a curvature uncertainty 8 ds / L^2
+        double curvature = 2. * Math.abs(xab*ybc - yab*xbc) / (sab * sbc * Math.sqrt(sac2));
+        double dsagitta = dbend[b] + 0.5 * (dbend[a] + dbend[c]);
+        if (curvature > kmax + 8. * dsagitta / sac2) return false;
+
+        //  Slope cut - allow 1 mm for multiple scattering at the middle hit
+        double dza = dzHit(packed, a, nsig);
+        double dzb = dzHit(packed, b, nsig) + 1.;
+        double dzc = dzHit(packed, c, nsig);
+        double dslope = (packed.z[b] - packed.z[a]) / sab - (packed.z[c] - packed.z[b]) / sbc;
+        return !(Math.abs(dslope) > (dza + dzb) / sab + (dzb + dzc) / sbc);
+    }
+
+    private double dzHit(PackedHits packed, int i, double nsig) {
+        if (packed.endcap[i] || packed.type[i] == PackedHits.AXIAL) return packed.dzu[i];
+        return nsig * packed.dzu[i];
+    }
+
+    /**
+     * Return the cell indices ordered by decreasing state, keeping the order the
+     * cells were made in for cells with the same state.
+     */
+    private int[] OrderCells() {
+        int maxstate = 0;
+        for (int c = 0; c < _ncells; c++) {
+            maxstate = Math.max(maxstate, _state[c]);
+        }
+        int[] start = new int[maxstate + 2];
+        for (int c = 0; c < _ncells; c++) {
+            start[maxstate - _state[c] + 1]++;
+        }
+        for (int s = 1; s < start.length; s++) {
+            start[s] += start[s - 1];
+        }
+        int[] order = new int[_ncells];
+        for (int c = 0; c < _ncells; c++) {
+            order[start[maxstate - _state[c]]++] = c;
+        }
+        return order;
+    }
+
+    /**
+     * Fill an array with the hits in the chain ending at a cell, from the outermost
+     * hit inwards, and return the number of hits.
+     */
+    private int Chain(int cell, int[] chain) {
+        int n = 0;
+        chain[n++] = _outer[cell];
+        for (int c = cell; c >= 0; c = _left[c]) {
+            chain[n++] = _inner[c];
+        }
+        return n;
+    }
+
+    /**
+     * Order the layers that have hits by the middle of their radial envelope.
+     */
+    private static List<SeedLayer> OrderLayers(List<SeedLayer> layerlist, SectorManager smanager) {
+        List<SeedLayer> layers = new ArrayList<SeedLayer>();
+        List<Double> radius = new ArrayList<Double>();
+        for (SeedLayer layer : layerlist) {
+            int index = smanager.getLayerIndex(layer);
+            if (index < 0 || smanager.getSectors(layer).isEmpty()) continue;
+            double[] envelope = smanager.getLayerEnvelope(index);
+            double r = 0.5 * (envelope[0] + envelope[1]);
+
+            //  Insertion sort - there are only a handful of layers
+            int pos = radius.size();
+            while (pos > 0 && radius.get(pos - 1) > r) pos--;
+            layers.add(pos, layer);
+            radius.add(pos, r);
+        }
+        return layers;
+    }
+
+    private void GrowCells() {
+        int size = 2 * _inner.length;
+        _inner = Arrays.copyOf(_inner, size);
+        _outer = Arrays.copyOf(_outer, size);
+        _state = Arrays.copyOf(_state, size);
+        _left = Arrays.copyOf(_left, size);
+        _next = Arrays.copyOf(_next, size);
+    }
+}
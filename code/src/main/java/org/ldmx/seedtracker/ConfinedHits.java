@@ -0,0 +1,173 @@
+package org.ldmx.seedtracker;
+
+import hep.physics.matrix.SymmetricMatrix;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lcsim.event.MCParticle;
+import org.lcsim.fit.helicaltrack.HelicalTrackCross;
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.fit.helicaltrack.HelicalTrackStrip;
+import org.lcsim.fit.helicaltrack.MultipleScatter;
+import org.lcsim.recon.tracking.seedtracker.SeedCandidate;
+
+/**
+ * Private copy of an event's hits for a single worker thread.  Stereo hits
+ * (HelicalTrackCross) carry the track direction used to correct their position,
+ * and this is updated by the helix fitter (the hit checks and the incremental
+ * helix updates use CorrectedHit, which leaves the hits alone).  Each worker
+ * therefore gets its own copy of the stereo hits, while the other hit types
+ * (which are never modified during track finding) are shared.  Track candidates
+ * found with the copies are mapped back onto the original hits with restore().
+ */
+class ConfinedHits {
+
+    private List<HelicalTrackHit> _hits;
+    private Map<HelicalTrackHit, HelicalTrackHit> _originals;
+    private Map<HelicalTrackHit, HelicalTrackHit> _copies;
+
+    /**
+     * Make the worker copy of a list of hits.
+     *
+     * @param hitcol hits for this event
+     */
+    ConfinedHits(List<HelicalTrackHit> hitcol) {
+
+        _hits = new ArrayList<HelicalTrackHit>(hitcol.size());
+        _originals = new IdentityHashMap<HelicalTrackHit, HelicalTrackHit>();
+        _copies = new IdentityHashMap<HelicalTrackHit, HelicalTrackHit>();
+
+        for (HelicalTrackHit hit : hitcol) {
+
+            //  Only the stereo hits need to be copied
+            if (hit instanceof HelicalTrackCross) {
+                HelicalTrackCross cross = (HelicalTrackCross) hit;
+                List<HelicalTrackStrip> strips = cross.getStrips();
+                HelicalTrackCross copy = new HelicalTrackCross(strips.get(0), strips.get(1));
+                for (MCParticle mcp : cross.getMCParticles()) {
+                    copy.addMCParticle(mcp);
+                }
+                _originals.put(copy, cross);
+                _copies.put(cross, copy);
+                _hits.add(copy);
+            } else {
+                _hits.add(hit);
+            }
+        }
+    }
+
+    /**
+     * Return the hits to be used by the worker.
+     *
+     * @return worker copy of the hits
+     */
+    List<HelicalTrackHit> getHits() {
+        return _hits;
+    }
+
+    /**
+     * Return the original hit for a worker hit.
+     *
+     * @param hit worker hit
+     * @return original hit
+     */
+    HelicalTrackHit original(HelicalTrackHit hit) {
+        HelicalTrackHit orig = _originals.get(hit);
+        if (orig == null) return hit;
+        return orig;
+    }
+
+    /**
+     * Return the worker hits corresponding to a list of original hits.
+     *
+     * @param hits original hits
+     * @return worker hits
+     */
+    List<HelicalTrackHit> copies(List<HelicalTrackHit> hits) {
+        List<HelicalTrackHit> copies = new ArrayList<HelicalTrackHit>(hits.size());
+        for (HelicalTrackHit hit : hits) {
+            HelicalTrackHit copy = _copies.get(hit);
+            if (copy == null) copy = hit;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Make a seed candidate that uses the worker hits from one that uses the
+     * original hits.  The helix fit is copied, with its path length and multiple
+     * scattering maps keyed to the worker hits.
+     *
+     * @param seed seed candidate using the original hits
+     * @param bfield magnetic field
+     * @return equivalent seed candidate using the worker hits
+     */
+    SeedCandidate confine(SeedCandidate seed, double bfield) {
+
+        SeedCandidate confined = new SeedCandidate(seed.getSeedStrategy(), bfield);
+        for (HelicalTrackHit hit : copies(seed.getHits())) {
+            confined.addHit(hit);
+        }
+
+        HelicalTrackFit helix = seed.getHelix();
+        if (helix != null) {
+            Map<HelicalTrackHit, Double> smap = new HashMap<HelicalTrackHit, Double>();
+            for (Map.Entry<HelicalTrackHit, Double> entry : helix.PathMap().entrySet()) {
+                smap.put(copy(entry.getKey()), entry.getValue());
+            }
+            Map<HelicalTrackHit, MultipleScatter> msmap = new HashMap<HelicalTrackHit, MultipleScatter>();
+            for (Map.Entry<HelicalTrackHit, MultipleScatter> entry : helix.ScatterMap().entrySet()) {
+                msmap.put(copy(entry.getKey()), entry.getValue());
+            }
+            confined.setHelix(new HelicalTrackFit(helix.parameters().clone(), new SymmetricMatrix(helix.covariance()),
+                    helix.chisq().clone(), helix.ndf().clone(), smap, msmap));
+        }
+
+        return confined;
+    }
+
+    private HelicalTrackHit copy(HelicalTrackHit hit) {
+        HelicalTrackHit copy = _copies.get(hit);
+        if (copy == null) return hit;
+        return copy;
+    }
+
+    /**
+     * Make a seed candidate that uses the original hits from one that was found
+     * with the worker copies.  The helix fit is re-used, with its path length and
+     * multiple scattering maps re-keyed to the original hits.
+     *
+     * @param seed seed candidate found with the worker hits
+     * @param bfield magnetic field
+     * @return equivalent seed candidate using the original hits
+     */
+    SeedCandidate restore(SeedCandidate seed, double bfield) {
+
+        SeedCandidate restored = new SeedCandidate(seed.getSeedStrategy(), bfield);
+        for (HelicalTrackHit hit : seed.getHits()) {
+            restored.addHit(original(hit));
+        }
+
+        HelicalTrackFit helix = seed.getHelix();
+        if (helix != null) {
+            Map<HelicalTrackHit, Double> smap = new HashMap<HelicalTrackHit, Double>();
+            for (Map.Entry<HelicalTrackHit, Double> entry : helix.PathMap().entrySet()) {
+                smap.put(original(entry.getKey()), entry.getValue());
+            }
+            helix.setPathMap(smap);
+            Map<HelicalTrackHit, MultipleScatter> msmap = new HashMap<HelicalTrackHit, MultipleScatter>();
+            for (Map.Entry<HelicalTrackHit, MultipleScatter> entry : helix.ScatterMap().entrySet()) {
+                msmap.put(original(entry.getKey()), entry.getValue());
+            }
+            helix.setScatterMap(msmap);
+            restored.setHelix(helix);
+        }
+
+        return restored;
+    }
+}
@@ -3,10 +3,11 @@
  */
 package org.ldmx.seedtracker;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -14,13 +15,10 @@ import org.lcsim.fit.helicaltrack.HelicalTrackFit;
 import org.lcsim.fit.helicaltrack.HelicalTrackFitter.FitStatus;
 import org.lcsim.fit.helicaltrack.HelicalTrackHit;
 import org.lcsim.recon.tracking.seedtracker.HelixFitter;
-import org.lcsim.recon.tracking.seedtracker.MergeSeedLists;
 import org.lcsim.recon.tracking.seedtracker.Sector;
 import org.lcsim.recon.tracking.seedtracker.SeedCandidate;
 import org.lcsim.recon.tracking.seedtracker.SeedLayer;
 import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
-import org.lcsim.recon.tracking.seedtracker.SortHits;
-import org.lcsim.recon.tracking.seedtracker.SortLayers;
 import org.lcsim.recon.tracking.seedtracker.diagnostic.ISeedTrackerDiagnostics;
 
 /**
@@ -45,10 +43,13 @@ public class ConfirmerExtender {
     private int _maxfit = 1000000000;  // initialize maximum number of fits to 10^9
     private HitManager _hmanager;
     private HelixFitter _fitter;
-    private MergeSeedLists _merger;
+    private IndexedMergeSeedLists _merger;
     private List<SeedCandidate> _result;
     private ISeedTrackerDiagnostics _diag = null;
     private boolean _applySectorBinning=false;
+    private boolean _kalman = false;
+    private boolean _incremental = false;
+    private EventBudget _budget = null;
 
     /**
      * Constructor for the ConfirmerExtender class.
@@ -60,7 +61,7 @@ public class ConfirmerExtender {
 
         _hmanager = hitmanager;
         _fitter = helixfitter;
-        _merger = new MergeSeedLists();
+        _merger = new IndexedMergeSeedLists();
     }
 
     /**
@@ -81,6 +82,28 @@ public class ConfirmerExtender {
         _maxfit = maxfit;
     }
 
+    /**
+     * Get the maximum number of fit trials for a given seed to be confirmed/extended.
+     *
+     * @return maximum number of trials
+     */
+    public int getMaxFit() {
+        return _maxfit;
+    }
+
+    /**
+     * Set the budget of helix fits and time for the event (null for no budget).
+     *
+     * @param budget event budget
+     */
+    void setBudget(EventBudget budget) {
+        _budget = budget;
+    }
+
+    EventBudget getBudget() {
+        return _budget;
+    }
+
     /**
      * Get the number of fit trials for the last confirm/extend.
      *
@@ -170,6 +193,15 @@ public class ConfirmerExtender {
         //  Instantiate the fast hit checker
         FastCheck checker = new FastCheck(strategy, bfield, _diag);
         if(this._applySectorBinning) checker.setDoSectorBinCheck(this._hmanager.getSectorManager());
+        CorrectionCache corrections = _hmanager.getCorrectionCache();
+        checker.setCorrectionCache(corrections);
+
+        //  In Kalman mode, hits are added with a filter update and only the final candidates are fit
+        HelixFilter filter = null;
+        if (_kalman) {
+            filter = new HelixFilter(bfield);
+            filter.setCorrectionCache(corrections);
+        }
 
         //  Calculate the minimum number of hits to succeed, retrieve the chisq cuts
         int minhits = strategy.getMinHits();
@@ -177,9 +209,9 @@ public class ConfirmerExtender {
         double badhitchisq = strategy.getBadHitChisq();
         double maxchisq = strategy.getMaxChisq();
 
-        //  Create a LIFO queue of seeds to be searched for a confirmation/extension
+        //  Create a LIFO queue of candidates to be searched for a confirmation/extension
         // hit (note that a LIFO queue is used to minimize memory usage)
-        LinkedList<SeedCandidate> seedlist = new LinkedList<SeedCandidate>();
+        ArrayDeque<CandidateBranch> seedlist = new ArrayDeque<CandidateBranch>();
 
         //  The bestseed is a SeedCandidate the meets the requirements for becoming
         //  a track, shares at least one hit with the inputseed, and has been deemed
@@ -190,22 +222,24 @@ public class ConfirmerExtender {
         
         //  If we have already found track candidates, check for duplicates
         //  that share hits with the seed, finding the best such duplicate candidate.
-        for (SeedCandidate trkcand : _result) {
+        for (SeedCandidate trkcand : _merger.getCandidates(_result, inputseed)) {
             if (_merger.isDuplicate(inputseed, trkcand))
                 bestseed = findBestCandidate(trkcand, bestseed, strategy);
         }
 
-        //  Create a map between the SeedLayers to be checked and a list of hits on the layer to check
-        Map<SeedLayer, List<HelicalTrackHit>> hitmap = new HashMap<SeedLayer, List<HelicalTrackHit>>();
+        //  Create maps between the SeedLayers to be checked and the sectors and number of hits to check
+        Map<SeedLayer, boolean[]> sectormap = new HashMap<SeedLayer, boolean[]>();
+        final Map<SeedLayer, Integer> nhitmap = new HashMap<SeedLayer, Integer>();
 
         //  Loop over the layers to be checked
         for (SeedLayer lyr : inputseed.getUncheckedLayers()) {
 
-            //  Create a list of hits to check on this layer
-            List<HelicalTrackHit> hitlist = new ArrayList<HelicalTrackHit>();
-
-            //  Loop over the sectors on this layer to collect hits to check
-            for (Sector sector : _hmanager.getSectors(lyr)) {
+            //  Flag the sectors on this layer with hits to check
+            List<Sector> sectors = _hmanager.getSectors(lyr);
+            boolean[] sectorok = new boolean[sectors.size()];
+            int nhits = 0;
+            for (int i = 0; i < sectors.size(); i++) {
+                Sector sector = sectors.get(i);
 
                 //  If there are no hits, skip this sector
                 if (sector.Hits().isEmpty()) continue;
@@ -213,30 +247,43 @@ public class ConfirmerExtender {
                 //  See if this sector is consistent with this seed
                 if (!checker.CheckSector(inputseed, sector)) continue;
 
-                //  Add the hits for this sector
-                hitlist.addAll(sector.Hits());
+                //  Check the hits for this sector
+                sectorok[i] = true;
+                nhits += sector.Hits().size();
              }
 
-            //  Save the list of hits in the hitmap
-            if (!hitlist.isEmpty()) hitmap.put(lyr, hitlist);
+            //  Save the sector flags for layers with hits to check
+            if (nhits > 0) {
+                sectormap.put(lyr, sectorok);
+                nhitmap.put(lyr, nhits);
+            }
         }
 
         //  Create a list of layers that have hits to check
         List<SeedLayer> lyrlist = new ArrayList<SeedLayer>();
-        lyrlist.addAll(hitmap.keySet());
+        lyrlist.addAll(nhitmap.keySet());
 
         //  Sort the layers in order of increasing number of hits
-        SortLayers lyrsort = new SortLayers(hitmap);
-        Collections.sort(lyrlist, lyrsort);
+        Collections.sort(lyrlist, new Comparator<SeedLayer>() {
+            public int compare(SeedLayer l1, SeedLayer l2) {
+                return nhitmap.get(l1).compareTo(nhitmap.get(l2));
+            }
+        });
 
-        //  Store the layers to check in the seed
-        inputseed.setUncheckedLayers(lyrlist);
+        //  The layers to check are tracked by the candidate branches, so the input
+        //  seed is left with no unchecked layers to keep copies of it cheap
+        inputseed.setUncheckedLayers(new ArrayList<SeedLayer>());
 
         //  Start with the input seed
-        seedlist.add(inputseed);
+        CandidateBranch root = new CandidateBranch(inputseed);
+
+        //  In incremental mode, each candidate keeps the sums of its fit so hits are added at a fixed cost
+        if (_incremental && !_kalman && IncrementalHelixFit.isSupported(inputseed.getHelix()))
+            root.setFit(new IncrementalHelixFit(inputseed, bfield, corrections));
+        seedlist.add(root);
 
         //  Keep looping until we have fully processed all seed candidates
-        while (seedlist.size() > 0) {
+        while (!seedlist.isEmpty()) {
 
             //  If we have exceeded the maximum number of fits, print warning and stop processing seed candidates
             if (_nfit > _maxfit) {
@@ -251,12 +298,15 @@ public class ConfirmerExtender {
                 break;
             }
 
-            //  Pull the last seed off the queue (use a LIFO queue to minimize queue length)
-            SeedCandidate seed = seedlist.poll();
+            //  Stop with the candidates found so far if the event budget is used up
+            if (_budget != null && _budget.isExhausted()) break;
+
+            //  Pull the last candidate off the queue (use a LIFO queue to minimize queue length)
+            CandidateBranch branch = seedlist.poll();
 
             //  Check if there are enough unchecked layers to meet the minimum number of hits
-            int lyrsleft = seed.getUncheckedLayers().size();
-            int possiblehits = lyrsleft + seed.getHits().size();
+            int lyrsleft = lyrlist.size() - branch.getLayer();
+            int possiblehits = lyrsleft + branch.getNHits();
             if (possiblehits < minhits) continue;
 
             //  If there is a best fit candidate, see if there is still a chance of beating it
@@ -267,8 +317,8 @@ public class ConfirmerExtender {
                 if (possiblehits < besthits - 1) continue;
 
                 //  If the maximum hits we can achieve equals the best fit, skip if we have a worse chi2
-                double chisq = seed.getHelix().chisqtot();
-                double bestchisq = seed.getHelix().chisqtot();
+                double chisq = branch.getHelix().chisqtot();
+                double bestchisq = branch.getHelix().chisqtot();
                 if ((possiblehits == besthits) && chisq > bestchisq) continue;
 
                 //  If the maximum hits we can achieve is 1 fewer than the best fit, skip if the bad hit criteria can't be met
@@ -278,6 +328,17 @@ public class ConfirmerExtender {
             //  See if there are any layers left for confirm/extend
             if (lyrsleft == 0) {
 
+                //  Make the track candidate for this branch
+                SeedCandidate seed = branch.getSeed();
+
+                //  Fit candidates that have had hits added by the filter or incremental fit
+                if (branch.NeedsRefit()) {
+                    boolean success = _fitter.FitCandidate(seed, strategy);
+                    CountFit();
+                    if (!success) continue;
+                    seed.setHelix(_fitter.getHelix());
+                }
+
                 //  Take final action on this seed
                 if (task == Task.CONFIRM) {
 
@@ -297,47 +358,82 @@ public class ConfirmerExtender {
                 continue;
             }
 
-            //  Pull the next layer off the queue
-            SeedLayer lyr = seed.getNextLayer();
-            HelicalTrackFit helix = seed.getHelix();
+            //  Get the next layer to check
+            SeedLayer lyr = lyrlist.get(branch.getLayer());
+            HelicalTrackFit helix = branch.getHelix();
 
             //  Retrieve the chisq for the last fit and initialize the best fit chisq for this layer
             double oldchisq = helix.chisqtot();
             double oldcirclechisq = helix.chisq()[0];
             double chisqbest = 1.e99;
 
-            //  Get the list of hits to check for this layer and sort them by x-y distance from current helix
-            List<HelicalTrackHit> hitlist = hitmap.get(lyr);
-            SortHits comp = new SortHits(helix);
-            Collections.sort(hitlist, comp);
+            //  Tighten the chisq cut on new candidates if the event budget is running low
+            double chisqcut = maxchisq;
+            if (_budget != null && _budget.isDegraded()) chisqcut *= _budget.getChisqScale();
+
+            //  Read the hits to check for this layer in order of their distance from the current helix
+            LayerHitIndex.Cursor hits = _hmanager.getLayerIndex(lyr).Open(helix, sectormap.get(lyr));
 
-            //  Loop over the sorted hits in this layer
-            for (HelicalTrackHit hit : hitlist) {
+            //  Loop over the ordered hits in this layer
+            for (HelicalTrackHit hit = hits.Next(); hit != null; hit = hits.Next()) {
 
-                //  Make a test seed including the new hit
-                SeedCandidate test = new SeedCandidate(seed);
-                test.addHit(hit);
+                //  Check that this hit is potentially viable before making a test seed
+                if (!branch.CheckHit(checker, hit)) {
+                    if (_diag != null) _diag.fireCheckHitFailed(hit, branch.NewSeed(hit));
+                    continue;
+                }
 
-                //  Check that this hit is potentially viable
-                if (!checker.CheckHitSeed(hit, seed)) {
-                    if (_diag != null) _diag.fireCheckHitFailed(hit, test);
+                //  Kalman mode - update the helix with the new hit, falling back to a helix fit
+                //  below if the filter can't handle this helix or hit
+                if (_kalman) {
+                    boolean success = filter.AddHit(helix, hit, strategy);
+                    if (filter.isUpdated()) {
+                        CountFit();
+                        if (success && filter.getHelix().chisqtot() <= chisqcut) {
+                            HelicalTrackFit newhelix = filter.getHelix();
+                            seedlist.addFirst(branch.AddHit(hit, newhelix, null));
+                            chisqbest = Math.min(chisqbest, newhelix.chisqtot());
+                        } else {
+
+                            //  Stop checking hits in this layer if circle chisq increase is too big
+                            if (filter.getCircleChisq() > oldcirclechisq + maxchisq) break;
+                        }
+                        continue;
+                    }
+                }
+
+                //  Incremental mode - add the hit to the sums of the candidate's fit
+                if (branch.getFit() != null) {
+                    IncrementalHelixFit fit = new IncrementalHelixFit(branch.getFit());
+                    boolean success = fit.AddHit(hit, strategy);
+                    CountFit();
+                    if (success && fit.getHelix().chisqtot() <= chisqcut) {
+                        HelicalTrackFit newhelix = fit.getHelix();
+                        seedlist.addFirst(branch.AddHit(hit, newhelix, fit));
+                        chisqbest = Math.min(chisqbest, newhelix.chisqtot());
+                    } else {
+
+                        //  Stop checking hits in this layer if circle chisq increase is too big
+                        if (fit.getCircleChisq() > oldcirclechisq + maxchisq) break;
+                    }
                     continue;
                 }
 
-                //  Fit the test seed
+                //  Fit a test seed including the new hit
+                SeedCandidate test = branch.NewSeed(hit);
                 boolean success = _fitter.FitCandidate(test, strategy);
-                _nfit++;
+                CountFit();
 
 
                 //  Check if the fit was successful
-                if (success) {
+                if (success && _fitter.getHelix().chisqtot() <= chisqcut) {
 
                     //  Success - attach the fit to the test seed
                     HelicalTrackFit newhelix = _fitter.getHelix();
                     test.setHelix(newhelix);
 
                     //  Add the seed to the LIFO queue of seed candidates and update the best chisq
-                    seedlist.addFirst(test);
+                    seedlist.addFirst(branch.AddHit(hit, test));
                     chisqbest = Math.min(chisqbest, newhelix.chisqtot());
 
                 } else {
@@ -351,15 +447,23 @@ public class ConfirmerExtender {
             }
 
             //  Finished checking hits in the current layer.  If all the fit trials for
-            //  this layer are potentially bad hits, include the starting seed (less the
-            //  current layer, which was popped off the layer queue) in the seed list.
-            if (chisqbest - oldchisq > strategy.getBadHitChisq()) seedlist.addFirst(seed);
+            //  this layer are potentially bad hits, include the starting candidate (less
+            //  the current layer) in the seed list.
+            if (chisqbest - oldchisq > strategy.getBadHitChisq()) seedlist.addFirst(branch.SkipLayer());
         }
 
         //  Finished looping over the seeds in the LIFO candidate queue - we are done!
         return;
     }
 
+    /**
+     * Count a helix fit (or helix update) for this seed and against the event budget.
+     */
+    private void CountFit() {
+        _nfit++;
+        if (_budget != null) _budget.AddFit();
+    }
+
     /**
      * Check two track candidates and return the best one subject to the merging criteria.
      *
@@ -389,4 +493,54 @@ public class ConfirmerExtender {
         _applySectorBinning = applySectorBinning;
     }
 
+    /**
+     * Set to add hits to a candidate with a Kalman filter update of its helix
+     * rather than a new helix fit.  The helix fit is then only done for the final
+     * candidates of the confirm and extend steps.
+     *
+     * @param kalman Kalman mode switch
+     */
+    public void setKalmanMode(boolean kalman) {
+        _kalman = kalman;
+    }
+
+    /**
+     * Return true if hits are added with a Kalman filter update.
+     *
+     * @return Kalman mode switch
+     */
+    public boolean getKalmanMode() {
+        return _kalman;
+    }
+
+    /**
+     * Set to add hits to a candidate by updating the sums of an incremental helix
+     * fit rather than with a new helix fit.  The helix fit is then only done for
+     * the final candidates of the confirm and extend steps.  Kalman mode takes
+     * precedence if both are set.
+     *
+     * @param incremental incremental fit switch
+     */
+    public void setIncrementalFit(boolean incremental) {
+        _incremental = incremental;
+    }
+
+    /**
+     * Return true if hits are added by updating an incremental helix fit.
+     *
+     * @return incremental fit switch
+     */
+    public boolean getIncrementalFit() {
+        return _incremental;
+    }
+
+    /**
+     * Return true if the sector bins are used in checking for consistent hits.
+     *
+     * @return apply sector binning switch
+     */
+    public boolean getApplySectorBinning() {
+        return _applySectorBinning;
+    }
+
 }
\ No newline at end of file
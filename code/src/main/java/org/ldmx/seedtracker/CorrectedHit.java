@@ -0,0 +1,363 @@
+package org.ldmx.seedtracker;
+
+import hep.physics.matrix.SymmetricMatrix;
+import hep.physics.vec.BasicHep3Vector;
+import hep.physics.vec.Hep3Vector;
+
+import java.util.List;
+
+import org.lcsim.fit.helicaltrack.HelicalTrack3DHit;
+import org.lcsim.fit.helicaltrack.HelicalTrackCross;
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.fit.helicaltrack.HelicalTrackStrip;
+import org.lcsim.geometry.subdetector.BarrelEndcapFlag;
+
+/**
+ * Position and covariance of a hit for a given track direction.  For stereo
+ * hits (HelicalTrackCross) these are found from the two strips without calling
+ * setTrackDirection, so the hit itself is never changed and the same hit can
+ * be corrected for several helices at once from different threads.  Other hit
+ * types don't depend on the track direction, and their position and
+ * covariance are read from the hit as they are.  The position and covariance
+ * are kept as numbers, so a correction doesn't allocate any vectors or
+ * matrices.
+ * <p>
+ * For a stereo hit and a helix, the track direction is taken at the point where
+ * the helix passes the stereo hit position for an unknown direction.  The hit
+ * is then the midpoint of the two points on the strips that lie on a line along
+ * that direction.  The covariance comes from the errors of the two strip
+ * measurements plus, as in HelicalTrackCross, the error of the track direction
+ * of the helix at the hit.  Without a helix the stereo hit position for an
+ * unknown track direction, which is fixed when the hit is made, is used.
+ */
+final class CorrectedHit {
+
+    private final HelicalTrackHit _hit;
+    private final double _x;
+    private final double _y;
+    private final double _z;
+    private final double _cxx;
+    private final double _cxy;
+    private final double _cyy;
+    private final double _cxz;
+    private final double _cyz;
+    private final double _czz;
+
+    //  Change in the position for a change in the track azimuth and dip slope (stereo hits only)
+    private final double[] _dpos;
+
+    private CorrectedHit(HelicalTrackHit hit, double x, double y, double z, double cxx, double cxy,
+            double cyy, double cxz, double cyz, double czz, double[] dpos) {
+        _hit = hit;
+        _x = x;
+        _y = y;
+        _z = z;
+        _cxx = cxx;
+        _cxy = cxy;
+        _cyy = cyy;
+        _cxz = cxz;
+        _cyz = cyz;
+        _czz = czz;
+        _dpos = dpos;
+    }
+
+    /**
+     * Correct a hit for the track direction of a helix.
+     *
+     * @param hit hit to correct
+     * @param helix helix (or null for an unknown track direction)
+     * @return corrected hit
+     */
+    static CorrectedHit Correct(HelicalTrackHit hit, HelicalTrackFit helix) {
+
+        //  Only stereo hits depend on the track direction
+        if (helix == null || !(hit instanceof HelicalTrackCross)) return Unknown(hit);
+
+        //  Correct for the track direction where the helix passes the hit
+        double s = TrackPath(hit, helix);
+        CorrectedHit chit = Correct((HelicalTrackCross) hit, helix.phi0() - s / helix.R(), helix.slope());
+        return chit.WithDirectionError(helix, s);
+    }
+
+    /**
+     * Return the x-y path length along a helix to the point where it passes the
+     * position of a stereo hit for an unknown track direction.
+     *
+     * @param hit stereo hit
+     * @param helix helix
+     * @return path length
+     */
+    static double TrackPath(HelicalTrackHit hit, HelicalTrackFit helix) {
+        double[] pos = hit.getPosition();
+        return HelixSupport.PathLength(helix, pos[0], pos[1]);
+    }
+
+    /**
+     * Return a hit at its position for an unknown track direction.
+     *
+     * @param hit hit
+     * @return corrected hit
+     */
+    static CorrectedHit Unknown(HelicalTrackHit hit) {
+        if (!(hit instanceof HelicalTrackCross)) {
+            Hep3Vector pos = hit.getCorrectedPosition();
+            SymmetricMatrix cov = hit.getCorrectedCovMatrix();
+            return new CorrectedHit(hit, pos.x(), pos.y(), pos.z(), cov.e(0, 0), cov.e(0, 1), cov.e(1, 1),
+                    cov.e(0, 2), cov.e(1, 2), cov.e(2, 2), null);
+        }
+
+        //  Packed lower triangle: xx, xy, yy, xz, yz, zz
+        double[] pos = hit.getPosition();
+        double[] cov = hit.getCovMatrix();
+        return new CorrectedHit(hit, pos[0], pos[1], pos[2], cov[0], cov[1], cov[2], cov[3], cov[4], cov[5], null);
+    }
+
+    /**
+     * Correct a stereo hit for a track direction.  The result doesn't include
+     * the error of the track direction, which is added by WithDirectionError.
+     *
+     * @param cross stereo hit
+     * @param phi azimuth of the track direction
+     * @param slope dip slope (tan lambda) of the track direction
+     * @return corrected hit
+     */
+    static CorrectedHit Correct(HelicalTrackCross cross, double phi, double slope) {
+
+        //  Track direction, which doesn't need to be normalized as only ratios of t enter below
+        double cphi = Math.cos(phi);
+        double sphi = Math.sin(phi);
+        double tx = cphi;
+        double ty = sphi;
+        double tz = slope;
+
+        List<HelicalTrackStrip> strips = cross.getStrips();
+        HelicalTrackStrip strip1 = strips.get(0);
+        HelicalTrackStrip strip2 = strips.get(1);
+        Hep3Vector u1 = strip1.u();
+        Hep3Vector u2 = strip2.u();
+        Hep3Vector v1 = strip1.v();
+        Hep3Vector v2 = strip2.v();
+        Hep3Vector o1 = strip1.origin();
+        Hep3Vector o2 = strip2.origin();
+
+        //  Keep the position for an unknown direction if the strips are parallel to each other or the track
+        double tw = Triple(tx, ty, tz, v1.x(), v1.y(), v1.z(), v2.x(), v2.y(), v2.z());
+        if (Math.abs(tw) < 1.e-9 * Math.sqrt(1. + slope * slope)) return Unknown(cross);
+
+        //  Measured points on the two strips
+        double m1 = strip1.umeas();
+        double m2 = strip2.umeas();
+        double c1x = o1.x() + m1 * u1.x();
+        double c1y = o1.y() + m1 * u1.y();
+        double c1z = o1.z() + m1 * u1.z();
+        double c2x = o2.x() + m2 * u2.x();
+        double c2y = o2.y() + m2 * u2.y();
+        double c2z = o2.z() + m2 * u2.z();
+        double dcx = c2x - c1x;
+        double dcy = c2y - c1y;
+        double dcz = c2z - c1z;
+
+        //  Points c1 + k1 v1 and c2 + k2 v2 on the strips joined by a line along the track direction
+        double k1 = Triple(tx, ty, tz, dcx, dcy, dcz, v2.x(), v2.y(), v2.z()) / tw;
+        double k2 = Triple(tx, ty, tz, dcx, dcy, dcz, v1.x(), v1.y(), v1.z()) / tw;
+        double x = 0.5 * (c1x + k1 * v1.x() + c2x + k2 * v2.x());
+        double y = 0.5 * (c1y + k1 * v1.y() + c2y + k2 * v2.y());
+        double z = 0.5 * (c1z + k1 * v1.z() + c2z + k2 * v2.z());
+
+        //  Change in the position for a change in each strip measurement
+        double e11 = -Triple(tx, ty, tz, u1.x(), u1.y(), u1.z(), v2.x(), v2.y(), v2.z()) / tw;
+        double e12 = -Triple(tx, ty, tz, u1.x(), u1.y(), u1.z(), v1.x(), v1.y(), v1.z()) / tw;
+        double e21 = Triple(tx, ty, tz, u2.x(), u2.y(), u2.z(), v2.x(), v2.y(), v2.z()) / tw;
+        double e22 = Triple(tx, ty, tz, u2.x(), u2.y(), u2.z(), v1.x(), v1.y(), v1.z()) / tw;
+        double g1x = 0.5 * (u1.x() + e11 * v1.x() + e12 * v2.x());
+        double g1y = 0.5 * (u1.y() + e11 * v1.y() + e12 * v2.y());
+        double g1z = 0.5 * (u1.z() + e11 * v1.z() + e12 * v2.z());
+        double g2x = 0.5 * (u2.x() + e21 * v1.x() + e22 * v2.x());
+        double g2y = 0.5 * (u2.y() + e21 * v1.y() + e22 * v2.y());
+        double g2z = 0.5 * (u2.z() + e21 * v1.z() + e22 * v2.z());
+        double var1 = strip1.du() * strip1.du();
+        double var2 = strip2.du() * strip2.du();
+
+        //  Change in the position for a change in the track azimuth (dt = (-sin phi, cos phi, 0))
+        //  and dip slope (dt = (0, 0, 1))
+        double[] dpos = new double[6];
+        DirectionDerivative(-sphi, cphi, 0., k1, k2, tw, dcx, dcy, dcz, v1, v2, dpos, 0);
+        DirectionDerivative(0., 0., 1., k1, k2, tw, dcx, dcy, dcz, v1, v2, dpos, 3);
+
+        return new CorrectedHit(cross, x, y, z,
+                var1 * g1x * g1x + var2 * g2x * g2x,
+                var1 * g1x * g1y + var2 * g2x * g2y,
+                var1 * g1y * g1y + var2 * g2y * g2y,
+                var1 * g1x * g1z + var2 * g2x * g2z,
+                var1 * g1y * g1z + var2 * g2y * g2z,
+                var1 * g1z * g1z + var2 * g2z * g2z,
+                dpos);
+    }
+
+    /**
+     * Return this hit with the error of the track direction of a helix added
+     * to the covariance.  The azimuth of the track direction at path length s
+     * is phi0 - s * curvature, so its errors follow from the helix covariance.
+     * Hits that don't depend on the track direction are returned as they are.
+     *
+     * @param helix helix giving the track direction
+     * @param s x-y path length along the helix to the hit
+     * @return hit with the track direction error included
+     */
+    CorrectedHit WithDirectionError(HelicalTrackFit helix, double s) {
+        if (_dpos == null) return this;
+
+        SymmetricMatrix hcov = helix.covariance();
+        int phi0 = HelixSupport.PHI0;
+        int curv = HelixSupport.CURV;
+        int slope = HelixSupport.SLOPE;
+        double vpp = hcov.e(phi0, phi0) - 2. * s * hcov.e(phi0, curv) + s * s * hcov.e(curv, curv);
+        double vps = hcov.e(phi0, slope) - s * hcov.e(curv, slope);
+        double vss = hcov.e(slope, slope);
+
+        double[] d = _dpos;
+        return new CorrectedHit(_hit, _x, _y, _z,
+                _cxx + DirectionCov(d, 0, 0, vpp, vps, vss),
+                _cxy + DirectionCov(d, 0, 1, vpp, vps, vss),
+                _cyy + DirectionCov(d, 1, 1, vpp, vps, vss),
+                _cxz + DirectionCov(d, 0, 2, vpp, vps, vss),
+                _cyz + DirectionCov(d, 1, 2, vpp, vps, vss),
+                _czz + DirectionCov(d, 2, 2, vpp, vps, vss),
+                null);
+    }
+
+    /**
+     * Return the hit that was corrected.
+     *
+     * @return hit
+     */
+    HelicalTrackHit getHit() {
+        return _hit;
+    }
+
+    double x() {
+        return _x;
+    }
+
+    double y() {
+        return _y;
+    }
+
+    double z() {
+        return _z;
+    }
+
+    double covxx() {
+        return _cxx;
+    }
+
+    double covxy() {
+        return _cxy;
+    }
+
+    double covyy() {
+        return _cyy;
+    }
+
+    double covzz() {
+        return _czz;
+    }
+
+    double r() {
+        return Math.sqrt(_x * _x + _y * _y);
+    }
+
+    double phi() {
+        double phi = Math.atan2(_y, _x);
+        if (phi < 0.) phi += 2. * Math.PI;
+        return phi;
+    }
+
+    /**
+     * Return the error on the radial position.
+     *
+     * @return radial error
+     */
+    double dr() {
+        double rr = _x * _x + _y * _y;
+        if (rr == 0.) return 0.;
+        return Math.sqrt((_x * _x * _cxx + 2. * _x * _y * _cxy + _y * _y * _cyy) / rr);
+    }
+
+    /**
+     * Return the error on the azimuthal position.
+     *
+     * @return r-phi error
+     */
+    double drphi() {
+        double rr = _x * _x + _y * _y;
+        if (rr == 0.) return 0.;
+        return Math.sqrt((_y * _y * _cxx - 2. * _x * _y * _cxy + _x * _x * _cyy) / rr);
+    }
+
+    /**
+     * Return the error on the z position.
+     *
+     * @return z error
+     */
+    double dz() {
+        return Math.sqrt(_czz);
+    }
+
+    /**
+     * Return the z coordinate used for the z sectors: z for barrel hits and
+     * r for endcap hits.
+     *
+     * @return sector z coordinate
+     */
+    double SectorZ() {
+        if (_hit.BarrelEndcapFlag() == BarrelEndcapFlag.BARREL) return z();
+        return r();
+    }
+
+    /**
+     * Return a hit with the corrected position and covariance for code that
+     * reads the position from a hit, such as the lcsim two point circle
+     * fitter.  Hits that don't depend on the track direction are returned as
+     * they are, and only stereo hits are copied into a new space point hit.
+     *
+     * @return hit at the corrected position
+     */
+    HelicalTrackHit getView() {
+        if (!(_hit instanceof HelicalTrackCross)) return _hit;
+        SymmetricMatrix cov = new SymmetricMatrix(3, new double[] {_cxx, _cxy, _cyy, _cxz, _cyz, _czz}, true);
+        return new HelicalTrack3DHit(new BasicHep3Vector(_x, _y, _z), cov, _hit.getdEdx(), _hit.getTime(),
+                _hit.getRawHits(), _hit.Detector(), _hit.Layer(), _hit.BarrelEndcapFlag());
+    }
+
+    /**
+     * Find the change in the position, 0.5 * (dk1 v1 + dk2 v2), for a change
+     * dt in the track direction and store it at dpos[offset].
+     */
+    private static void DirectionDerivative(double dtx, double dty, double dtz, double k1, double k2, double tw,
+            double dcx, double dcy, double dcz, Hep3Vector v1, Hep3Vector v2, double[] dpos, int offset) {
+        double dtw = Triple(dtx, dty, dtz, v1.x(), v1.y(), v1.z(), v2.x(), v2.y(), v2.z());
+        double dk1 = (Triple(dtx, dty, dtz, dcx, dcy, dcz, v2.x(), v2.y(), v2.z()) - k1 * dtw) / tw;
+        double dk2 = (Triple(dtx, dty, dtz, dcx, dcy, dcz, v1.x(), v1.y(), v1.z()) - k2 * dtw) / tw;
+        dpos[offset] = 0.5 * (dk1 * v1.x() + dk2 * v2.x());
+        dpos[offset + 1] = 0.5 * (dk1 * v1.y() + dk2 * v2.y());
+        dpos[offset + 2] = 0.5 * (dk1 * v1.z() + dk2 * v2.z());
+    }
+
+    /**
+     * Return element (i, j) of the position covariance from the track
+     * direction errors.
+     */
+    private static double DirectionCov(double[] d, int i, int j, double vpp, double vps, double vss) {
+        return d[i] * d[j] * vpp + (d[i] * d[j + 3] + d[i + 3] * d[j]) * vps + d[i + 3] * d[j + 3] * vss;
+    }
+
+    /**
+     * Return the triple product t . (a x b).
+     */
+    private static double Triple(double tx, double ty, double tz, double ax, double ay, double az,
+            double bx, double by, double bz) {
+        return tx * (ay * bz - az * by) + ty * (az * bx - ax * bz) + tz * (ax * by - ay * bx);
+    }
+}
@@ -0,0 +1,171 @@
+package org.ldmx.seedtracker;
+
+import org.lcsim.fit.helicaltrack.HelicalTrackCross;
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+
+/**
+ * Corrected stereo hit positions for one event, kept for each hit and binned
+ * track direction.  The track directions of the helices checked against a hit
+ * are usually very close together, so the direction is binned in azimuth and
+ * dip angle with a fixed tolerance and each hit is only corrected once per bin.
+ * The correction for a bin is made for the direction at the center of the bin,
+ * so the result doesn't depend on which helix asked for it first.  The error
+ * of the track direction depends on the helix covariance, so it is added to
+ * the cached correction for each helix.  The cache can be used by several
+ * threads at once.
+ * <p>
+ * The hits are identified by their index in the packed hits, as in the
+ * DoubletCache, and each stereo hit has its own small table of direction bins
+ * keyed by a primitive long.  Hits that aren't in the packed hits are
+ * corrected for the exact track direction every time.
+ * <p>
+ * A tolerance of 0 turns the cache off, and every request is then corrected
+ * for the exact track direction of the helix.
+ */
+class CorrectionCache {
+
+    private final double _tolerance;
+    private final PackedHits _packed;
+    private final Bins[] _bins;
+
+    /**
+     * Make a cache that doesn't keep any corrections.
+     */
+    CorrectionCache() {
+        this(0., null);
+    }
+
+    /**
+     * Make an empty cache for the hits of an event.
+     *
+     * @param tolerance size of the track direction bins in radians (0 for no caching)
+     * @param packed packed hits for the event (may be null if the tolerance is 0)
+     */
+    CorrectionCache(double tolerance, PackedHits packed) {
+        _tolerance = packed != null ? tolerance : 0.;
+        _packed = packed;
+        if (_tolerance > 0.) {
+            _bins = new Bins[packed.size()];
+            for (int i = 0; i < _bins.length; i++) {
+                if (packed.type[i] == PackedHits.STEREO) _bins[i] = new Bins();
+            }
+        } else {
+            _bins = null;
+        }
+    }
+
+    double getTolerance() {
+        return _tolerance;
+    }
+
+    /**
+     * Return a hit corrected for the track direction of a helix, taking it from
+     * the cache if the hit has already been corrected for a direction in the
+     * same bin.
+     *
+     * @param hit hit to correct
+     * @param helix helix (or null for an unknown track direction)
+     * @return corrected hit
+     */
+    CorrectedHit Correct(HelicalTrackHit hit, HelicalTrackFit helix) {
+
+        //  Only stereo hits need correcting
+        if (_tolerance <= 0. || !(hit instanceof HelicalTrackCross)) return CorrectedHit.Correct(hit, helix);
+        int index = _packed.getIndex(hit);
+        if (index < 0 || _bins[index] == null) return CorrectedHit.Correct(hit, helix);
+        Bins bins = _bins[index];
+
+        //  The position for an unknown direction is kept on its own
+        if (helix == null) {
+            CorrectedHit chit = bins.getUnknown();
+            if (chit == null) chit = bins.setUnknown(CorrectedHit.Unknown(hit));
+            return chit;
+        }
+
+        //  Find the direction bin
+        double s = CorrectedHit.TrackPath(hit, helix);
+        double phi = helix.phi0() - s / helix.R();
+        phi -= 2. * Math.PI * Math.floor(phi / (2. * Math.PI));
+        int phibin = (int) Math.floor(phi / _tolerance);
+        int lambdabin = (int) Math.floor(Math.atan(helix.slope()) / _tolerance);
+        long key = ((long) phibin << 32) | (lambdabin & 0xffffffffL);
+
+        //  Correct the hit for the direction at the center of the bin if it isn't in the cache
+        CorrectedHit chit = bins.Get(key);
+        if (chit == null) {
+            double binphi = (phibin + 0.5) * _tolerance;
+            double binslope = Math.tan((lambdabin + 0.5) * _tolerance);
+            chit = bins.Put(key, CorrectedHit.Correct((HelicalTrackCross) hit, binphi, binslope));
+        }
+        return chit.WithDirectionError(helix, s);
+    }
+
+    /**
+     * Open addressing table from a direction bin key to the hit corrected for
+     * that bin, for one hit.  A hit is only seen by a few bins, so the table
+     * starts small.  The table is locked for each access, which is uncontended
+     * unless two threads correct the same hit at the same time.
+     */
+    private static final class Bins {
+
+        private CorrectedHit _unknown;
+        private long[] _keys = new long[4];
+        private CorrectedHit[] _hits = new CorrectedHit[4];
+        private int _nentries = 0;
+
+        synchronized CorrectedHit getUnknown() {
+            return _unknown;
+        }
+
+        synchronized CorrectedHit setUnknown(CorrectedHit chit) {
+            if (_unknown == null) _unknown = chit;
+            return _unknown;
+        }
+
+        synchronized CorrectedHit Get(long key) {
+            int mask = _keys.length - 1;
+            for (int slot = Slot(key, mask); _hits[slot] != null; slot = (slot + 1) & mask) {
+                if (_keys[slot] == key) return _hits[slot];
+            }
+            return null;
+        }
+
+        /**
+         * Store a corrected hit unless another thread got there first, and
+         * return the hit that is kept.
+         */
+        synchronized CorrectedHit Put(long key, CorrectedHit chit) {
+
+            //  Keep the table at most half full
+            if (2 * (_nentries + 1) > _keys.length) Grow();
+
+            int mask = _keys.length - 1;
+            int slot = Slot(key, mask);
+            while (_hits[slot] != null) {
+                if (_keys[slot] == key) return _hits[slot];
+                slot = (slot + 1) & mask;
+            }
+            _keys[slot] = key;
+            _hits[slot] = chit;
+            _nentries++;
+            return chit;
+        }
+
+        private void Grow() {
+            long[] oldkeys = _keys;
+            CorrectedHit[] oldhits = _hits;
+            _keys = new long[2 * oldkeys.length];
+            _hits = new CorrectedHit[2 * oldkeys.length];
+            _nentries = 0;
+            for (int i = 0; i < oldkeys.length; i++) {
+                if (oldhits[i] != null) Put(oldkeys[i], oldhits[i]);
+            }
+        }
+
+        private static int Slot(long key, int mask) {
+            long h = key * 0x9e3779b97f4a7c15L;
+            return (int) (h >>> 32) & mask;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.ldmx.seedtracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cache of the hit pair checks done while seeding an event, shared by all the
+ * strategies that use the same packed hits.  Hit pairs are identified by their
+ * indices in the packed hits.  Two kinds of result are kept:
+ * <p>
+ * The two-point circle fit only depends on the minimum radius of curvature and
+ * the maximum DCA, so for each distinct pair of these values the fit outcome
+ * and the range of arc lengths to the two hits are kept.  Strategies with the
+ * same curvature and DCA cuts re-use these even if their other cuts differ.
+ * <p>
+ * The pass / fail result of the pair check is kept for each distinct set of
+ * cuts, so strategies with identical cuts don't repeat the check at all.
+ */
+public class DoubletCache {
+
+    private static final byte EMPTY = 0;
+    private static final byte PASS = 1;
+    private static final byte FAIL = 2;
+
+    private List<double[]> _fitsettings = new ArrayList<double[]>();
+    private List<double[]> _cutsettings = new ArrayList<double[]>();
+    private Table _fits = new Table(4);
+    private Table _results = new Table(0);
+
+    /**
+     * Return the identifier for a set of circle fit settings.
+     *
+     * @param rmin minimum radius of curvature
+     * @param dmax maximum DCA
+     * @return fit settings identifier
+     */
+    public int getFitID(double rmin, double dmax) {
+        return Canonical(_fitsettings, new double[] {rmin, dmax});
+    }
+
+    /**
+     * Return the identifier for a set of pair check cuts.
+     *
+     * @param rmin minimum radius of curvature
+     * @param dmax maximum DCA
+     * @param z0max maximum z0
+     * @param nsig number of sigma allowed for the hit uncertainties
+     * @param sectorbins true if the hits must be in the same z sector bin
+     * @return cut set identifier
+     */
+    public int getCutID(double rmin, double dmax, double z0max, double nsig, boolean sectorbins) {
+        return Canonical(_cutsettings, new double[] {rmin, dmax, z0max, nsig, sectorbins ? 1. : 0.});
+    }
+
+    /**
+     * Look up a pair check result.
+     *
+     * @param cutid cut set identifier
+     * @param i1 index of the first hit
+     * @param i2 index of the second hit
+     * @return 1 if the pair passed, 0 if it failed, -1 if it hasn't been checked
+     */
+    public int getResult(int cutid, int i1, int i2) {
+        int slot = _results.Find(Key(cutid, i1, i2));
+        if (slot < 0) return -1;
+        return _results._states[slot] == PASS ? 1 : 0;
+    }
+
+    /**
+     * Save a pair check result.
+     *
+     * @param cutid cut set identifier
+     * @param i1 index of the first hit
+     * @param i2 index of the second hit
+     * @param pass true if the pair passed
+     */
+    public void setResult(int cutid, int i1, int i2, boolean pass) {
+        _results.Store(Key(cutid, i1, i2), pass ? PASS : FAIL);
+    }
+
+    /**
+     * Look up a circle fit, copying the arc length ranges {s1min, s1max, s2min,
+     * s2max} for a successful fit.
+     *
+     * @param fitid fit settings identifier
+     * @param i1 index of the first hit
+     * @param i2 index of the second hit
+     * @param srange array that receives the arc length ranges
+     * @return 1 if the fit succeeded, 0 if it failed, -1 if it hasn't been done
+     */
+    public int getFit(int fitid, int i1, int i2, double[] srange) {
+        int slot = _fits.Find(Key(fitid, i1, i2));
+        if (slot < 0) return -1;
+        if (_fits._states[slot] == FAIL) return 0;
+        System.arraycopy(_fits._values, 4 * slot, srange, 0, 4);
+        return 1;
+    }
+
+    /**
+     * Save a circle fit.
+     *
+     * @param fitid fit settings identifier
+     * @param i1 index of the first hit
+     * @param i2 index of the second hit
+     * @param srange arc length ranges {s1min, s1max, s2min, s2max}, or null if the fit failed
+     */
+    public void setFit(int fitid, int i1, int i2, double[] srange) {
+        int slot = _fits.Store(Key(fitid, i1, i2), srange == null ? FAIL : PASS);
+        if (srange != null) System.arraycopy(srange, 0, _fits._values, 4 * slot, 4);
+    }
+
+    private static int Canonical(List<double[]> settings, double[] values) {
+        for (int i = 0; i < settings.size(); i++) {
+            if (Arrays.equals(settings.get(i), values)) return i;
+        }
+        settings.add(values);
+        return settings.size() - 1;
+    }
+
+    /**
+     * Pack a settings identifier and the two hit indices into a key.  Hit indices
+     * are kept to 24 bits.
+     */
+    private static long Key(int id, int i1, int i2) {
+        return ((long) id << 48) | ((long) (i1 & 0xffffff) << 24) | (i2 & 0xffffff);
+    }
+
+    /**
+     * Open addressing hash table from a key to a state and a fixed number of
+     * double values.
+     */
+    private static class Table {
+
+        private int _width;
+        private long[] _keys = new long[1024];
+        private byte[] _states = new byte[1024];
+        private double[] _values;
+        private int _nentries = 0;
+
+        Table(int width) {
+            _width = width;
+            _values = new double[width * _keys.length];
+        }
+
+        int Find(long key) {
+            int mask = _keys.length - 1;
+            int slot = Slot(key, mask);
+            while (_states[slot] != EMPTY) {
+                if (_keys[slot] == key) return slot;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        int Store(long key, byte state) {
+
+            //  Keep the table at most half full
+            if (2 * (_nentries + 1) > _keys.length) Grow();
+
+            int mask = _keys.length - 1;
+            int slot = Slot(key, mask);
+            while (_states[slot] != EMPTY) {
+                if (_keys[slot] == key) break;
+                slot = (slot + 1) & mask;
+            }
+            if (_states[slot] == EMPTY) _nentries++;
+            _keys[slot] = key;
+            _states[slot] = state;
+            return slot;
+        }
+
+        private void Grow() {
+            long[] oldkeys = _keys;
+            byte[] oldstates = _states;
+            double[] oldvalues = _values;
+            _keys = new long[2 * oldkeys.length];
+            _states = new byte[2 * oldkeys.length];
+            _values = new double[_width * _keys.length];
+            _nentries = 0;
+            for (int i = 0; i < oldkeys.length; i++) {
+                if (oldstates[i] == EMPTY) continue;
+                int slot = Store(oldkeys[i], oldstates[i]);
+                System.arraycopy(oldvalues, _width * i, _values, _width * slot, _width);
+            }
+        }
+
+        private static int Slot(long key, int mask) {
+            long h = key * 0x9e3779b97f4a7c15L;
+            return (int) (h >>> 32) & mask;
+        }
+    }
+}
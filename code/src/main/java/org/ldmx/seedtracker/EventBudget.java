@@ -0,0 +1,127 @@
+package org.ldmx.seedtracker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit on the number of helix fits and the time spent on track finding for
+ * one event.  The budget is shared by all the seed finders and confirmers
+ * working on an event, so it can be used from several threads at once.
+ * <p>
+ * Track finding is degraded in two stages.  Once a fraction of the budget
+ * has been used, the remaining (lower priority) strategies are skipped and the
+ * chisq cut applied to track candidates in the confirm and extend steps is
+ * tightened.  Once the budget is used up, no more seeds are processed and the
+ * confirm and extend steps stop with the candidates they have found.  In
+ * either case the event is flagged as truncated.
+ */
+class EventBudget {
+
+    /** Level of an event that is within its budget */
+    static final int OK = 0;
+    /** Level of an event that has used the soft fraction of its budget */
+    static final int DEGRADED = 1;
+    /** Level of an event that has used up its budget */
+    static final int EXHAUSTED = 2;
+
+    private final long _maxfits;
+    private final long _maxnanos;
+    private final double _soft;
+    private final double _chisqscale;
+    private final AtomicLong _nfit = new AtomicLong();
+    private final AtomicInteger _level = new AtomicInteger(OK);
+    private volatile long _start;
+
+    /**
+     * Create an event budget.
+     *
+     * @param maxfits maximum number of helix fits per event (0 for no limit)
+     * @param maxtime maximum track finding time per event in ms (0 for no limit)
+     * @param soft fraction of the budget after which track finding is degraded
+     * @param chisqscale factor applied to the chisq cut when track finding is degraded
+     */
+    EventBudget(long maxfits, double maxtime, double soft, double chisqscale) {
+        _maxfits = maxfits;
+        _maxnanos = (long) (1.e6 * maxtime);
+        _soft = soft;
+        _chisqscale = chisqscale;
+    }
+
+    /**
+     * Start the budget for a new event.
+     */
+    void Start() {
+        _nfit.set(0);
+        _level.set(OK);
+        _start = System.nanoTime();
+    }
+
+    /**
+     * Count a helix fit against the budget.
+     */
+    void AddFit() {
+        _nfit.incrementAndGet();
+    }
+
+    /**
+     * Return the level of the budget for this event, which never decreases
+     * during an event.
+     *
+     * @return OK, DEGRADED or EXHAUSTED
+     */
+    int Level() {
+        int level = _level.get();
+        if (level == EXHAUSTED) return level;
+
+        //  Find the largest fraction of the fit and time budgets used
+        double used = 0.;
+        if (_maxfits > 0) used = Math.max(used, (double) _nfit.get() / _maxfits);
+        if (_maxnanos > 0) used = Math.max(used, (double) (System.nanoTime() - _start) / _maxnanos);
+
+        int newlevel = OK;
+        if (used >= 1.) newlevel = EXHAUSTED;
+        else if (used >= _soft) newlevel = DEGRADED;
+
+        //  Raise the level if another thread hasn't already done so
+        while (newlevel > level) {
+            if (_level.compareAndSet(level, newlevel)) return newlevel;
+            level = _level.get();
+        }
+        return level;
+    }
+
+    boolean isDegraded() {
+        return Level() >= DEGRADED;
+    }
+
+    boolean isExhausted() {
+        return Level() == EXHAUSTED;
+    }
+
+    /**
+     * Return true if track finding was degraded or stopped for this event.
+     *
+     * @return truncation flag
+     */
+    boolean isTruncated() {
+        return _level.get() != OK;
+    }
+
+    /**
+     * Return the factor applied to the chisq cut when track finding is degraded.
+     *
+     * @return chisq scale factor
+     */
+    double getChisqScale() {
+        return _chisqscale;
+    }
+
+    /**
+     * Return the number of helix fits counted for this event.
+     *
+     * @return number of fits
+     */
+    long getNFit() {
+        return _nfit.get();
+    }
+}
@@ -4,7 +4,6 @@ import org.lcsim.constants.Constants;
 import org.lcsim.fit.threepointcircle.CircleFit;
 import org.lcsim.fit.helicaltrack.HelicalTrack2DHit;
 import org.lcsim.fit.helicaltrack.HelicalTrack3DHit;
-import org.lcsim.fit.helicaltrack.HelicalTrackCross;
 import org.lcsim.fit.helicaltrack.HelicalTrackFit;
 import org.lcsim.fit.helicaltrack.HelicalTrackHit;
 import org.lcsim.fit.threepointcircle.ThreePointCircleFitter;
@@ -39,6 +38,30 @@ public class FastCheck {
     private boolean _skipchecks = true;
     private boolean _doSectorBinCheck = false;
     private SectorManager _sectorManager = null;
+    private CorrectionCache _corrections = null;
+
+    //  Scratch space so the hit checks don't allocate
+    private double[] _p1 = new double[2];
+    private double[] _p2 = new double[2];
+    private double[] _p3 = new double[2];
+    private double _zmin;
+    private double _zmax;
+    private double _smin;
+    private double _smax;
+    private double[] _srange = new double[4];
+
+    //  Hit pair cache for the current event and the identifiers of our cuts in it
+    private DoubletCache _cache = null;
+    private int _fitid;
+    private int _cutid;
+
+    //  Pair checks with the first hit kept by the batched triplet check
+    private PackedHits _pairhits = null;
+    private int _pairhit;
+    private int _pairfirst;
+    private int _pairn;
+    private long[] _pairtested = new long[0];
+    private long[] _pairpassed = new long[0];
 
     public FastCheck(SeedStrategy strategy, double bfield, ISeedTrackerDiagnostics diag) {
         _strategy = strategy;
@@ -61,8 +84,19 @@ public class FastCheck {
     public void setDoSectorBinCheck(SectorManager sectorManager) {
         _doSectorBinCheck = true;
         _sectorManager = sectorManager;
+        _cache = null;
     }
     
+    /**
+     * Take the corrected stereo hit positions from a cache instead of correcting
+     * the hits for every check.
+     *
+     * @param corrections corrected hit cache for this event (or null)
+     */
+    void setCorrectionCache(CorrectionCache corrections) {
+        _corrections = corrections;
+    }
+
     public void setSkipChecks(boolean skipChecks) { 
         this._skipchecks = skipChecks; 
     }
@@ -72,22 +106,39 @@ public class FastCheck {
         if (_skipchecks) return true;
 
         //  Check the hit against each hit in the seed
+        HelicalTrackFit helix = seed.getHelix();
         for (HelicalTrackHit hit2 : seed.getHits()) {
-            if (!TwoPointCircleCheck(hit, hit2, seed)) return false;
-            if (this._doSectorBinCheck) {
-                if (!zSectorCheck(hit,hit2)) {
-                    return false;
-                }
-            }
+            if (!CheckHitHelix(hit, hit2, helix)) return false;
         }
 
         return true;
     }
 
+    /**
+     * Check a hit against one of the hits of a track candidate, using the helix
+     * of the candidate to correct the position of stereo hits.  This is the
+     * check CheckHitSeed applies to each hit of a seed, for callers that keep
+     * the hits of a candidate without a SeedCandidate.
+     *
+     * @param hit hit to check
+     * @param hit2 hit on the track candidate
+     * @param helix helix of the track candidate (or null if unknown)
+     * @return true if the hits are consistent with the strategy
+     */
+    public boolean CheckHitHelix(HelicalTrackHit hit, HelicalTrackHit hit2, HelicalTrackFit helix) {
+
+        if (_skipchecks) return true;
+
+        return CircleCheck(hit, hit2, helix);
+    }
+
     public boolean CheckSector(SeedCandidate seed, Sector sector) {
 
         if (_skipchecks) return true;
 
+        //  Planar sectors are checked in the sensor-plane coordinates
+        if (sector instanceof PlanarSector) return CheckPlanarSector(seed, (PlanarSector) sector);
+
         //  Get limits on r, phi, and z for hits in this sector
         double rmin = sector.rmin();
         double rmax = sector.rmax();
@@ -104,15 +155,15 @@ public class FastCheck {
         for (HelicalTrackHit hit : seed.getHits()) {
 
             //  Adjust the hit position for stereo hits
-            CorrectHitPosition(hit, seed);
+            CorrectedHit chit = Correct(hit, seed.getHelix());
 
             //  Calculate the max track angle change between the hit and sector layer
-            double dphitrk1 = dphimax(hit.r(), rmin);
-            double dphitrk2 = dphimax(hit.r(), rmax);
+            double dphitrk1 = dphimax(chit.r(), rmin);
+            double dphitrk2 = dphimax(chit.r(), rmax);
             double dphitrk = Math.max(dphitrk1, dphitrk2);
 
             //  Calculate the phi dev between the hit and midpoint of the sector
-            double dphi = phidif(hit.phi(), midphisec);
+            double dphi = phidif(chit.phi(), midphisec);
 
             //  The maximum dphi is the sum of the track bend and half the sector span
             double dphimx = dphitrk + dphisec;
@@ -120,7 +171,7 @@ public class FastCheck {
 
             double smin1 = smin(rmin);
             double smax1 = smax(rmax);
-            double r = hit.r();
+            double r = chit.r();
             double smin2 = smin(r);
             double smax2 = smax(r);
 
@@ -129,7 +180,7 @@ public class FastCheck {
             if (hit instanceof HelicalTrack2DHit) {
                 zlen = ((HelicalTrack2DHit) hit).zlen();
             }
-            double zmin2 = hit.z() - 0.5 * zlen;
+            double zmin2 = chit.z() - 0.5 * zlen;
             double zmax2 = zmin2 + zlen;
 
             //  Check the z0 limits
@@ -139,8 +190,8 @@ public class FastCheck {
             
             boolean zSectorOK = true;
         
-            if(_doSectorBinCheck) {                
-                zSectorOK = zSectorCheck(hit,sector);
+            if (SectorBinCheck()) {
+                zSectorOK = zSectorCheck(chit,sector);
             }
             
             if(!zSectorOK) return false;
@@ -153,9 +204,46 @@ public class FastCheck {
 
         if (_skipchecks) return true;
 
+        return CheckSectorPair(s1, s1.rmin(), s1.rmax(), xmin(s1), xmax(s1),
+                s2, s2.rmin(), s2.rmax(), xmin(s2), xmax(s2));
+    }
+
+    /**
+     * Check that two sectors are compatible using the envelopes of their layers
+     * in place of the range of the hits in the sectors.  The result only depends
+     * on the sector bins and the layer envelopes, so it can be re-used for any
+     * event.
+     *
+     * @param s1 first sector
+     * @param env1 envelope {rmin, rmax, xmin, xmax} of the first sector's layer
+     * @param s2 second sector
+     * @param env2 envelope {rmin, rmax, xmin, xmax} of the second sector's layer
+     * @return true if the sectors are compatible
+     */
+    public boolean CheckSectorPair(Sector s1, double[] env1, Sector s2, double[] env2) {
+
+        if (_skipchecks) return true;
+
+        return CheckSectorPair(s1, env1[0], env1[1], env1[2], env1[3], s2, env2[0], env2[1], env2[2], env2[3]);
+    }
+
+    private boolean CheckSectorPair(Sector s1, double r1min, double r1max, double x1min, double x1max,
+            Sector s2, double r2min, double r2max, double x2min, double x2max) {
+
+        //  Planar sectors are checked in the sensor-plane coordinates
+        if (s1 instanceof PlanarSector && s2 instanceof PlanarSector) {
+            PlanarSector p1 = (PlanarSector) s1;
+            PlanarSector p2 = (PlanarSector) s2;
+            boolean planarOK = planarPairCheck(x1min, x1max, p1.umin(), p1.umax(), p1.vmin(), p1.vmax(),
+                    x2min, x2max, p2.umin(), p2.umax(), p2.vmin(), p2.vmax());
+            if (!planarOK) return false;
+            if (SectorBinCheck()) return zSectorCheck(s1, s2);
+            return true;
+        }
+
         //  Calculate the maximum change in azimuth
-        double dphi1 = dphimax(s1.rmin(), s2.rmax());
-        double dphi2 = dphimax(s1.rmax(), s2.rmin());
+        double dphi1 = dphimax(r1min, r2max);
+        double dphi2 = dphimax(r1max, r2min);
 
         //  Calculate the angular difference between the midpoints of the 2 sectors
         double mid1 = (s1.phimax() + s1.phimin()) / 2.0;
@@ -174,10 +262,10 @@ public class FastCheck {
         if (!phiOK) return false;
 
         // Get the minimum and maximum path lengths
-        double s1min = smin(s1.rmin());
-        double s2min = smin(s2.rmin());
-        double s1max = smax(s1.rmax());
-        double s2max = smax(s2.rmax());
+        double s1min = smin(r1min);
+        double s2min = smin(r2min);
+        double s1max = smax(r1max);
+        double s2max = smax(r2max);
 
         //  Get the minimum and maximum z's
         double z1min = s1.zmin();
@@ -192,34 +280,245 @@ public class FastCheck {
   
         boolean zSectorOK = true;
         
-        if(_doSectorBinCheck) {
+        if (SectorBinCheck()) {
             zSectorOK = zSectorCheck(s1,s2);
         }
 
         return zSectorOK;
     }
 
+    /**
+     * Check that three planar sectors can be connected by a track.  The middle
+     * sector (in x) must lie within the maximum sagitta of the chord joining the
+     * outer two sectors in the bend coordinate, and on the chord in the non-bend
+     * coordinate.  Sectors that are not planar always pass this check.
+     *
+     * @param s0 first sector
+     * @param s1 second sector
+     * @param s2 third sector
+     * @return true if the sectors are compatible
+     */
+    public boolean CheckSectorTriple(Sector s0, Sector s1, Sector s2) {
+
+        if (_skipchecks) return true;
+        if (!(s0 instanceof PlanarSector && s1 instanceof PlanarSector && s2 instanceof PlanarSector)) return true;
+
+        //  Order the sectors in x
+        PlanarSector[] ps = {(PlanarSector) s0, (PlanarSector) s1, (PlanarSector) s2};
+        for (int i = 1; i < 3; i++) {
+            for (int j = i; j > 0 && xmid(ps[j]) < xmid(ps[j - 1]); j--) {
+                PlanarSector tmp = ps[j];
+                ps[j] = ps[j - 1];
+                ps[j - 1] = tmp;
+            }
+        }
+        PlanarSector a = ps[0];
+        PlanarSector m = ps[1];
+        PlanarSector c = ps[2];
+
+        //  Sectors that share a plane can't be used to form a chord
+        if (a.xmax() >= m.xmin() || m.xmax() >= c.xmin()) return true;
+
+        //  Find the range of deviations of the middle sector from the chord in u and v
+        double dumin = 1.0e10;
+        double dumax = -1.0e10;
+        double dvmin = 1.0e10;
+        double dvmax = -1.0e10;
+        double sagitta = 0.;
+        double[] xa = {a.xmin(), a.xmax()};
+        double[] xm = {m.xmin(), m.xmax()};
+        double[] xc = {c.xmin(), c.xmax()};
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                for (int k = 0; k < 2; k++) {
+
+                    //  Fractional distance of the middle plane along the chord
+                    double f = (xm[j] - xa[i]) / (xc[k] - xa[i]);
+
+                    //  The deviation is linear in the sector coordinates, so the extremes are at the corners
+                    double du1 = m.umin() - (1. - f) * a.umax() - f * c.umax();
+                    double du2 = m.umax() - (1. - f) * a.umin() - f * c.umin();
+                    double dv1 = m.vmin() - (1. - f) * a.vmax() - f * c.vmax();
+                    double dv2 = m.vmax() - (1. - f) * a.vmin() - f * c.vmin();
+                    dumin = Math.min(dumin, du1);
+                    dumax = Math.max(dumax, du2);
+                    dvmin = Math.min(dvmin, dv1);
+                    dvmax = Math.max(dvmax, dv2);
+
+                    //  Maximum sagitta for a circle of radius RMin through the outer points
+                    sagitta = Math.max(sagitta, maxbend(xm[j] - xa[i], xc[k] - xm[j]));
+                }
+            }
+        }
+
+        //  The track bend can move the middle point by up to the sagitta in u
+        if (dumin > sagitta || dumax < -sagitta) return false;
+
+        //  In the non-bend coordinate the middle point must be on the chord
+        return dvmin <= 0. && dvmax >= 0.;
+    }
+
     public boolean TwoPointCircleCheck(HelicalTrackHit hit1, HelicalTrackHit hit2, SeedCandidate seed) {
         if (_skipchecks) return true;
 
-        //  Initialize the hit coordinates for an unknown track direction
-        CorrectHitPosition(hit1, seed);
-        CorrectHitPosition(hit2, seed);
+        HelicalTrackFit helix = null;
+        if (seed != null) helix = seed.getHelix();
+        return CircleCheck(hit1, hit2, helix);
+    }
+
+    private boolean CircleCheck(HelicalTrackHit hit1, HelicalTrackHit hit2, HelicalTrackFit helix) {
+
+        //  Find the hit coordinates for the track direction (or an unknown direction if helix is null)
+        CorrectedHit chit1 = Correct(hit1, helix);
+        CorrectedHit chit2 = Correct(hit2, helix);
+
+        //  Check that hits are outside the maximum DCA
+        if (chit1.r() < _dMax || chit2.r() < _dMax) return false;
+
+        //  Try to find a circle passing through the 2 hits and the maximum DCA (only
+        //  stereo hits need a new hit at their corrected position for the fitter)
+        if (!FitCircle(chit1.getView(), chit2.getView())) return false;
+
+        //  Calculate the allowed variation in hit r and z (not 1 sigma errors!)
+        double dr1 = Math.max(_nsig * chit1.dr(), _dMax);
+        double dr2 = Math.max(_nsig * chit2.dr(), _dMax);
+        double dz1 = dz(chit1);
+        double dz2 = dz(chit2);
+
+        //  Check for consistent hits in the s-z plane
+        ArcLengths(_srange);
+        boolean zOK = TwoPointZCheck(_srange, chit1.z(), dr1, dz1, chit2.z(), dr2, dz2);
+
+        if(!zOK) return false;
+            
+        boolean zSectorOK = true;
+        
+        if (SectorBinCheck()) {
+            zSectorOK = zSectorCheck(chit1,chit2);
+        }
+
+        //  Done!
+        return zSectorOK;
+    }
+
+    /**
+     * Check a pair of hits for an unknown track direction, taking the hit
+     * information from the packed hit arrays.
+     *
+     * @param hits packed hits for this event
+     * @param i1 index of the first hit
+     * @param i2 index of the second hit
+     * @return true if the hits are consistent with the strategy
+     */
+    public boolean TwoPointCircleCheck(PackedHits hits, int i1, int i2) {
+        if (_skipchecks) return true;
 
         //  Check that hits are outside the maximum DCA
-        if (hit1.r() < _dMax || hit2.r() < _dMax) return false;
+        if (hits.r[i1] < _dMax || hits.r[i2] < _dMax) return false;
+
+        //  Get the identifiers for our cuts in the hit pair cache for this event
+        DoubletCache cache = hits.getDoubletCache();
+        if (cache != _cache) {
+            _cache = cache;
+            _fitid = cache.getFitID(_RMin, _dMax);
+            _cutid = cache.getCutID(_RMin, _dMax, _z0Max, _nsig, SectorBinCheck());
+        }
+
+        //  Use the result from another strategy with the same cuts if there is one
+        int result = cache.getResult(_cutid, i1, i2);
+        if (result >= 0) return result == 1;
+        boolean pass = TwoPointCircleCheck(hits, i1, i2, cache);
+        cache.setResult(_cutid, i1, i2, pass);
+        return pass;
+    }
+
+    private boolean TwoPointCircleCheck(PackedHits hits, int i1, int i2, DoubletCache cache) {
+
+        //  Use the circle fit from another strategy with the same fit settings if there is one
+        int fit = cache.getFit(_fitid, i1, i2, _srange);
+        if (fit < 0) {
+
+            //  Try to find a circle passing through the 2 hits and the maximum DCA, using
+            //  the views of the hits at the stereo hit position for an unknown direction
+            if (FitCircle(hits.views[i1], hits.views[i2])) {
+                ArcLengths(_srange);
+                cache.setFit(_fitid, i1, i2, _srange);
+                fit = 1;
+            } else {
+                cache.setFit(_fitid, i1, i2, null);
+                fit = 0;
+            }
+        }
+        if (fit == 0) return false;
 
-        //  Try to find a circle passing through the 2 hits and the maximum DCA
+        //  Calculate the allowed variation in hit r and z (not 1 sigma errors!)
+        double dr1 = Math.max(_nsig * hits.dr[i1], _dMax);
+        double dr2 = Math.max(_nsig * hits.dr[i2], _dMax);
+        double dz1 = hits.type[i1] == PackedHits.AXIAL ? hits.dz[i1] : _nsig * hits.dz[i1];
+        double dz2 = hits.type[i2] == PackedHits.AXIAL ? hits.dz[i2] : _nsig * hits.dz[i2];
+
+        //  Check for consistent hits in the s-z plane
+        if (!TwoPointZCheck(_srange, hits.zc[i1], dr1, dz1, hits.zc[i2], dr2, dz2)) return false;
+
+        if (SectorBinCheck()) return hits.zbin[i1] == hits.zbin[i2];
+        return true;
+    }
+
+    /**
+     * Check a hit against a range of candidate hits in the packed hit arrays.  The
+     * candidates to check are selected in a bit mask (see HitMask), and the bits
+     * for candidates that fail the check are cleared.  Candidates inside the
+     * maximum DCA are removed with a single pass over the hit radii before the
+     * circle fits are done for the remaining candidates.
+     *
+     * @param hits packed hits for this event
+     * @param i1 index of the hit to check
+     * @param first index of the first candidate
+     * @param n number of candidates
+     * @param mask selected candidates, updated to the candidates that pass
+     * @return number of candidates that pass
+     */
+    public int TwoPointCircleCheck(PackedHits hits, int i1, int first, int n, long[] mask) {
+
+        if (_skipchecks) return HitMask.count(mask, n);
+
+        //  No candidate can pass if this hit is inside the maximum DCA
+        if (hits.r[i1] < _dMax) {
+            HitMask.clear(mask, n);
+            return 0;
+        }
+
+        //  Remove the candidates inside the maximum DCA
+        double[] r = hits.r;
+        for (int k = 0; k < n; k++) {
+            if (r[first + k] < _dMax) mask[k >>> 6] &= ~(1L << k);
+        }
+
+        //  Do the full check for the remaining candidates
+        int npass = 0;
+        for (int k = HitMask.next(mask, 0, n); k >= 0; k = HitMask.next(mask, k + 1, n)) {
+            if (TwoPointCircleCheck(hits, i1, first + k)) npass++;
+            else HitMask.deselect(mask, k);
+        }
+        return npass;
+    }
+
+    private boolean FitCircle(HelicalTrackHit hit1, HelicalTrackHit hit2) {
         boolean success = false;
         try
         {
             success = _cfit2.FitCircle(hit1, hit2, _dMax);
         }
         catch(Exception x){}
+        return success;
+    }
+
+    /**
+     * Find the ranges of arc length {s1min, s1max, s2min, s2max} to the two hits
+     * for the last successful two-point circle fit.
+     */
+    private void ArcLengths(double[] srange) {
 
-        //  Check for success
-        if (!success) return false;
-        
         //  Initialize the minimum/maximum arc lengths
         double s1min = 1.0e99;
         double s1max = -1.0e99;
@@ -252,18 +551,25 @@ public class FastCheck {
             s2min = lfit.s2() - s0;
         }
 
-        //  Calculate the allowed variation in hit r and z (not 1 sigma errors!)
-        double dr1 = Math.max(_nsig * hit1.dr(), _dMax);
-        double dr2 = Math.max(_nsig * hit2.dr(), _dMax);
-        double dz1 = dz(hit1);
-        double dz2 = dz(hit2);
+        srange[0] = s1min;
+        srange[1] = s1max;
+        srange[2] = s2min;
+        srange[3] = s2max;
+    }
+
+    private boolean TwoPointZCheck(double[] srange, double z1, double dr1, double dz1, double z2, double dr2, double dz2) {
+
+        double s1min = srange[0];
+        double s1max = srange[1];
+        double s2min = srange[2];
+        double s2max = srange[3];
 
         //  Now check for consistent hits in the s-z plane
         //  First expand z ranges by hit z uncertainty
-        double z1min = hit1.z() - dz1;
-        double z1max = hit1.z() + dz1;
-        double z2min = hit2.z() - dz2;
-        double z2max = hit2.z() + dz2;
+        double z1min = z1 - dz1;
+        double z1max = z1 + dz1;
+        double z2min = z2 - dz2;
+        double z2max = z2 + dz2;
 
         //  Expand s ranges by hit r uncertainty (r ~ s for r << R_curvature)
         s1min = Math.max(0., s1min - dr1);
@@ -272,100 +578,162 @@ public class FastCheck {
         s2max = s2max + dr2;
 
         //  Check the z0 limits using the min/max path lengths
-        boolean zOK = checkz0(s1min, s1max, z1min, z1max, s2min, s2max, z2min, z2max);
+        return checkz0(s1min, s1max, z1min, z1max, s2min, s2max, z2min, z2max);
+    }
 
-        if(!zOK) return false;
-            
-        boolean zSectorOK = true;
-        
-        if(_doSectorBinCheck) {
-            zSectorOK = zSectorCheck(hit1,hit2);
+    public boolean ThreePointHelixCheck(HelicalTrackHit hit1, HelicalTrackHit hit2, HelicalTrackHit hit3) {
+
+        if (_skipchecks) return true;
+
+        //  Use calls that give uncorrected position and error
+        double[] pos1 = hit1.getPosition();
+        double[] pos2 = hit2.getPosition();
+        double[] pos3 = hit3.getPosition();
+
+        //  Add up the z uncertainties - unless these are all pixel hits, do the circle checks first
+        double dztot = dzThreePoint(hit1, pos1) + dzThreePoint(hit2, pos2) + dzThreePoint(hit3, pos3);
+        boolean zfirst = zFirst(hit1) && zFirst(hit2) && zFirst(hit3);
+
+        //  Add multiple scattering error here - for now, just set it to 1 mm
+        dztot += 1.;
+
+        //  Unless the three hits are all pixel hits, do the circle checks first
+        if (!zfirst) {
+            if (!TwoPointCircleCheck(hit1, hit3, null)) return false;
+            if (!TwoPointCircleCheck(hit2, hit3, null)) return false;
         }
 
-        //  Done!
-        return zSectorOK;
+        //  Check that the middle hit is consistent with the helix through the other two
+        if (!ThreePointZCheck(pos1[0], pos1[1], pos1[2], pos2[0], pos2[1], pos2[2],
+                pos3[0], pos3[1], pos3[2], dztot)) return false;
+
+        //  If we haven't already done the circle checks, do them now
+        if (zfirst) {
+            if (!TwoPointCircleCheck(hit1, hit3, null)) return false;
+            if (!TwoPointCircleCheck(hit2, hit3, null)) return false;
+        }
+        
+        //  Passed all checks - success!
+        return true;
     }
 
-    public boolean ThreePointHelixCheck(HelicalTrackHit hit1, HelicalTrackHit hit2, HelicalTrackHit hit3) {
+    /**
+     * Check a hit triplet, taking the hit information from the packed hit arrays.
+     *
+     * @param hits packed hits for this event
+     * @param i1 index of the first hit
+     * @param i2 index of the second hit
+     * @param i3 index of the third hit
+     * @return true if the hits are consistent with the strategy
+     */
+    public boolean ThreePointHelixCheck(PackedHits hits, int i1, int i2, int i3) {
 
         if (_skipchecks) return true;
 
-        //  Setup for a 3 point circle fit
-        double p[][] = new double[3][2];
-        double[] pos;
-        double z[] = new double[3];
-        double dztot = 0.;
-        int indx;
-        HelicalTrackHit hit;
-        boolean zfirst = true;
+        //  Add up the z uncertainties - unless these are all pixel hits, do the circle checks first
+        double dztot = dzThreePoint(hits, i1) + dzThreePoint(hits, i2) + dzThreePoint(hits, i3);
+        boolean zfirst = zFirst(hits, i1) && zFirst(hits, i2) && zFirst(hits, i3);
 
-        //  While not terribly elegant, code for speed
-        //  Use calls that give uncorrected position and error
-        //  Get the relevant variables for hit 1
-        indx = 0;
-        hit = hit1;
-        pos = hit.getPosition();
-        p[indx][0] = pos[0];
-        p[indx][1] = pos[1];
-        z[indx] = pos[2];
-        if (hit.BarrelEndcapFlag() == BarrelEndcapFlag.BARREL) {
-            if (hit instanceof HelicalTrack3DHit) dztot += _nsig * ((HelicalTrack3DHit) hit).dz();
-            else {
-                zfirst = false;
-                if (hit instanceof HelicalTrack2DHit) dztot += ((HelicalTrack2DHit) hit).zlen() / 2.;
-                else dztot += _nsig * Math.sqrt(hit.getCovMatrix()[5]);
-            }
-        } else {
-            dztot += hit.dr() * Math.abs(pos[2]) / Math.sqrt(pos[0]*pos[0] + pos[1]*pos[1]);
+        //  Add multiple scattering error here - for now, just set it to 1 mm
+        dztot += 1.;
+
+        //  Unless the three hits are all pixel hits, do the circle checks first
+        if (!zfirst) {
+            if (!TwoPointCircleCheck(hits, i1, i3)) return false;
+            if (!TwoPointCircleCheck(hits, i2, i3)) return false;
         }
 
-         //  Get the relevant variables for hit 2
-        indx = 1;
-        hit = hit2;
-        pos = hit.getPosition();
-        p[indx][0] = pos[0];
-        p[indx][1] = pos[1];
-        z[indx] = pos[2];
-        if (hit.BarrelEndcapFlag() == BarrelEndcapFlag.BARREL) {
-            if (hit instanceof HelicalTrack3DHit) dztot += _nsig * ((HelicalTrack3DHit) hit).dz();
-            else {
-                zfirst = false;
-                if (hit instanceof HelicalTrack2DHit) dztot += ((HelicalTrack2DHit) hit).zlen() / 2.;
-                else dztot += _nsig * Math.sqrt(hit.getCovMatrix()[5]);
+        //  Check that the middle hit is consistent with the helix through the other two
+        if (!ThreePointZCheck(hits.x[i1], hits.y[i1], hits.z[i1], hits.x[i2], hits.y[i2], hits.z[i2],
+                hits.x[i3], hits.y[i3], hits.z[i3], dztot)) return false;
+
+        //  If we haven't already done the circle checks, do them now
+        if (zfirst) {
+            if (!TwoPointCircleCheck(hits, i1, i3)) return false;
+            if (!TwoPointCircleCheck(hits, i2, i3)) return false;
+        }
+
+        //  Passed all checks - success!
+        return true;
+    }
+
+    /**
+     * Check a hit pair against a range of candidate third hits in the packed hit
+     * arrays.  The candidates to check are selected in a bit mask (see HitMask),
+     * and the bits for candidates that fail the triplet check are cleared.  The
+     * pair checks of the candidates with the first hit are kept and re-used in
+     * the next call with the same first hit and range of candidates, so looping
+     * over the second hit only repeats the checks that depend on it.
+     *
+     * @param hits packed hits for this event
+     * @param i1 index of the first hit
+     * @param i2 index of the second hit
+     * @param first index of the first candidate third hit
+     * @param n number of candidates
+     * @param mask selected candidates, updated to the candidates that pass
+     * @return number of candidates that pass
+     */
+    public int ThreePointHelixCheck(PackedHits hits, int i1, int i2, int first, int n, long[] mask) {
+
+        if (_skipchecks) return HitMask.count(mask, n);
+
+        //  Start a new set of first hit pair checks if needed
+        int nw = HitMask.words(n);
+        if (hits != _pairhits || i1 != _pairhit || first != _pairfirst || n != _pairn) {
+            if (_pairtested.length < nw) {
+                _pairtested = new long[nw];
+                _pairpassed = new long[nw];
             }
-        } else {
-            dztot += hit.dr() * Math.abs(pos[2]) / Math.sqrt(pos[0]*pos[0] + pos[1]*pos[1]);
+            HitMask.clear(_pairtested, n);
+            HitMask.clear(_pairpassed, n);
+            _pairhits = hits;
+            _pairhit = i1;
+            _pairfirst = first;
+            _pairn = n;
         }
 
-        //  Get the relevant variables for hit 3
-        indx = 2;
-        hit = hit3;
-        pos = hit.getPosition();
-        p[indx][0] = pos[0];
-        p[indx][1] = pos[1];
-        z[indx] = pos[2];
-        if (hit.BarrelEndcapFlag() == BarrelEndcapFlag.BARREL) {
-            if (hit instanceof HelicalTrack3DHit) dztot += _nsig * ((HelicalTrack3DHit) hit).dz();
-            else {
-                zfirst = false;
-                if (hit instanceof HelicalTrack2DHit) dztot += ((HelicalTrack2DHit) hit).zlen() / 2.;
-                else dztot += _nsig * Math.sqrt(hit.getCovMatrix()[5]);
+        //  Do the pair checks with the first hit that haven't been done yet
+        for (int w = 0; w < nw; w++) {
+            long untested = mask[w] & ~_pairtested[w];
+            while (untested != 0) {
+                int bit = Long.numberOfTrailingZeros(untested);
+                untested &= untested - 1;
+                int k = (w << 6) + bit;
+                if (TwoPointCircleCheck(hits, i1, first + k)) _pairpassed[w] |= 1L << bit;
+                _pairtested[w] |= 1L << bit;
             }
-        } else {
-            dztot += hit.dr() * Math.abs(pos[2]) / Math.sqrt(pos[0]*pos[0] + pos[1]*pos[1]);
+            mask[w] &= _pairpassed[w];
         }
 
-        //  Add multiple scattering error here - for now, just set it to 1 mm
-        dztot += 1.;
+        //  Do the pair checks with the second hit
+        TwoPointCircleCheck(hits, i2, first, n, mask);
 
-        //  Unless the three hits are all pixel hits, do the circle checks first
-        if (!zfirst) {
-            if (!TwoPointCircleCheck(hit1, hit3, null)) return false;
-            if (!TwoPointCircleCheck(hit2, hit3, null)) return false;
+        //  Check that the middle hit is consistent with the helix through the other two
+        double dz12 = dzThreePoint(hits, i1) + dzThreePoint(hits, i2);
+        int npass = 0;
+        for (int k = HitMask.next(mask, 0, n); k >= 0; k = HitMask.next(mask, k + 1, n)) {
+            int i3 = first + k;
+
+            //  Add multiple scattering error here - for now, just set it to 1 mm
+            double dztot = dz12 + dzThreePoint(hits, i3) + 1.;
+            if (ThreePointZCheck(hits.x[i1], hits.y[i1], hits.z[i1], hits.x[i2], hits.y[i2], hits.z[i2],
+                    hits.x[i3], hits.y[i3], hits.z[i3], dztot)) npass++;
+            else HitMask.deselect(mask, k);
         }
+        return npass;
+    }
+
+    private boolean ThreePointZCheck(double x1, double y1, double z1, double x2, double y2, double z2,
+            double x3, double y3, double z3, double dztot) {
 
         //  Do the 3 point circle fit and check for success
-        boolean success = _cfit3.fit(p[0], p[1], p[2]);
+        _p1[0] = x1;
+        _p1[1] = y1;
+        _p2[0] = x2;
+        _p2[1] = y2;
+        _p3[0] = x3;
+        _p3[1] = y3;
+        boolean success = _cfit3.fit(_p1, _p2, _p3);
         if (!success) return false;
 
         //  Retrieve the circle parameters
@@ -381,62 +749,177 @@ public class FastCheck {
 
         //  Find the x-y arc lengths to the hits and the smallest arc length
         double phi0 = Math.atan2(y0-yc, x0-xc);
-        double[] dphi = new double[3];
+        double dphi1 = dphiDCA(x1, y1, xc, yc, phi0);
+        double dphi2 = dphiDCA(x2, y2, xc, yc, phi0);
+        double dphi3 = dphiDCA(x3, y3, xc, yc, phi0);
         double dphimin = 999.;
-
-        for (int i=0; i<3; i++) {
-            //  Find the angle between the hits and the DCA under the assumption that |dphi| < pi
-            dphi[i] = Math.atan2(p[i][1]-yc, p[i][0]-xc) - phi0;
-            if (dphi[i] > Math.PI) dphi[i] -= twopi;
-            if (dphi[i] < -Math.PI) dphi[i] += twopi;
-            if (Math.abs(dphi[i]) < Math.abs(dphimin)) dphimin = dphi[i];
-            }
+        if (Math.abs(dphi1) < Math.abs(dphimin)) dphimin = dphi1;
+        if (Math.abs(dphi2) < Math.abs(dphimin)) dphimin = dphi2;
+        if (Math.abs(dphi3) < Math.abs(dphimin)) dphimin = dphi3;
 
         //  Use the hit closest to the DCA to determine the circle "direction"
         boolean cw = dphimin < 0.;
 
         //  Find the arc lengths to the hits
-        double[] s = new double[3];
-        for (int i=0; i<3; i++) {
+        double s1 = arc(dphi1, cw, rcurv);
+        double s2 = arc(dphi2, cw, rcurv);
+        double s3 = arc(dphi3, cw, rcurv);
+
+        //  Order the arc lengths and z info by increasing arc length
+        double temp;
+        if (s2 < s1) {
+            temp = s1; s1 = s2; s2 = temp;
+            temp = z1; z1 = z2; z2 = temp;
+        }
+        if (s3 < s1) {
+            temp = s1; s1 = s3; s3 = temp;
+            temp = z1; z1 = z3; z3 = temp;
+        }
+        if (s3 < s2) {
+            temp = s2; s2 = s3; s3 = temp;
+            temp = z2; z2 = z3; z3 = temp;
+        }
+
+        //  Predict the middle z and see if it is consistent with the measurements
+        double slope = (z3 - z1) / (s3 - s1);
+        double z0 = z1 - s1 * slope;
+        double zpred = z0 + s2 * slope;
+        return !(Math.abs(zpred - z2) > dztot);
+    }
+
+    private double dzThreePoint(HelicalTrackHit hit, double[] pos) {
+        if (hit.BarrelEndcapFlag() == BarrelEndcapFlag.BARREL) {
+            if (hit instanceof HelicalTrack3DHit) return _nsig * ((HelicalTrack3DHit) hit).dz();
+            if (hit instanceof HelicalTrack2DHit) return ((HelicalTrack2DHit) hit).zlen() / 2.;
+            return _nsig * Math.sqrt(hit.getCovMatrix()[5]);
+        }
+        return hit.dr() * Math.abs(pos[2]) / Math.sqrt(pos[0]*pos[0] + pos[1]*pos[1]);
+    }
+
+    private double dzThreePoint(PackedHits hits, int i) {
+        if (hits.endcap[i] || hits.type[i] == PackedHits.AXIAL) return hits.dzu[i];
+        return _nsig * hits.dzu[i];
+    }
+
+    private boolean zFirst(HelicalTrackHit hit) {
+        return hit.BarrelEndcapFlag() != BarrelEndcapFlag.BARREL || hit instanceof HelicalTrack3DHit;
+    }
+
+    private boolean zFirst(PackedHits hits, int i) {
+        return hits.endcap[i] || hits.type[i] == PackedHits.PIXEL;
+    }
+
+    private double dphiDCA(double x, double y, double xc, double yc, double phi0) {
+
+        //  Find the angle between the hit and the DCA under the assumption that |dphi| < pi
+        double dphi = Math.atan2(y-yc, x-xc) - phi0;
+        if (dphi > Math.PI) dphi -= twopi;
+        if (dphi < -Math.PI) dphi += twopi;
+        return dphi;
+    }
+
+    private double arc(double dphi, boolean cw, double rcurv) {
+
+        //  Arc set to be positive if it has the same sign as dphimin
+        double s;
+        if (cw) s = -dphi * rcurv;
+        else s = dphi * rcurv;
+
+        //  Treat the case where a point has dphi opposite in sign to dphimin as an incoming looper hit
+        if (s < 0.) s += twopi * rcurv;
+        return s;
+    }
+
+    private boolean CheckPlanarSector(SeedCandidate seed, PlanarSector sector) {
 
-            //  Arc set to be positive if they have the same sign as dphimin
-            if (cw) s[i] = -dphi[i] * rcurv;
-            else s[i] = dphi[i] * rcurv;
+        //  Check each hit for compatibility with this sector
+        for (HelicalTrackHit hit : seed.getHits()) {
 
-            //  Treat the case where a point has dphi opposite in sign to dphimin as an incoming looper hit
-            if (s[i] < 0.) s[i] += twopi * rcurv;
+            //  Use the uncorrected hit position, which was used to bin the hits
+            double[] pos = hit.getPosition();
+
+            //  Get the z limits for the hit
+            double zlen = 0.;
+            if (hit instanceof HelicalTrack2DHit) {
+                zlen = ((HelicalTrack2DHit) hit).zlen();
             }
+            double zmin = pos[2] - 0.5 * zlen;
+            double zmax = zmin + zlen;
 
-        //  Order the arc lengths and z info by increasing arc length
-        for (int i=0; i<2; i++) {
-            for (int j=i+1; j<3; j++) {
-                if (s[j] < s[i]) {
-                    double temp = s[i];
-                    s[i] = s[j];
-                    s[j] = temp;
-                    temp = z[i];
-                    z[i] = z[j];
-                    z[j] = temp;
-                }
+            boolean planarOK = planarPairCheck(pos[0], pos[0], pos[1], pos[1], zmin, zmax,
+                    sector.xmin(), sector.xmax(), sector.umin(), sector.umax(), sector.vmin(), sector.vmax());
+            if (!planarOK) return false;
+
+            if (SectorBinCheck()) {
+                if (!zSectorCheck(hit, sector)) return false;
             }
         }
+        return true;
+    }
 
-        //  Predict the middle z and see if it is consistent with the measurements
-        double slope = (z[2] - z[0]) / (s[2] - s[0]);
-        double z0 = z[0] - s[0] * slope;
-        double zpred = z0 + s[1] * slope;
-        if (Math.abs(zpred - z[1]) > dztot) return false;
+    private boolean planarPairCheck(double xa0, double xa1, double ya0, double ya1, double za0, double za1,
+            double xb0, double xb1, double yb0, double yb1, double zb0, double zb1) {
 
-        //  If we haven't already done the circle checks, do them now
-        if (zfirst) {
-            if (!TwoPointCircleCheck(hit1, hit3, null)) return false;
-            if (!TwoPointCircleCheck(hit2, hit3, null)) return false;
+        //  Regions on the same plane are always compatible
+        if (xa0 <= xb1 && xb0 <= xa1) return true;
+
+        //  Order the regions in x
+        if (xa0 > xb0) {
+            return planarPairCheck(xb0, xb1, yb0, yb1, zb0, zb1, xa0, xa1, ya0, ya1, za0, za1);
         }
-        
-        //  Passed all checks - success!
-        return true;
+
+        //  Find the range of straight line intercepts at x = 0 in y and z
+        double y0min = 1.0e10;
+        double y0max = -1.0e10;
+        double z0min = 1.0e10;
+        double z0max = -1.0e10;
+        double bend = 0.;
+        double[] xa = {xa0, xa1};
+        double[] xb = {xb0, xb1};
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+
+                //  The intercept is linear in y and z, so the extremes are at the corners
+                double dx = xb[j] - xa[i];
+                double ca = xb[j] / dx;
+                double cb = -xa[i] / dx;
+                y0min = Math.min(y0min, Math.min(ca * ya0, ca * ya1) + Math.min(cb * yb0, cb * yb1));
+                y0max = Math.max(y0max, Math.max(ca * ya0, ca * ya1) + Math.max(cb * yb0, cb * yb1));
+                z0min = Math.min(z0min, Math.min(ca * za0, ca * za1) + Math.min(cb * zb0, cb * zb1));
+                z0max = Math.max(z0max, Math.max(ca * za0, ca * za1) + Math.max(cb * zb0, cb * zb1));
+
+                //  Maximum deviation at x = 0 of a circle of radius RMin from the chord
+                bend = Math.max(bend, maxbend(xa[i], xb[j]));
+            }
+        }
+
+        //  Check the DCA in the bend coordinate, allowing for the track curvature
+        if (y0min - bend > _dMax || y0max + bend < -_dMax) return false;
+
+        //  Check z0 in the non-bend coordinate
+        return z0min <= _z0Max && z0max >= -_z0Max;
+    }
+
+    private double maxbend(double d1, double d2) {
+
+        //  Deviation from the chord of a circle of radius RMin at distances d1, d2 from the chord ends
+        if (_RMin <= 0.) return Double.POSITIVE_INFINITY;
+        return Math.abs(d1 * d2) / (2. * _RMin);
+    }
+
+    private double xmin(Sector sector) {
+        if (sector instanceof PlanarSector) return ((PlanarSector) sector).xmin();
+        return 0.;
     }
 
+    private double xmax(Sector sector) {
+        if (sector instanceof PlanarSector) return ((PlanarSector) sector).xmax();
+        return 0.;
+    }
+
+    private double xmid(PlanarSector sector) {
+        return 0.5 * (sector.xmin() + sector.xmax());
+    }
 
     private double dphimax(double r1, double r2) {
 
@@ -477,67 +960,45 @@ public class FastCheck {
     private boolean checkz0(double s1min, double s1max, double zmin1, double zmax1,
             double s2min, double s2max, double zmin2, double zmax2) {
 
-        double z0[] = new double[2];
-        double z1[] = new double[4];
-        double z2[] = new double[2];
-        double s1[] = new double[4];
-        double s2[] = new double[2];
-
-        //  Set limits on z0
-        z0[0] = -_z0Max;
-        z0[1] = _z0Max;
-
-        //  Set corners of allowed region for s1, z1
-        z1[0] = zmin1;
-        z1[1] = zmin1;
-        z1[2] = zmax1;
-        z1[3] = zmax1;
-        s1[0] = s1min;
-        s1[1] = s1max;
-        s1[2] = s1min;
-        s1[3] = s1max;
-
-        //  Set limits on z2, s2
-        z2[0] = zmin2;
-        z2[1] = zmax2;
-        s2[0] = s2min;
-        s2[1] = s2max;
-
         //  Initialize min/max of s, z at point 2
-        double zmax = -1.0e10;
-        double zmin = 1.0e10;
-        double smax = -1.0e10;
-        double smin = 1.0e10;
-        
-        //  Loop over z0 limits
+        _zmax = -1.0e10;
+        _zmin = 1.0e10;
+        _smax = -1.0e10;
+        _smin = 1.0e10;
+
+        //  Loop over z0 limits and the corners of the allowed region for s1, z1
         for (int i=0; i<2; i++) {
+            double z0 = i == 0 ? -_z0Max : _z0Max;
+            extrapolatez0(z0, s1min, zmin1, s2min, s2max, zmin2, zmax2);
+            extrapolatez0(z0, s1max, zmin1, s2min, s2max, zmin2, zmax2);
+            extrapolatez0(z0, s1min, zmax1, s2min, s2max, zmin2, zmax2);
+            extrapolatez0(z0, s1max, zmax1, s2min, s2max, zmin2, zmax2);
+        }
 
-            //  Loop over corners of s1, z1
-            for (int j=0; j<4; j++) {
+        //  Check to see if the extrapolated points are consistent with measurements
+        boolean checkz0 = (zmin2 <= _zmax && zmax2 >= _zmin) || (s2min <= _smax && s2max >= _smin);
 
-                //  Calculate slope of line in s-z space from z0 limit to point 1 corner
-                double slope = (z1[j] - z0[i]) / s1[j];
+        return checkz0;
+    }
 
-                //  Loop over limits on z2, s2
-                for (int k=0; k<2; k++) {
+    private void extrapolatez0(double z0, double s1, double z1, double s2min, double s2max,
+            double zmin2, double zmax2) {
 
-                    //  Calculate extrapolation of s-z line to the point 2 limit
-                    double z = z0[i] + s2[k] * slope;
-                    double s = (z2[k] - z0[i]) / slope;
+        //  Calculate slope of line in s-z space from z0 limit to point 1 corner
+        double slope = (z1 - z0) / s1;
 
-                    //  Find the min/max values of the extrapolated s, z at point 2
-                    if (z > zmax) zmax = z;
-                    if (z < zmin) zmin = z;
-                    if (s > smax) smax = s;
-                    if (s < smin) smin = s;
-                }
-            }
-        }
+        //  Extrapolate the s-z line to the lower and upper limits on z2, s2
+        updatez0(z0 + s2min * slope, (zmin2 - z0) / slope);
+        updatez0(z0 + s2max * slope, (zmax2 - z0) / slope);
+    }
 
-        //  Check to see if the extrapolated points are consistent with measurements
-        boolean checkz0 = (zmin2 <= zmax && zmax2 >= zmin) || (s2min <= smax && s2max >= smin);
+    private void updatez0(double z, double s) {
 
-        return checkz0;
+        //  Find the min/max values of the extrapolated s, z at point 2
+        if (z > _zmax) _zmax = z;
+        if (z < _zmin) _zmin = z;
+        if (s > _smax) _smax = s;
+        if (s < _smin) _smin = s;
     }
 
     private double phidif(double phi1, double phi2) {
@@ -550,27 +1011,33 @@ public class FastCheck {
         return phidif;
     }
 
-    private void CorrectHitPosition(HelicalTrackHit hit, SeedCandidate seed) {
-        if (hit instanceof HelicalTrackCross) {
-            HelicalTrackCross cross = (HelicalTrackCross) hit;
-            HelicalTrackFit helix = null;
-            if (seed != null) helix = seed.getHelix();
-            cross.setTrackDirection(helix);
-        }
+    private CorrectedHit Correct(HelicalTrackHit hit, HelicalTrackFit helix) {
+        if (_corrections != null) return _corrections.Correct(hit, helix);
+        return CorrectedHit.Correct(hit, helix);
     }
 
-    private double dz(HelicalTrackHit hit) {
+    private double dz(CorrectedHit hit) {
 
         //  Axial strip hits: use half strip length
-        if (hit instanceof HelicalTrack2DHit) {
-            return 0.5 * ((HelicalTrack2DHit) hit).zlen();
+        if (hit.getHit() instanceof HelicalTrack2DHit) {
+            return 0.5 * ((HelicalTrack2DHit) hit.getHit()).zlen();
 
         //  Otherwise use the z error
         } else {
-            return _nsig * Math.sqrt(hit.getCorrectedCovMatrix().diagonal(2));
+            return _nsig * hit.dz();
         }
     }
 
+    /**
+     * Return true if the hits and sectors must share a z sector bin.  This is
+     * not applied with planar sectoring, where the v bins are narrow compared
+     * with the spread of a track in v, so requiring a single v bin would lose
+     * every track that crosses a bin boundary.
+     */
+    private boolean SectorBinCheck() {
+        return _doSectorBinCheck && !_sectorManager.isPlanar();
+    }
+
     private boolean zSectorCheck(Sector s1, Sector s2) {
         return s1.zSector()==s2.zSector();
     }
@@ -581,7 +1048,13 @@ public class FastCheck {
         return zBin==zSector;
     }
 
-    private boolean zSectorCheck(HelicalTrackHit hit, HelicalTrackHit hit2) {
+    private boolean zSectorCheck(CorrectedHit hit, Sector sector) {
+        int zSector = sector.zSector();
+        int zBin = this._sectorManager.ZBin(hit);
+        return zBin==zSector;
+    }
+
+    private boolean zSectorCheck(CorrectedHit hit, CorrectedHit hit2) {
         int zBin = this._sectorManager.ZBin(hit);
         int zBin2 = this._sectorManager.ZBin(hit2);
         return zBin==zBin2;
@@ -0,0 +1,199 @@
+package org.ldmx.seedtracker;
+
+import hep.physics.matrix.SymmetricMatrix;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lcsim.fit.helicaltrack.HelicalTrack2DHit;
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.fit.helicaltrack.MultipleScatter;
+import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
+
+/**
+ * Kalman filter update of a helix fit with one more hit.  The helix parameters
+ * and their covariance are taken as the track state, and the hit is used as a
+ * measurement of the distance from the circle in the x-y plane and, unless it is
+ * an axial strip hit, of z at the arc length of the hit.  The circle parameters
+ * (dca, phi0, curvature) and the line parameters (z0, slope) are updated
+ * separately, as they are fit separately by the helix fitter.  The result is a
+ * new helix with updated parameters, covariance, chisq and ndf, which is a good
+ * approximation to refitting all the hits and is much cheaper.
+ * <p>
+ * Multiple scattering at the new hit is estimated from the scattering errors
+ * the helix fitter found for the hits already on the track, scaled by the ratio
+ * of the arc lengths.  The updated helix has the same cuts applied to it as the
+ * helix fitter applies to a fit.  Only helices with their reference point at
+ * the origin can be updated, and isUpdated tells the caller when the filter
+ * could not handle a helix or hit, so it can fall back to a helix fit.
+ */
+public class HelixFilter {
+
+    private static final int DCA = HelixSupport.DCA;
+    private static final int PHI0 = HelixSupport.PHI0;
+    private static final int CURV = HelixSupport.CURV;
+    private static final int Z0 = HelixSupport.Z0;
+    private static final int SLOPE = HelixSupport.SLOPE;
+
+    private double _bfield;
+    private HelicalTrackFit _helix;
+    private double _circlechisq;
+    private boolean _updated;
+    private CorrectionCache _corrections = null;
+
+    //  Scratch space for the circle update
+    private double[] _h = new double[3];
+    private double[] _ch = new double[3];
+
+    /**
+     * Create a helix filter.
+     *
+     * @param bfield magnetic field
+     */
+    public HelixFilter(double bfield) {
+        _bfield = bfield;
+    }
+
+    /**
+     * Take the corrected stereo hit positions from a cache.
+     *
+     * @param corrections corrected hit cache for this event (or null)
+     */
+    void setCorrectionCache(CorrectionCache corrections) {
+        _corrections = corrections;
+    }
+
+    /**
+     * Update a helix with a new hit.  If this fails because the hit doesn't fit,
+     * the circle chisq the update would have given is still available and
+     * isUpdated returns true.  If the filter can't handle the helix or hit,
+     * isUpdated returns false.
+     *
+     * @param helix helix fit to update
+     * @param hit hit to add
+     * @param strategy strategy in use
+     * @return true if the updated helix passes the cuts of the strategy
+     */
+    public boolean AddHit(HelicalTrackFit helix, HelicalTrackHit hit, SeedStrategy strategy) {
+
+        _helix = null;
+        _circlechisq = 1.e99;
+        _updated = false;
+
+        //  The helix has to be defined with respect to the origin
+        if (!HelixSupport.AtOrigin(helix)) return false;
+
+        double[] par = helix.parameters().clone();
+        SymmetricMatrix cov = new SymmetricMatrix(helix.covariance());
+        double R = 1. / par[CURV];
+        double sphi0 = Math.sin(par[PHI0]);
+        double cphi0 = Math.cos(par[PHI0]);
+
+        //  Correct stereo hits for the track direction and get the hit position
+        CorrectedHit chit = _corrections != null ? _corrections.Correct(hit, helix) : CorrectedHit.Correct(hit, helix);
+        double x = chit.x();
+        double y = chit.y();
+
+        //  Arc length and multiple scattering errors for the new hit
+        double s = HelixSupport.ArcLength(par, x, y);
+        MultipleScatter ms = HelixSupport.EstimateScatter(helix, s);
+        double msrphi = ms.drphi();
+        double msz = ms.dz();
+
+        //  Circle update - the measurement is the distance of the hit from the circle
+        double u = x - (R - par[DCA]) * sphi0;
+        double v = y + (R - par[DCA]) * cphi0;
+        double rho = Math.sqrt(u*u + v*v);
+        if (rho == 0.) return false;
+        double nu = u / rho;
+        double nv = v / rho;
+        double resid = Math.abs(R) - rho;
+        _h[0] = nu * sphi0 - nv * cphi0;
+        _h[1] = -(R - par[DCA]) * (nu * cphi0 + nv * sphi0);
+        _h[2] = -R * R * ((-nu * sphi0 + nv * cphi0) - Math.signum(R));
+        double vcircle = nu * nu * chit.covxx() + 2. * nu * nv * chit.covxy() + nv * nv * chit.covyy()
+                + msrphi * msrphi;
+        int[] idx = {DCA, PHI0, CURV};
+        double scircle = vcircle;
+        for (int i = 0; i < 3; i++) {
+            _ch[i] = 0.;
+            for (int j = 0; j < 3; j++) {
+                _ch[i] += cov.e(idx[i], idx[j]) * _h[j];
+            }
+            scircle += _h[i] * _ch[i];
+        }
+        if (!(scircle > 0.)) return false;
+        _circlechisq = helix.chisq()[0] + resid * resid / scircle;
+        for (int i = 0; i < 3; i++) {
+            par[idx[i]] += _ch[i] * resid / scircle;
+            for (int j = 0; j <= i; j++) {
+                cov.setElement(idx[i], idx[j], cov.e(idx[i], idx[j]) - _ch[i] * _ch[j] / scircle);
+            }
+        }
+
+        //  Line update - the measurement is z at the arc length of the hit
+        double[] chisq = {_circlechisq, helix.chisq()[1]};
+        int[] ndf = {helix.ndf()[0] + 1, helix.ndf()[1]};
+        s = HelixSupport.ArcLength(par, x, y);
+        if (!(hit instanceof HelicalTrack2DHit)) {
+            double residz = chit.z() - par[Z0] - s * par[SLOPE];
+            double c00 = cov.e(Z0, Z0);
+            double c01 = cov.e(Z0, SLOPE);
+            double c11 = cov.e(SLOPE, SLOPE);
+            double ch0 = c00 + s * c01;
+            double ch1 = c01 + s * c11;
+            double sline = chit.covzz() + msz * msz + ch0 + s * ch1;
+            if (!(sline > 0.)) return false;
+            chisq[1] += residz * residz / sline;
+            ndf[1]++;
+            par[Z0] += ch0 * residz / sline;
+            par[SLOPE] += ch1 * residz / sline;
+            cov.setElement(Z0, Z0, c00 - ch0 * ch0 / sline);
+            cov.setElement(SLOPE, Z0, c01 - ch1 * ch0 / sline);
+            cov.setElement(SLOPE, SLOPE, c11 - ch1 * ch1 / sline);
+        }
+
+        //  The update has been made, apply the strategy cuts
+        _updated = true;
+        if (!HelixSupport.PassesCuts(par, chisq, strategy, _bfield)) return false;
+
+        //  Make the updated helix
+        Map<HelicalTrackHit, Double> smap = new HashMap<HelicalTrackHit, Double>(helix.PathMap());
+        smap.put(hit, s);
+        Map<HelicalTrackHit, MultipleScatter> msmap = new HashMap<HelicalTrackHit, MultipleScatter>(helix.ScatterMap());
+        msmap.put(hit, ms);
+        _helix = new HelicalTrackFit(par, cov, chisq, ndf, smap, msmap);
+        return true;
+    }
+
+    /**
+     * Return the updated helix from the last successful update.
+     *
+     * @return updated helix
+     */
+    public HelicalTrackFit getHelix() {
+        return _helix;
+    }
+
+    /**
+     * Return true if the filter could update the helix with the hit in the last
+     * call to AddHit, whether or not the result passed the cuts.  If not, the
+     * helix isn't defined with respect to the origin or the hit position is
+     * degenerate, and the hit should be added with a helix fit instead.
+     *
+     * @return true if the last update was made
+     */
+    public boolean isUpdated() {
+        return _updated;
+    }
+
+    /**
+     * Return the circle chisq from the last update.
+     *
+     * @return circle chisq
+     */
+    public double getCircleChisq() {
+        return _circlechisq;
+    }
+}
@@ -0,0 +1,16 @@
+package org.ldmx.seedtracker;
+
+import org.lcsim.recon.tracking.seedtracker.HelixFitter;
+
+/**
+ * Source of helix fitters for track finding tasks that need a fitter of their own.
+ */
+public interface HelixFitterFactory {
+
+    /**
+     * Create a helix fitter that is configured for the current detector.
+     *
+     * @return new helix fitter
+     */
+    HelixFitter createHelixFitter();
+}
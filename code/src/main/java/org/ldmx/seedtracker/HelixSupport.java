@@ -0,0 +1,117 @@
+package org.ldmx.seedtracker;
+
+import java.util.Map;
+
+import org.lcsim.constants.Constants;
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.fit.helicaltrack.MultipleScatter;
+import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
+
+/**
+ * Static helpers shared by the helix updates that add hits to a track without
+ * a new helix fit (HelixFilter and IncrementalHelixFit).
+ */
+final class HelixSupport {
+
+    static final int DCA = HelicalTrackFit.dcaIndex;
+    static final int PHI0 = HelicalTrackFit.phi0Index;
+    static final int CURV = HelicalTrackFit.curvatureIndex;
+    static final int Z0 = HelicalTrackFit.z0Index;
+    static final int SLOPE = HelicalTrackFit.slopeIndex;
+
+    private HelixSupport() {
+    }
+
+    /**
+     * Return true if a helix has its reference point at the origin, which the
+     * helix updates assume.
+     *
+     * @param helix helix
+     * @return true if the reference point is the origin
+     */
+    static boolean AtOrigin(HelicalTrackFit helix) {
+        double[] par = helix.parameters();
+        double R = 1. / par[CURV];
+        double xref = helix.xc() - (R - par[DCA]) * Math.sin(par[PHI0]);
+        double yref = helix.yc() + (R - par[DCA]) * Math.cos(par[PHI0]);
+        return Math.abs(xref) <= 1.e-6 && Math.abs(yref) <= 1.e-6;
+    }
+
+    /**
+     * Return the x-y arc length from the point of closest approach to a point
+     * on the circle of a set of helix parameters.
+     *
+     * @param par helix parameters
+     * @param x x position
+     * @param y y position
+     * @return arc length
+     */
+    static double ArcLength(double[] par, double x, double y) {
+        double R = 1. / par[CURV];
+        double xc = (R - par[DCA]) * Math.sin(par[PHI0]);
+        double yc = -(R - par[DCA]) * Math.cos(par[PHI0]);
+        double phi = Math.atan2(-(x - xc) / R, (y - yc) / R);
+        double dphi = par[PHI0] - phi;
+        if (dphi > Math.PI) dphi -= 2. * Math.PI;
+        if (dphi < -Math.PI) dphi += 2. * Math.PI;
+        return R * dphi;
+    }
+
+    /**
+     * Return the x-y arc length from the point of closest approach of a helix
+     * to the point on its circle at the azimuth of a position.
+     *
+     * @param helix helix
+     * @param x x position
+     * @param y y position
+     * @return arc length
+     */
+    static double PathLength(HelicalTrackFit helix, double x, double y) {
+        double R = helix.R();
+        double phi = Math.atan2(-(x - helix.xc()) / R, (y - helix.yc()) / R);
+        double dphi = helix.phi0() - phi;
+        if (dphi > Math.PI) dphi -= 2. * Math.PI;
+        if (dphi < -Math.PI) dphi += 2. * Math.PI;
+        return R * dphi;
+    }
+
+    /**
+     * Estimate the multiple scattering errors for a new hit at arc length s from
+     * the errors the helix fitter found for the hits on the track, scaled by the
+     * ratio of the arc lengths.
+     *
+     * @param helix helix fit
+     * @param s arc length of the new hit
+     * @return multiple scattering errors
+     */
+    static MultipleScatter EstimateScatter(HelicalTrackFit helix, double s) {
+        double msrphi = 0.;
+        double msz = 0.;
+        for (Map.Entry<HelicalTrackHit, MultipleScatter> entry : helix.ScatterMap().entrySet()) {
+            Double s2 = helix.PathMap().get(entry.getKey());
+            if (s2 == null || s2 == 0.) continue;
+            double scale = Math.abs(s / s2);
+            msrphi = Math.max(msrphi, scale * entry.getValue().drphi());
+            msz = Math.max(msz, scale * entry.getValue().dz());
+        }
+        return new MultipleScatter(msrphi, msz);
+    }
+
+    /**
+     * Apply the chisq, DCA, z0 and pT cuts of a strategy to a set of helix
+     * parameters.
+     *
+     * @param par helix parameters
+     * @param chisq circle and line chisq
+     * @param strategy strategy in use
+     * @param bfield magnetic field
+     * @return true if the helix passes the cuts
+     */
+    static boolean PassesCuts(double[] par, double[] chisq, SeedStrategy strategy, double bfield) {
+        if (chisq[0] + chisq[1] > strategy.getMaxChisq()) return false;
+        if (Math.abs(par[DCA]) > strategy.getMaxDCA()) return false;
+        if (Math.abs(par[Z0]) > strategy.getMaxZ0()) return false;
+        return !(Constants.fieldConversion * Math.abs(bfield / par[CURV]) < strategy.getMinPT());
+    }
+}
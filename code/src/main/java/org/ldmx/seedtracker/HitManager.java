@@ -7,7 +7,10 @@
 package org.ldmx.seedtracker;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.lcsim.event.EventHeader;
 import org.lcsim.fit.helicaltrack.HelicalTrackHit;
@@ -23,6 +26,12 @@ import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
 public class HitManager {
 
     private SectorManager _smanager;
+    private List<HelicalTrackHit> _hits = new ArrayList<HelicalTrackHit>();
+    private PackedHits _packedhits = null;
+    private Map<SeedLayer, LayerHitIndex> _layerindex = new HashMap<SeedLayer, LayerHitIndex>();
+    private Map<HelicalTrackHit, Integer> _ordinals = null;
+    private double _dirtolerance = 0.;
+    private CorrectionCache _corrections = null;
     private boolean _doSectoring=true;
     /** Creates a new instance of HitManager */
     public HitManager() {
@@ -31,6 +40,16 @@ public class HitManager {
         _smanager = new SectorManager();
     }
 
+    /**
+     * Creates a new instance of HitManager with the same sectoring as an existing one
+     * @param hitmanager HitManager to take the sectoring from
+     */
+    public HitManager(HitManager hitmanager) {
+        _smanager = new SectorManager(hitmanager.getSectorManager());
+        _doSectoring = hitmanager.getDoSectoring();
+        _dirtolerance = hitmanager.getDirectionTolerance();
+    }
+
     /**
      * Sort the hits into distinct lists where each list has a unique detector name, layer number, and barrel endcap flag.
      * Also calculate the minimum and maximum hit radius and z coordinate for each list.
@@ -52,6 +71,13 @@ public class HitManager {
      */
     public void OrganizeHits(List<HelicalTrackHit> hitCol) {
     	
+        //  Save the hits for this event
+        _hits = hitCol;
+        _packedhits = null;
+        _layerindex.clear();
+        _ordinals = null;
+        _corrections = null;
+
     	//  Initialize the sector manager
         _smanager.Initialize();
 
@@ -62,6 +88,90 @@ public class HitManager {
         }
     }
 
+    /**
+     * Return the hits that were organized for this event
+     * @return List of HelicalTrackHits
+     */
+    public List<HelicalTrackHit> getHits() {
+        return _hits;
+    }
+
+    /**
+     * Return the packed view of the hits organized for this event, which is made
+     * the first time it is requested
+     * @return packed hits
+     */
+    public PackedHits getPackedHits() {
+        if (_packedhits == null) _packedhits = new PackedHits(_smanager);
+        return _packedhits;
+    }
+
+    /**
+     * Return the hits on a SeedLayer ordered by their y position, which is made
+     * the first time it is requested for this event.  The sectors of the index
+     * are numbered in the order they are returned by getSectors(seedlayer).
+     * @param seedlayer SeedLayer to look at
+     * @return hit index for the layer
+     */
+    synchronized LayerHitIndex getLayerIndex(SeedLayer seedlayer) {
+        LayerHitIndex index = _layerindex.get(seedlayer);
+        if (index == null) {
+            index = new LayerHitIndex(getPackedHits(), getSectors(seedlayer));
+            _layerindex.put(seedlayer, index);
+        }
+        return index;
+    }
+
+    /**
+     * Return the position of a hit in the list of hits organized for this event,
+     * which identifies the hit in per-event bit sets of hits.  Hit managers
+     * organized with a copy of the same hit list give each copy of a hit the same
+     * ordinal.
+     * @param hit hit to look up
+     * @return ordinal of the hit, or -1 if it isn't one of the hits for this event
+     */
+    synchronized int getOrdinal(HelicalTrackHit hit) {
+        if (_ordinals == null) {
+            _ordinals = new IdentityHashMap<HelicalTrackHit, Integer>(2 * _hits.size());
+            for (int i = 0; i < _hits.size(); i++) {
+                _ordinals.put(_hits.get(i), i);
+            }
+        }
+        Integer ordinal = _ordinals.get(hit);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * Return the cache of stereo hit positions corrected for the track direction
+     * for this event, which is made the first time it is requested.  The cache
+     * keeps the corrections by the index of the hits in the packed hits.
+     * @return corrected hit cache
+     */
+    synchronized CorrectionCache getCorrectionCache() {
+        if (_corrections == null) {
+            if (_dirtolerance > 0.) _corrections = new CorrectionCache(_dirtolerance, getPackedHits());
+            else _corrections = new CorrectionCache();
+        }
+        return _corrections;
+    }
+
+    /**
+     * Set the size of the track direction bins (in radians) used to cache the
+     * corrected stereo hit positions, or 0 to correct the hits for every track
+     * direction.  The hits are corrected for the direction at the center of
+     * each bin, so the position used for a helix can be off by the change in
+     * the correction over half a bin in each angle.  Takes effect from the next
+     * event.
+     * @param tolerance direction bin size
+     */
+    public void setDirectionTolerance(double tolerance) {
+        _dirtolerance = tolerance;
+    }
+
+    public double getDirectionTolerance() {
+        return _dirtolerance;
+    }
+
     public SectorManager getSectorManager() {
         return _smanager;
     }
@@ -70,6 +180,10 @@ public class HitManager {
         _smanager.setSectorParams(nphi, dz);
     }
 
+    public void setPlanarSectorParams(double du, double dv) {
+        _smanager.setPlanarSectorParams(du, dv);
+    }
+
     public void setSectorParams(List<SeedStrategy> slist, double bfield, double rtrk) {
         _smanager.setSectorParams(slist, bfield, rtrk);
     }
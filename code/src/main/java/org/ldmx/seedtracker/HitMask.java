@@ -0,0 +1,95 @@
+package org.ldmx.seedtracker;
+
+/**
+ * Static helpers for the bit masks used by the batched hit checks.  Bit k of a
+ * mask (bit k % 64 of word k / 64) selects the k'th hit in a range of hits.  Bits
+ * beyond the number of hits in the range are always kept clear.
+ */
+final class HitMask {
+
+    private HitMask() {
+    }
+
+    /**
+     * Return the number of words needed for a mask of n hits.
+     *
+     * @param n number of hits
+     * @return number of words
+     */
+    static int words(int n) {
+        return (n + 63) >>> 6;
+    }
+
+    /**
+     * Select all n hits.
+     *
+     * @param mask mask to set
+     * @param n number of hits
+     */
+    static void setAll(long[] mask, int n) {
+        int nw = words(n);
+        for (int w = 0; w < nw; w++) {
+            mask[w] = -1L;
+        }
+        if ((n & 63) != 0) mask[nw - 1] = (1L << (n & 63)) - 1;
+    }
+
+    /**
+     * Deselect all n hits.
+     *
+     * @param mask mask to clear
+     * @param n number of hits
+     */
+    static void clear(long[] mask, int n) {
+        int nw = words(n);
+        for (int w = 0; w < nw; w++) {
+            mask[w] = 0L;
+        }
+    }
+
+    /**
+     * Deselect hit k.
+     *
+     * @param mask mask to update
+     * @param k hit to deselect
+     */
+    static void deselect(long[] mask, int k) {
+        mask[k >>> 6] &= ~(1L << k);
+    }
+
+    /**
+     * Return the number of selected hits.
+     *
+     * @param mask mask
+     * @param n number of hits
+     * @return number of selected hits
+     */
+    static int count(long[] mask, int n) {
+        int nw = words(n);
+        int count = 0;
+        for (int w = 0; w < nw; w++) {
+            count += Long.bitCount(mask[w]);
+        }
+        return count;
+    }
+
+    /**
+     * Return the first selected hit at or after hit k, or -1 if there are none.
+     *
+     * @param mask mask
+     * @param k first hit to look at
+     * @param n number of hits
+     * @return next selected hit
+     */
+    static int next(long[] mask, int k, int n) {
+        if (k >= n) return -1;
+        int w = k >>> 6;
+        long bits = mask[w] & (-1L << k);
+        int nw = words(n);
+        while (bits == 0) {
+            if (++w == nw) return -1;
+            bits = mask[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+}
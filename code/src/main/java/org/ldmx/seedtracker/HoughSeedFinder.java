@@ -0,0 +1,315 @@
+package org.ldmx.seedtracker;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.lcsim.constants.Constants;
+import org.lcsim.recon.tracking.seedtracker.HelixFitter;
+import org.lcsim.recon.tracking.seedtracker.SeedLayer;
+import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
+
+/**
+ * Seed finder that finds track seeds as peaks in Hough transforms of the hits
+ * instead of trying every combination of hits in the seed layers.
+ * <p>
+ * Tracks are taken to come from the origin.  A circle through the origin with
+ * curvature k and initial direction phi0 passes through a hit at (r, phi) if
+ * k = 2 sin(phi - phi0) / r, so each hit fills the band of (k, phi0) bins along
+ * this curve.  Each bin keeps the layers of the hits in it, and bins that have
+ * hits in all the seed layers and the most layers in their neighbourhood are
+ * taken as peaks.  For the hits in a peak, the arc length s from the origin is
+ * found from the peak curvature and each hit with a z measurement fills the
+ * band of (tan(lambda), z0) bins along z = z0 + s tan(lambda).  Axial strip hits
+ * count in every (tan(lambda), z0) bin.  Each peak in the second transform gives
+ * one seed, made from the hit closest to the peak helix in each seed layer,
+ * which is checked, fit, confirmed and extended as in SeedTrackFinder.
+ * <p>
+ * The cost of filling the transforms grows linearly with the number of hits.
+ */
+public class HoughSeedFinder extends SeedTrackFinder {
+
+    private int _nphi = 256;
+    private int _ncurv = 64;
+    private int _nz0 = 32;
+    private int _ntanl = 64;
+    private double _tanlmax = 1.;
+
+    //  Accumulator entries - each bin has a linked list of the hits in it
+    private int _nentries;
+    private int[] _entryhit = new int[4096];
+    private int[] _entrynext = new int[4096];
+
+    public HoughSeedFinder(HitManager hitmanager, HelixFitter helixfitter) {
+        super(hitmanager, helixfitter);
+    }
+
+    /**
+     * Set the binning of the (curvature, phi0) transform.  The curvature range is
+     * set by the minimum pT of the strategy.
+     *
+     * @param ncurv number of curvature bins
+     * @param nphi number of phi0 bins
+     */
+    public void setCurvaturePhiBins(int ncurv, int nphi) {
+        if (ncurv < 1 || nphi < 3)
+            throw new IllegalArgumentException("Invalid number of curvature / phi0 bins");
+        _ncurv = ncurv;
+        _nphi = nphi;
+    }
+
+    /**
+     * Set the binning of the (tan(lambda), z0) transform.  The z0 range is set by
+     * the maximum z0 of the strategy.
+     *
+     * @param ntanl number of tan(lambda) bins
+     * @param nz0 number of z0 bins
+     * @param tanlmax maximum |tan(lambda)|
+     */
+    public void setDipZ0Bins(int ntanl, int nz0, double tanlmax) {
+        if (ntanl < 1 || nz0 < 1 || tanlmax <= 0.)
+            throw new IllegalArgumentException("Invalid tan(lambda) / z0 binning");
+        _ntanl = ntanl;
+        _nz0 = nz0;
+        _tanlmax = tanlmax;
+    }
+
+    @Override
+    public boolean FindTracks(SeedStrategy strategy, double bfield) {
+
+        HitManager hitmanager = getHitManager();
+        SectorManager smanager = hitmanager.getSectorManager();
+        PackedHits packed = hitmanager.getPackedHits();
+
+        //  Each layer of the strategy is a bit in the layer masks
+        List<SeedLayer> layers = strategy.getLayerList();
+        if (layers.size() > 64)
+            throw new IllegalArgumentException("Hough seeding supports at most 64 layers per strategy");
+        List<SeedLayer> seedlayers = strategy.getLayers(SeedLayer.SeedType.Seed);
+        if (seedlayers.size() != 3) return FinderDone();
+        int[] seedbit = new int[3];
+        long seedmask = 0;
+        for (int i = 0; i < 3; i++) {
+            seedbit[i] = layers.indexOf(seedlayers.get(i));
+            seedmask |= 1L << seedbit[i];
+        }
+
+        //  Collect the hits in the layers of the strategy
+        int[][] layerhits = new int[layers.size()][];
+        int nhits = 0;
+        for (int k = 0; k < layers.size(); k++) {
+            layerhits[k] = packed.getIndices(smanager.getSectors(layers.get(k)));
+            nhits += layerhits[k].length;
+        }
+        int[] hits = new int[nhits];
+        int[] hitbit = new int[nhits];
+        double[] r = new double[nhits];
+        double[] phi = new double[nhits];
+        int n = 0;
+        for (int k = 0; k < layers.size(); k++) {
+            for (int i : layerhits[k]) {
+                hits[n] = i;
+                hitbit[n] = k;
+                r[n] = Math.sqrt(packed.x[i]*packed.x[i] + packed.y[i]*packed.y[i]);
+                phi[n] = Math.atan2(packed.y[i], packed.x[i]);
+                n++;
+            }
+        }
+
+        //  Fill the (curvature, phi0) transform
+        double kmax = Math.abs(Constants.fieldConversion * bfield / strategy.getMinPT());
+        double dk = 2. * kmax / _ncurv;
+        double dphi = 2. * Math.PI / _nphi;
+        int nbins = _ncurv * _nphi;
+        int[] head = new int[nbins];
+        long[] mask = new long[nbins];
+        Arrays.fill(head, -1);
+        _nentries = 0;
+        for (int h = 0; h < nhits; h++) {
+            if (r[h] <= 0.) continue;
+            double knext = 2. * Math.sin(phi[h] + Math.PI) / r[h];
+            for (int p = 0; p < _nphi; p++) {
+                double kprev = knext;
+                knext = 2. * Math.sin(phi[h] + Math.PI - (p + 1) * dphi) / r[h];
+                double klo = Math.min(kprev, knext);
+                double khi = Math.max(kprev, knext);
+
+                //  Include the turning point of the curve if it is in this phi0 bin
+                double d = phi[h] + Math.PI - (p + 1) * dphi;
+                for (double c = -2.5 * Math.PI; c < 2. * Math.PI; c += Math.PI) {
+                    if (c >= d && c <= d + dphi) {
+                        klo = Math.min(klo, 2. * Math.sin(c) / r[h]);
+                        khi = Math.max(khi, 2. * Math.sin(c) / r[h]);
+                    }
+                }
+
+                //  Fill the curvature bins in the band
+                if (khi < -kmax || klo >= kmax) continue;
+                int b0 = Math.max(0, (int) Math.floor((klo + kmax) / dk));
+                int b1 = Math.min(_ncurv - 1, (int) Math.floor((khi + kmax) / dk));
+                for (int b = b0; b <= b1; b++) {
+                    int bin = p * _ncurv + b;
+                    AddEntry(head, bin, h);
+                    mask[bin] |= 1L << hitbit[h];
+                }
+            }
+        }
+
+        //  Find the peaks and look for seeds in the hits of each peak
+        FastCheck checker = newChecker(strategy, bfield);
+        double z0max = strategy.getMaxZ0();
+        Set<Long> seeds = new HashSet<Long>();
+        int nzbins = _nz0 * _ntanl;
+        int[] zhead = new int[nzbins];
+        long[] zmask = new long[nzbins];
+        double[] s = new double[nhits];
+        for (int p = 0; p < _nphi; p++) {
+            for (int b = 0; b < _ncurv; b++) {
+                int bin = p * _ncurv + b;
+                if ((mask[bin] & seedmask) != seedmask) continue;
+                if (!Peak(mask, bin, p, b, _nphi, _ncurv, true)) continue;
+                double k = -kmax + (b + 0.5) * dk;
+                double phi0 = -Math.PI + (p + 0.5) * dphi;
+
+                //  Fill the (tan(lambda), z0) transform with the hits in this peak
+                Arrays.fill(zhead, -1);
+                Arrays.fill(zmask, 0L);
+                long axialmask = 0;
+                int zfirst = _nentries;
+                for (int e = head[bin]; e >= 0; e = _entrynext[e]) {
+                    int h = _entryhit[e];
+                    int i = hits[h];
+                    s[h] = ArcLength(k, r[h]);
+                    if (packed.type[i] == PackedHits.AXIAL) {
+                        axialmask |= 1L << hitbit[h];
+                        continue;
+                    }
+                    FillDipZ0(zhead, zmask, h, hitbit[h], packed.z[i], s[h], z0max);
+                }
+
+                //  Each peak gives a seed from the hits closest to the peak helix
+                for (int zbin = 0; zbin < nzbins; zbin++) {
+                    zmask[zbin] |= axialmask;
+                }
+                for (int zb = 0; zb < nzbins; zb++) {
+                    if ((zmask[zb] & seedmask) != seedmask) continue;
+                    if (!Peak(zmask, zb, zb / _ntanl, zb % _ntanl, _nz0, _ntanl, false)) continue;
+                    double z0 = -z0max + (zb / _ntanl + 0.5) * 2. * z0max / _nz0;
+                    double tanl = -_tanlmax + (zb % _ntanl + 0.5) * 2. * _tanlmax / _ntanl;
+
+                    int[] seedidx = new int[3];
+                    for (int j = 0; j < 3; j++) {
+                        seedidx[j] = -1;
+                        double best = Double.MAX_VALUE;
+                        for (int e = head[bin]; e >= 0; e = _entrynext[e]) {
+                            int h = _entryhit[e];
+                            if (hitbit[h] != seedbit[j]) continue;
+                            int i = hits[h];
+                            double dbend = (2. * Math.sin(phi[h] - phi0) / r[h] - k) * r[h] * r[h] / 2.;
+                            double dz = 0.;
+                            if (packed.type[i] != PackedHits.AXIAL) {
+                                if (!InBin(zhead, zb, h)) continue;
+                                dz = packed.z[i] - z0 - s[h] * tanl;
+                            }
+                            double dist = dbend * dbend + dz * dz;
+                            if (dist < best) {
+                                best = dist;
+                                seedidx[j] = i;
+                            }
+                        }
+                    }
+                    if (seedidx[0] < 0 || seedidx[1] < 0 || seedidx[2] < 0) continue;
+
+                    //  Neighbouring peaks often give the same seed
+                    long key = ((long) seedidx[0] << 42) | ((long) seedidx[1] << 21) | seedidx[2];
+                    if (!seeds.add(key)) continue;
+
+                    //  Check the seed hits, then fit, confirm and extend the seed
+                    ProcessSeedHits(packed, seedidx[0], seedidx[1], seedidx[2], checker, strategy, bfield);
+                }
+
+                //  Drop the entries for the (tan(lambda), z0) transform
+                _nentries = zfirst;
+            }
+        }
+
+        return FinderDone();
+    }
+
+    /**
+     * Fill the band of (tan(lambda), z0) bins for a hit.
+     */
+    private void FillDipZ0(int[] zhead, long[] zmask, int h, int bit, double z, double s, double z0max) {
+        if (s <= 0.) return;
+        double dz0 = 2. * z0max / _nz0;
+        double dt = 2. * _tanlmax / _ntanl;
+        double tnext = (z + z0max) / s;
+        for (int q = 0; q < _nz0; q++) {
+            double tprev = tnext;
+            tnext = (z + z0max - (q + 1) * dz0) / s;
+            if (tprev < -_tanlmax || tnext >= _tanlmax) continue;
+            int t0 = Math.max(0, (int) Math.floor((tnext + _tanlmax) / dt));
+            int t1 = Math.min(_ntanl - 1, (int) Math.floor((tprev + _tanlmax) / dt));
+            for (int t = t0; t <= t1; t++) {
+                int bin = q * _ntanl + t;
+                AddEntry(zhead, bin, h);
+                zmask[bin] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Check if a bin has at least as many layers as its neighbours, and more
+     * layers than the neighbours that come before it.  The first coordinate
+     * wraps around if it is an angle.
+     */
+    private static boolean Peak(long[] mask, int bin, int i, int j, int ni, int nj, boolean wrap) {
+        int count = Long.bitCount(mask[bin]);
+        for (int di = -1; di <= 1; di++) {
+            int i2 = i + di;
+            if (wrap) i2 = (i2 + ni) % ni;
+            else if (i2 < 0 || i2 >= ni) continue;
+            for (int dj = -1; dj <= 1; dj++) {
+                int j2 = j + dj;
+                if (j2 < 0 || j2 >= nj || (di == 0 && dj == 0)) continue;
+                int bin2 = i2 * nj + j2;
+                int count2 = Long.bitCount(mask[bin2]);
+                if (count2 > count || (count2 == count && bin2 < bin)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if a hit is in a bin of a transform.
+     */
+    private boolean InBin(int[] head, int bin, int h) {
+        for (int e = head[bin]; e >= 0; e = _entrynext[e]) {
+            if (_entryhit[e] == h) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the arc length from the origin to a point at distance r on a
+     * circle through the origin with curvature k.
+     */
+    private static double ArcLength(double k, double r) {
+        double x = 0.5 * k * r;
+        if (Math.abs(x) < 1.0e-6) return r;
+        if (Math.abs(x) >= 1.) return Math.PI / Math.abs(k);
+        return Math.asin(x) / (0.5 * k);
+    }
+
+    private void AddEntry(int[] head, int bin, int h) {
+        if (_nentries == _entryhit.length) {
+            _entryhit = Arrays.copyOf(_entryhit, 2 * _nentries);
+            _entrynext = Arrays.copyOf(_entrynext, 2 * _nentries);
+        }
+        _entryhit[_nentries] = h;
+        _entrynext[_nentries] = head[bin];
+        head[bin] = _nentries;
+        _nentries++;
+    }
+}
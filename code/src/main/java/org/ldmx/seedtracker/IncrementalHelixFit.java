@@ -0,0 +1,362 @@
+package org.ldmx.seedtracker;
+
+import hep.physics.matrix.SymmetricMatrix;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lcsim.fit.helicaltrack.HelicalTrack2DHit;
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.fit.helicaltrack.MultipleScatter;
+import org.lcsim.recon.tracking.seedtracker.SeedCandidate;
+import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
+
+/**
+ * Helix fit that keeps the weighted sums of the circle and line fits, so a hit
+ * can be added to a track candidate at a fixed cost instead of refitting all
+ * its hits.
+ * <p>
+ * The circle is fit with the Karimaki method, which only needs the weighted
+ * sums of 1, x, y, x^2, xy, y^2, x r^2, y r^2, r^2 and r^4 over the hits.  The
+ * covariance of the circle parameters also follows from these sums.  The line
+ * is a weighted straight line fit of z against the x-y arc length, which only
+ * needs the weighted sums of 1, s, z, s^2, sz and z^2.  Axial strip hits are not
+ * used in the line fit.
+ * <p>
+ * The sums are started from a track candidate that has been fit with the helix
+ * fitter, using its hit positions, path lengths and multiple scattering errors.
+ * When a hit is added, its stereo hit position, path length and multiple
+ * scattering error are found from the current helix, and the hits already in
+ * the sums are not revisited.  The result is therefore an approximation to a
+ * new helix fit, which should be redone for the final track candidates.  Only
+ * helices with their reference point at the origin are supported.
+ */
+public class IncrementalHelixFit {
+
+    private static final int DCA = HelixSupport.DCA;
+    private static final int PHI0 = HelixSupport.PHI0;
+    private static final int CURV = HelixSupport.CURV;
+    private static final int Z0 = HelixSupport.Z0;
+    private static final int SLOPE = HelixSupport.SLOPE;
+
+    private double _bfield;
+    private HelicalTrackFit _helix;
+    private double _circlechisq = 1.e99;
+    private CorrectionCache _corrections;
+
+    //  Circle fit sums
+    private int _ncircle;
+    private double _w;
+    private double _sx;
+    private double _sy;
+    private double _sxx;
+    private double _sxy;
+    private double _syy;
+    private double _sxr;
+    private double _syr;
+    private double _srr;
+    private double _sr4;
+
+    //  Line fit sums
+    private int _nline;
+    private double _lw;
+    private double _ls;
+    private double _lz;
+    private double _lss;
+    private double _lsz;
+    private double _lzz;
+
+    /**
+     * Start the sums from a track candidate that has a helix fit.
+     *
+     * @param seed fitted track candidate
+     * @param bfield magnetic field
+     */
+    public IncrementalHelixFit(SeedCandidate seed, double bfield) {
+        this(seed, bfield, null);
+    }
+
+    /**
+     * Start the sums from a track candidate that has a helix fit, taking the
+     * corrected stereo hit positions from a cache.
+     *
+     * @param seed fitted track candidate
+     * @param bfield magnetic field
+     * @param corrections corrected hit cache for this event (or null)
+     */
+    IncrementalHelixFit(SeedCandidate seed, double bfield, CorrectionCache corrections) {
+        _bfield = bfield;
+        _corrections = corrections;
+        _helix = seed.getHelix();
+        for (HelicalTrackHit hit : seed.getHits()) {
+            Double s = _helix.PathMap().get(hit);
+            MultipleScatter ms = _helix.ScatterMap().get(hit);
+            Accumulate(hit, s, ms);
+        }
+    }
+
+    /**
+     * Copy an incremental fit, so the copy can have hits added without changing
+     * the original.
+     *
+     * @param fit fit to copy
+     */
+    public IncrementalHelixFit(IncrementalHelixFit fit) {
+        _bfield = fit._bfield;
+        _corrections = fit._corrections;
+        _helix = fit._helix;
+        _circlechisq = fit._circlechisq;
+        _ncircle = fit._ncircle;
+        _w = fit._w;
+        _sx = fit._sx;
+        _sy = fit._sy;
+        _sxx = fit._sxx;
+        _sxy = fit._sxy;
+        _syy = fit._syy;
+        _sxr = fit._sxr;
+        _syr = fit._syr;
+        _srr = fit._srr;
+        _sr4 = fit._sr4;
+        _nline = fit._nline;
+        _lw = fit._lw;
+        _ls = fit._ls;
+        _lz = fit._lz;
+        _lss = fit._lss;
+        _lsz = fit._lsz;
+        _lzz = fit._lzz;
+    }
+
+    /**
+     * Return true if the starting helix can be used for incremental fits.
+     *
+     * @param helix helix fit
+     * @return true if the helix is supported
+     */
+    public static boolean isSupported(HelicalTrackFit helix) {
+        return helix != null && HelixSupport.AtOrigin(helix);
+    }
+
+    /**
+     * Add a hit to the sums and solve for the new helix.  If this fails the hit
+     * is still in the sums, so the fit should be discarded.
+     *
+     * @param hit hit to add
+     * @param strategy strategy in use
+     * @return true if the new helix passes the cuts of the strategy
+     */
+    public boolean AddHit(HelicalTrackHit hit, SeedStrategy strategy) {
+        Accumulate(hit, null, null);
+        return Solve(strategy, hit);
+    }
+
+    /**
+     * Solve for the helix from the current sums, without adding a hit.
+     *
+     * @param strategy strategy in use
+     * @return true if the helix passes the cuts of the strategy
+     */
+    public boolean Solve(SeedStrategy strategy) {
+        return Solve(strategy, null);
+    }
+
+    /**
+     * Return the circle chisq from the last solution, even if it failed the cuts.
+     *
+     * @return circle chisq
+     */
+    public double getCircleChisq() {
+        return _circlechisq;
+    }
+
+    /**
+     * Return the helix from the last successful solution.
+     *
+     * @return helix
+     */
+    public HelicalTrackFit getHelix() {
+        return _helix;
+    }
+
+    /**
+     * Add a hit to the sums.  The path length and multiple scattering errors
+     * are estimated from the current helix if they aren't given.
+     */
+    private void Accumulate(HelicalTrackHit hit, Double path, MultipleScatter ms) {
+
+        //  Correct stereo hits for the track direction and get the hit position
+        CorrectedHit chit = Correct(hit);
+        double x = chit.x();
+        double y = chit.y();
+        double s = path != null ? path : HelixSupport.ArcLength(_helix.parameters(), x, y);
+        if (ms == null) ms = HelixSupport.EstimateScatter(_helix, s);
+
+        //  Circle sums, weighted by the azimuthal position error
+        double r = Math.sqrt(x*x + y*y);
+        double drphi = 0.;
+        if (r > 0.) drphi = (y*y * chit.covxx() - 2. * x * y * chit.covxy() + x*x * chit.covyy()) / (r * r);
+        double w = 1. / (drphi + ms.drphi() * ms.drphi());
+        double rr = x*x + y*y;
+        _ncircle++;
+        _w += w;
+        _sx += w * x;
+        _sy += w * y;
+        _sxx += w * x * x;
+        _sxy += w * x * y;
+        _syy += w * y * y;
+        _sxr += w * x * rr;
+        _syr += w * y * rr;
+        _srr += w * rr;
+        _sr4 += w * rr * rr;
+
+        //  Line sums
+        if (hit instanceof HelicalTrack2DHit) return;
+        double wz = 1. / (chit.covzz() + ms.dz() * ms.dz());
+        double z = chit.z();
+        _nline++;
+        _lw += wz;
+        _ls += wz * s;
+        _lz += wz * z;
+        _lss += wz * s * s;
+        _lsz += wz * s * z;
+        _lzz += wz * z * z;
+    }
+
+    /**
+     * Solve the circle and line fits from the sums and make the new helix.
+     */
+    private boolean Solve(SeedStrategy strategy, HelicalTrackHit newhit) {
+
+        if (_ncircle < 3 || _nline < 2) return false;
+        double[] oldpar = _helix.parameters();
+        double[] par = new double[5];
+        double[] chisq = new double[2];
+        SymmetricMatrix cov = new SymmetricMatrix(5);
+
+        //  Karimaki circle fit
+        double xm = _sx / _w;
+        double ym = _sy / _w;
+        double rm = _srr / _w;
+        double cxx = _sxx / _w - xm * xm;
+        double cxy = _sxy / _w - xm * ym;
+        double cyy = _syy / _w - ym * ym;
+        double cxr = _sxr / _w - xm * rm;
+        double cyr = _syr / _w - ym * rm;
+        double crr = _sr4 / _w - rm * rm;
+        if (!(crr > 0.)) return false;
+        double q1 = crr * cxy - cxr * cyr;
+        double q2 = crr * (cxx - cyy) - cxr * cxr + cyr * cyr;
+        double phi = 0.5 * Math.atan2(2. * q1, q2);
+        double sphi = Math.sin(phi);
+        double cphi = Math.cos(phi);
+        double kappa = (sphi * cxr - cphi * cyr) / crr;
+        double delta = -kappa * rm + sphi * xm - cphi * ym;
+        double root = 1. - 4. * delta * kappa;
+        if (!(root > 0.)) return false;
+        root = Math.sqrt(root);
+        double rho = 2. * kappa / root;
+        double d = 2. * delta / (1. + root);
+        double u = 1. + rho * d;
+        chisq[0] = _w * u * u * (sphi*sphi * cxx - 2. * sphi * cphi * cxy + cphi*cphi * cyy - kappa * kappa * crr);
+        chisq[0] = Math.max(0., chisq[0]);
+        _circlechisq = chisq[0];
+
+        //  Take the direction closest to the old helix
+        double dphi = phi - oldpar[PHI0];
+        dphi -= 2. * Math.PI * Math.floor((dphi + Math.PI) / (2. * Math.PI));
+        if (Math.abs(dphi) > 0.5 * Math.PI) {
+            phi += Math.PI;
+            sphi = -sphi;
+            cphi = -cphi;
+            rho = -rho;
+            d = -d;
+        }
+        if (phi > Math.PI) phi -= 2. * Math.PI;
+
+        //  Karimaki parameters to helix parameters: curvature = rho, dca = -d
+        par[DCA] = -d;
+        par[PHI0] = phi;
+        par[CURV] = rho;
+        if (!CircleCovariance(rho, sphi, cphi, d, u, cov)) return false;
+
+        //  Straight line fit of z against s
+        double det = _lw * _lss - _ls * _ls;
+        if (!(det > 0.)) return false;
+        par[SLOPE] = (_lw * _lsz - _ls * _lz) / det;
+        par[Z0] = (_lss * _lz - _ls * _lsz) / det;
+        chisq[1] = _lzz - 2. * par[Z0] * _lz - 2. * par[SLOPE] * _lsz + par[Z0] * par[Z0] * _lw
+                + 2. * par[Z0] * par[SLOPE] * _ls + par[SLOPE] * par[SLOPE] * _lss;
+        chisq[1] = Math.max(0., chisq[1]);
+        cov.setElement(Z0, Z0, _lss / det);
+        cov.setElement(SLOPE, Z0, -_ls / det);
+        cov.setElement(SLOPE, SLOPE, _lw / det);
+
+        //  Apply the strategy cuts
+        if (!HelixSupport.PassesCuts(par, chisq, strategy, _bfield)) return false;
+
+        //  Make the new helix, keeping the path lengths and scattering errors of the old one
+        Map<HelicalTrackHit, Double> smap = new HashMap<HelicalTrackHit, Double>(_helix.PathMap());
+        Map<HelicalTrackHit, MultipleScatter> msmap = new HashMap<HelicalTrackHit, MultipleScatter>(_helix.ScatterMap());
+        if (newhit != null) {
+            CorrectedHit chit = Correct(newhit);
+            double s = HelixSupport.ArcLength(par, chit.x(), chit.y());
+            smap.put(newhit, s);
+            msmap.put(newhit, HelixSupport.EstimateScatter(_helix, s));
+        }
+        int[] ndf = {_ncircle - 3, _nline - 2};
+        _helix = new HelicalTrackFit(par, cov, chisq, ndf, smap, msmap);
+        return true;
+    }
+
+    /**
+     * Find the covariance of the circle parameters by inverting the weight matrix
+     * of the Karimaki fit, which is given by the sums at the solution.
+     */
+    private boolean CircleCovariance(double rho, double sphi, double cphi, double d, double u, SymmetricMatrix cov) {
+
+        //  Weighted sums of a = x sin(phi) - y cos(phi) and c = x cos(phi) + y sin(phi)
+        double sa = sphi * _sx - cphi * _sy;
+        double sc = cphi * _sx + sphi * _sy;
+        double saa = sphi*sphi * _sxx - 2. * sphi * cphi * _sxy + cphi*cphi * _syy;
+        double scc = cphi*cphi * _sxx + 2. * sphi * cphi * _sxy + sphi*sphi * _syy;
+        double sac = sphi * cphi * (_sxx - _syy) + (sphi*sphi - cphi*cphi) * _sxy;
+        double sra = sphi * _sxr - cphi * _syr;
+        double src = cphi * _sxr + sphi * _syr;
+
+        //  Weight matrix for (rho, phi, d) from the derivatives of the Karimaki residual
+        double k = 0.5 * d * d;
+        double grr = 0.25 * _sr4 + k * k * _w + d * d * saa + k * _srr - d * sra - 2. * k * d * sa;
+        double grp = -u * (0.5 * src + k * sc - d * sac);
+        double grd = u * (0.5 * _srr + k * _w - d * sa) - rho * (0.5 * sra + k * sa - d * saa);
+        double gpp = u * u * scc;
+        double gpd = -u * (u * sc - rho * sac);
+        double gdd = u * u * _w - 2. * u * rho * sa + rho * rho * saa;
+
+        //  Invert the weight matrix
+        double c00 = gpp * gdd - gpd * gpd;
+        double c01 = grd * gpd - grp * gdd;
+        double c02 = grp * gpd - grd * gpp;
+        double c11 = grr * gdd - grd * grd;
+        double c12 = grp * grd - grr * gpd;
+        double c22 = grr * gpp - grp * grp;
+        double det = grr * c00 + grp * c01 + grd * c02;
+        if (!(det > 0.)) return false;
+
+        //  Convert to the helix parameters, where dca = -d
+        cov.setElement(CURV, CURV, c00 / det);
+        cov.setElement(CURV, PHI0, c01 / det);
+        cov.setElement(CURV, DCA, -c02 / det);
+        cov.setElement(PHI0, PHI0, c11 / det);
+        cov.setElement(PHI0, DCA, -c12 / det);
+        cov.setElement(DCA, DCA, c22 / det);
+        return true;
+    }
+
+    /**
+     * Correct a hit for the track direction of the current helix.
+     */
+    private CorrectedHit Correct(HelicalTrackHit hit) {
+        if (_corrections != null) return _corrections.Correct(hit, _helix);
+        return CorrectedHit.Correct(hit, _helix);
+    }
+}
@@ -0,0 +1,62 @@
+package org.ldmx.seedtracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lcsim.recon.tracking.seedtracker.MergeSeedLists;
+import org.lcsim.recon.tracking.seedtracker.SeedCandidate;
+import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
+import org.lcsim.recon.tracking.seedtracker.diagnostic.ISeedTrackerDiagnostics;
+
+/**
+ * Track candidate merging that uses the hit index of a SeedCandidateList to
+ * only compare a new candidate with the candidates that share hits with it.
+ * The duplicate and better candidate criteria are those of MergeSeedLists.
+ * Plain lists, and merging with diagnostics enabled, are handled by
+ * MergeSeedLists.
+ */
+class IndexedMergeSeedLists extends MergeSeedLists {
+
+    private ISeedTrackerDiagnostics _diag = null;
+
+    @Override
+    public void setDiagnostic(ISeedTrackerDiagnostics d) {
+        super.setDiagnostic(d);
+        _diag = d;
+    }
+
+    @Override
+    public boolean Merge(List<SeedCandidate> seedlist, SeedCandidate newseed, SeedStrategy strategy) {
+
+        if (_diag != null || !(seedlist instanceof SeedCandidateList)) return super.Merge(seedlist, newseed, strategy);
+
+        //  Find the duplicates, giving up if any of them is at least as good as the new seed
+        List<SeedCandidate> duplist = new ArrayList<SeedCandidate>();
+        for (SeedCandidate seed : ((SeedCandidateList) seedlist).getSharing(newseed)) {
+            if (!isDuplicate(newseed, seed)) continue;
+            if (!isBetter(newseed, seed, strategy)) return false;
+            duplist.add(seed);
+        }
+
+        //  Replace the duplicates with the new seed
+        for (SeedCandidate seed : duplist) {
+            seedlist.remove(seed);
+        }
+        seedlist.add(newseed);
+        return true;
+    }
+
+    /**
+     * Return the candidates in a list that could be duplicates of a track
+     * candidate, which for a SeedCandidateList are those that share hits with
+     * it and otherwise are all the candidates in the list.
+     *
+     * @param seedlist list of track candidates
+     * @param seed track candidate
+     * @return possible duplicates
+     */
+    List<SeedCandidate> getCandidates(List<SeedCandidate> seedlist, SeedCandidate seed) {
+        if (seedlist instanceof SeedCandidateList) return ((SeedCandidateList) seedlist).getSharing(seed);
+        return seedlist;
+    }
+}
@@ -0,0 +1,243 @@
+package org.ldmx.seedtracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.recon.tracking.seedtracker.Sector;
+
+/**
+ * Hits on a SeedLayer for one event, grouped by the plane (x position) of
+ * their sensor and ordered within each plane by their y position (the bend
+ * coordinate measured by the tracker planes).  For a helix, the point where it
+ * crosses each plane is found, the hits around it are found with a binary
+ * search, and the hits of all the planes are then read off in order of
+ * increasing x-y distance from the helix, which is the order the confirm /
+ * extend step tries them in.  The distance of a hit from the helix is its
+ * distance in y from the crossing point on its own plane, projected onto the
+ * normal to the circle there.  The index isn't changed once it is made, so it
+ * can be read by several threads at once.
+ * <p>
+ * The positions are taken from the packed view of the hits, so stereo hits
+ * are ordered by their position for an unknown track direction.
+ */
+class LayerHitIndex {
+
+    //  Largest gap in x between hits on the same plane
+    private static final double PLANE_GAP = 1.;
+
+    private final Plane[] _planes;
+
+    /**
+     * Make the index for the hits in the sectors of a layer.
+     *
+     * @param packed packed hits for this event
+     * @param sectors sectors of the layer
+     */
+    LayerHitIndex(PackedHits packed, List<Sector> sectors) {
+
+        //  Collect the packed hit index and sector number of each hit
+        int nhits = 0;
+        for (Sector sector : sectors) {
+            nhits += sector.Hits().size();
+        }
+        final int[] indices = new int[nhits];
+        int[] sectornum = new int[nhits];
+        int n = 0;
+        for (int i = 0; i < sectors.size(); i++) {
+            for (HelicalTrackHit hit : sectors.get(i).Hits()) {
+                sectornum[n] = i;
+                indices[n] = packed.getIndex(hit);
+                n++;
+            }
+        }
+
+        //  Sort by x and split into planes wherever there is a gap in x
+        final double[] x = packed.x;
+        Integer[] order = new Integer[nhits];
+        for (int i = 0; i < nhits; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(x[indices[i1]], x[indices[i2]]);
+            }
+        });
+        List<Plane> planes = new ArrayList<Plane>();
+        int first = 0;
+        for (int i = 1; i <= nhits; i++) {
+            if (i == nhits || x[indices[order[i]]] - x[indices[order[i - 1]]] > PLANE_GAP) {
+                planes.add(new Plane(packed, indices, sectornum, Arrays.copyOfRange(order, first, i)));
+                first = i;
+            }
+        }
+        _planes = planes.toArray(new Plane[planes.size()]);
+    }
+
+    /**
+     * Return the number of hits on the layer.
+     *
+     * @return number of hits
+     */
+    int size() {
+        int n = 0;
+        for (Plane plane : _planes) {
+            n += plane._hits.length;
+        }
+        return n;
+    }
+
+    /**
+     * Start reading the hits on the layer in order of their distance from a
+     * helix.
+     *
+     * @param helix helix
+     * @param sectorok flags for the sectors of the layer whose hits are wanted
+     * @return cursor for reading the hits
+     */
+    Cursor Open(HelicalTrackFit helix, boolean[] sectorok) {
+        return new Cursor(helix, sectorok);
+    }
+
+    /**
+     * Hits on one sensor plane, ordered by y.
+     */
+    private static class Plane {
+
+        private final HelicalTrackHit[] _hits;
+        private final double[] _y;
+        private final int[] _sector;
+        private final double _x;
+
+        Plane(PackedHits packed, int[] indices, int[] sectornum, Integer[] members) {
+            final double[] y = packed.y;
+            final int[] idx = indices;
+            Integer[] order = members.clone();
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return Double.compare(y[idx[i1]], y[idx[i2]]);
+                }
+            });
+            int nhits = order.length;
+            _hits = new HelicalTrackHit[nhits];
+            _y = new double[nhits];
+            _sector = new int[nhits];
+            double xsum = 0.;
+            for (int i = 0; i < nhits; i++) {
+                int j = order[i];
+                _hits[i] = packed.hits[indices[j]];
+                _y[i] = y[indices[j]];
+                _sector[i] = sectornum[j];
+                xsum += packed.x[indices[j]];
+            }
+            _x = nhits > 0 ? xsum / nhits : 0.;
+        }
+
+        /**
+         * Find the y position where a helix crosses this plane.  Of the two
+         * points where the circle crosses the plane, the one closest to the
+         * point of closest approach along the helix is used.  If the circle
+         * doesn't reach the plane, the y of the circle center is returned.
+         *
+         * @param helix helix
+         * @return y position of the crossing point
+         */
+        double Predict(HelicalTrackFit helix) {
+            double R = helix.R();
+            double yc = helix.yc();
+            double dx = _x - helix.xc();
+            double arg = R * R - dx * dx;
+            if (!(arg >= 0.)) return yc;
+            double dy = Math.sqrt(arg);
+            double s1 = Math.abs(HelixSupport.PathLength(helix, _x, yc + dy));
+            double s2 = Math.abs(HelixSupport.PathLength(helix, _x, yc - dy));
+            return s1 <= s2 ? yc + dy : yc - dy;
+        }
+    }
+
+    /**
+     * Position in the hit ordering for one helix.  Each call to Next() returns
+     * the closest hit to the helix that hasn't been returned yet.
+     */
+    class Cursor {
+
+        private final boolean[] _sectorok;
+        private final double[] _ypred;
+        private final double[] _scale;
+        private final int[] _lo;
+        private final int[] _hi;
+
+        private Cursor(HelicalTrackFit helix, boolean[] sectorok) {
+            _sectorok = sectorok;
+            int nplanes = _planes.length;
+            _ypred = new double[nplanes];
+            _scale = new double[nplanes];
+            _lo = new int[nplanes];
+            _hi = new int[nplanes];
+            double R = Math.abs(helix.R());
+            for (int p = 0; p < nplanes; p++) {
+                Plane plane = _planes[p];
+                double ypred = plane.Predict(helix);
+                _ypred[p] = ypred;
+
+                //  A distance dy along the plane is a distance dy * |y - yc| / R from the circle
+                double scale = R > 0. ? Math.abs(ypred - helix.yc()) / R : 1.;
+                _scale[p] = scale > 0. ? scale : 1.;
+
+                //  Binary search for the first hit at or above the predicted y
+                double[] y = plane._y;
+                int lo = 0;
+                int hi = y.length;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (y[mid] < ypred) lo = mid + 1;
+                    else hi = mid;
+                }
+                _lo[p] = lo - 1;
+                _hi[p] = lo;
+            }
+        }
+
+        /**
+         * Return the next closest hit, or null if there are no more hits.
+         *
+         * @return next hit
+         */
+        HelicalTrackHit Next() {
+            while (true) {
+
+                //  Find the closest remaining hit over all the planes
+                int best = -1;
+                boolean below = false;
+                double bestdist = Double.POSITIVE_INFINITY;
+                for (int p = 0; p < _planes.length; p++) {
+                    double[] y = _planes[p]._y;
+                    if (_lo[p] >= 0) {
+                        double dist = _scale[p] * (_ypred[p] - y[_lo[p]]);
+                        if (dist <= bestdist) {
+                            best = p;
+                            below = true;
+                            bestdist = dist;
+                        }
+                    }
+                    if (_hi[p] < y.length) {
+                        double dist = _scale[p] * (y[_hi[p]] - _ypred[p]);
+                        if (dist < bestdist) {
+                            best = p;
+                            below = false;
+                            bestdist = dist;
+                        }
+                    }
+                }
+                if (best < 0) return null;
+
+                Plane plane = _planes[best];
+                int i = below ? _lo[best]-- : _hi[best]++;
+                if (_sectorok[plane._sector[i]]) return plane._hits[i];
+            }
+        }
+    }
+}
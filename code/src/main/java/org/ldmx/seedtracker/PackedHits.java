@@ -0,0 +1,200 @@
+package org.ldmx.seedtracker;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lcsim.fit.helicaltrack.HelicalTrack2DHit;
+import org.lcsim.fit.helicaltrack.HelicalTrack3DHit;
+import org.lcsim.fit.helicaltrack.HelicalTrackCross;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.geometry.subdetector.BarrelEndcapFlag;
+import org.lcsim.recon.tracking.seedtracker.Sector;
+
+/**
+ * Packed view of the hits in an event for the seeding checks.  The quantities
+ * used by the FastCheck hit pair and triplet checks are stored in flat arrays,
+ * so the seeding loops don't need to call the hit accessors or test the hit
+ * type for every combination of hits.  The hits are stored sector by sector in
+ * the order they appear in the sector manager, so the hits of a sector occupy
+ * a contiguous range of indices starting at the index of its first hit.
+ * <p>
+ * The position used by the pair check (r, zc) is the stereo hit position for
+ * an unknown track direction, which is taken from a CorrectedHit so the hits
+ * themselves aren't changed.  The same position is kept as a hit (views) for
+ * the two point circle fitter.  The positions x, y, z are the uncorrected hit
+ * positions used by the triplet check.  The z uncertainties are stored
+ * without the nsig factor of the strategy, which is applied by FastCheck
+ * according to the hit type.
+ */
+public class PackedHits {
+
+    /** Type tag for a HelicalTrack3DHit */
+    public static final byte PIXEL = 0;
+    /** Type tag for a HelicalTrack2DHit */
+    public static final byte AXIAL = 1;
+    /** Type tag for a HelicalTrackCross */
+    public static final byte STEREO = 2;
+    /** Type tag for any other hit */
+    public static final byte OTHER = 3;
+
+    final HelicalTrackHit[] hits;
+    final HelicalTrackHit[] views;
+    final double[] x;
+    final double[] y;
+    final double[] z;
+    final double[] r;
+    final double[] phi;
+    final double[] zc;
+    final double[] dr;
+    final double[] drphi;
+    final double[] dz;
+    final double[] dzu;
+    final byte[] type;
+    final boolean[] endcap;
+    final int[] zbin;
+    private Map<HelicalTrackHit, Integer> _index;
+    private DoubletCache _doublets = new DoubletCache();
+
+    /**
+     * Make the packed view of the hits in the sectors of a sector manager.
+     *
+     * @param smanager sector manager holding the hits for this event
+     */
+    public PackedHits(SectorManager smanager) {
+
+        //  Count the hits
+        List<Sector> sectors = smanager.getAllSectors();
+        int nhits = 0;
+        for (Sector sector : sectors) {
+            nhits += sector.Hits().size();
+        }
+
+        hits = new HelicalTrackHit[nhits];
+        views = new HelicalTrackHit[nhits];
+        x = new double[nhits];
+        y = new double[nhits];
+        z = new double[nhits];
+        r = new double[nhits];
+        phi = new double[nhits];
+        zc = new double[nhits];
+        dr = new double[nhits];
+        drphi = new double[nhits];
+        dz = new double[nhits];
+        dzu = new double[nhits];
+        type = new byte[nhits];
+        endcap = new boolean[nhits];
+        zbin = new int[nhits];
+        _index = new IdentityHashMap<HelicalTrackHit, Integer>(2 * nhits);
+
+        //  Fill the arrays sector by sector
+        int i = 0;
+        for (Sector sector : sectors) {
+            for (HelicalTrackHit hit : sector.Hits()) {
+                Fill(i, hit, smanager);
+                _index.put(hit, i);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Return the number of hits.
+     *
+     * @return number of hits
+     */
+    public int size() {
+        return hits.length;
+    }
+
+    /**
+     * Return the hit stored at an index.
+     *
+     * @param i hit index
+     * @return hit
+     */
+    public HelicalTrackHit getHit(int i) {
+        return hits[i];
+    }
+
+    /**
+     * Return the index of a hit, or -1 if the hit is not in this view.
+     *
+     * @param hit hit to look for
+     * @return hit index
+     */
+    public int getIndex(HelicalTrackHit hit) {
+        Integer i = _index.get(hit);
+        if (i == null) return -1;
+        return i;
+    }
+
+    /**
+     * Return the indices of the hits in a list of sectors.
+     *
+     * @param sectors sectors holding the hits
+     * @return hit indices
+     */
+    public int[] getIndices(List<Sector> sectors) {
+        int nhits = 0;
+        for (Sector sector : sectors) {
+            nhits += sector.Hits().size();
+        }
+        int[] indices = new int[nhits];
+        int n = 0;
+        for (Sector sector : sectors) {
+            if (sector.Hits().isEmpty()) continue;
+            int first = getIndex(sector.Hits().get(0));
+            for (int j = 0; j < sector.Hits().size(); j++) {
+                indices[n++] = first + j;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Return the cache of hit pair checks for these hits.
+     *
+     * @return hit pair cache
+     */
+    public DoubletCache getDoubletCache() {
+        return _doublets;
+    }
+
+    private void Fill(int i, HelicalTrackHit hit, SectorManager smanager) {
+
+        //  Use the stereo hit position for an unknown track direction
+        CorrectedHit chit = CorrectedHit.Correct(hit, null);
+
+        //  Uncorrected position used in the triplet check
+        double[] pos = hit.getPosition();
+        x[i] = pos[0];
+        y[i] = pos[1];
+        z[i] = pos[2];
+
+        //  Hit type
+        if (hit instanceof HelicalTrack3DHit) type[i] = PIXEL;
+        else if (hit instanceof HelicalTrack2DHit) type[i] = AXIAL;
+        else if (hit instanceof HelicalTrackCross) type[i] = STEREO;
+        else type[i] = OTHER;
+        endcap[i] = hit.BarrelEndcapFlag() != BarrelEndcapFlag.BARREL;
+
+        //  Position and errors used in the pair check
+        hits[i] = hit;
+        views[i] = chit.getView();
+        r[i] = chit.r();
+        phi[i] = chit.phi();
+        zc[i] = chit.z();
+        dr[i] = chit.dr();
+        drphi[i] = chit.drphi();
+        if (type[i] == AXIAL) dz[i] = 0.5 * ((HelicalTrack2DHit) hit).zlen();
+        else dz[i] = chit.dz();
+        zbin[i] = smanager.ZBin(chit);
+
+        //  z uncertainty used in the triplet check
+        if (endcap[i]) dzu[i] = chit.dr() * Math.abs(pos[2]) / Math.sqrt(pos[0]*pos[0] + pos[1]*pos[1]);
+        else if (type[i] == PIXEL) dzu[i] = ((HelicalTrack3DHit) hit).dz();
+        else if (type[i] == AXIAL) dzu[i] = ((HelicalTrack2DHit) hit).zlen() / 2.;
+        else dzu[i] = Math.sqrt(hit.getCovMatrix()[5]);
+    }
+}
@@ -0,0 +1,57 @@
+package org.ldmx.seedtracker;
+
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.recon.tracking.seedtracker.Sector;
+
+/**
+ * Sector for a planar tracker layer, binned in the sensor-plane coordinates.
+ * In the tracking frame the sensor planes are normal to the x axis, u is the
+ * bend coordinate y and v is the non-bend coordinate z.  The u limits are
+ * stored as the phi limits of the base class and the v limits as the z limits,
+ * so the u and v bin numbers are the phi and z sector numbers.  The range of
+ * the hit x positions (the plane position) is also kept.
+ */
+public class PlanarSector extends Sector {
+
+    private double _xmin = 1.0e10;
+    private double _xmax = -1.0e10;
+
+    public PlanarSector(String identifier, String layerID, int ubin, int vbin,
+            double umin, double umax, double vmin, double vmax) {
+        super(identifier, layerID, ubin, vbin, umin, umax, vmin, vmax);
+    }
+
+    @Override
+    public void addHit(HelicalTrackHit hit) {
+        super.addHit(hit);
+
+        //  Update the range of plane positions
+        double x = hit.getPosition()[0];
+        if (x < _xmin) _xmin = x;
+        if (x > _xmax) _xmax = x;
+    }
+
+    public double umin() {
+        return phimin();
+    }
+
+    public double umax() {
+        return phimax();
+    }
+
+    public double vmin() {
+        return zmin();
+    }
+
+    public double vmax() {
+        return zmax();
+    }
+
+    public double xmin() {
+        return _xmin;
+    }
+
+    public double xmax() {
+        return _xmax;
+    }
+}
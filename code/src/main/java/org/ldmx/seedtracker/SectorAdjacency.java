@@ -0,0 +1,161 @@
+package org.ldmx.seedtracker;
+
+import java.util.Arrays;
+
+import org.lcsim.recon.tracking.seedtracker.Sector;
+import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
+
+/**
+ * Table of the sector pairs that are compatible with a seed strategy.  Whether
+ * two sectors can be connected by a track only depends on their bins and on the
+ * envelopes of their layers, so the result of the sector pair check is kept in
+ * a table keyed by the layer indices and the sector bins.  The table is filled
+ * as new pairs of sectors are encountered and is cleared when the geometry
+ * version of the sector manager changes (new detector, new sector parameters,
+ * or a layer envelope that has grown).
+ */
+public class SectorAdjacency {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte COMPATIBLE = 1;
+    private static final byte INCOMPATIBLE = 2;
+    private SectorManager _smanager;
+    private FastCheck _checker;
+    private double _bfield;
+    private int _version;
+    private long[] _keys;
+    private byte[] _states;
+    private int _nentries;
+
+    /**
+     * Create the adjacency table for a strategy.
+     *
+     * @param strategy seed strategy
+     * @param bfield magnetic field
+     * @param smanager sector manager that makes the sectors
+     * @param skipChecks skip the sector checks (all sectors are compatible)
+     * @param doSectorBinCheck only allow sector pairs in the same z bin
+     */
+    public SectorAdjacency(SeedStrategy strategy, double bfield, SectorManager smanager,
+            boolean skipChecks, boolean doSectorBinCheck) {
+
+        _smanager = smanager;
+        _bfield = bfield;
+        _checker = new FastCheck(strategy, bfield, null);
+        _checker.setSkipChecks(skipChecks);
+        if (doSectorBinCheck) _checker.setDoSectorBinCheck(smanager);
+
+        _version = smanager.getGeometryVersion();
+        _keys = new long[256];
+        _states = new byte[256];
+        _nentries = 0;
+    }
+
+    /**
+     * Return the magnetic field used for the sector checks.
+     *
+     * @return magnetic field
+     */
+    public double getBField() {
+        return _bfield;
+    }
+
+    /**
+     * Check if two sectors are compatible.
+     *
+     * @param layer1 layer index of the first sector
+     * @param s1 first sector
+     * @param layer2 layer index of the second sector
+     * @param s2 second sector
+     * @return true if the sectors are compatible
+     */
+    public boolean CheckSectorPair(int layer1, Sector s1, int layer2, Sector s2) {
+
+        //  Start over if the sector geometry has changed
+        int version = _smanager.getGeometryVersion();
+        if (version != _version) {
+            Arrays.fill(_states, UNKNOWN);
+            _nentries = 0;
+            _version = version;
+        }
+
+        //  Sectors with bins that don't fit in the key are checked directly
+        long key = PairKey(layer1, s1.phiSector(), s1.zSector(), layer2, s2.phiSector(), s2.zSector());
+        if (key < 0) return Check(layer1, s1, layer2, s2);
+
+        //  Look for the pair in the table
+        int mask = _keys.length - 1;
+        int slot = HashSlot(key, mask);
+        while (_states[slot] != UNKNOWN) {
+            if (_keys[slot] == key) return _states[slot] == COMPATIBLE;
+            slot = (slot + 1) & mask;
+        }
+
+        //  New pair - do the check and save the result
+        boolean compatible = Check(layer1, s1, layer2, s2);
+        _keys[slot] = key;
+        _states[slot] = compatible ? COMPATIBLE : INCOMPATIBLE;
+        _nentries++;
+        if (2 * _nentries > _keys.length) GrowTable();
+
+        return compatible;
+    }
+
+    /**
+     * Check if three sectors are compatible.  This check depends on the range of
+     * the hits in the sectors and is not kept in the table.
+     *
+     * @param s0 first sector
+     * @param s1 second sector
+     * @param s2 third sector
+     * @return true if the sectors are compatible
+     */
+    public boolean CheckSectorTriple(Sector s0, Sector s1, Sector s2) {
+        return _checker.CheckSectorTriple(s0, s1, s2);
+    }
+
+    private boolean Check(int layer1, Sector s1, int layer2, Sector s2) {
+        return _checker.CheckSectorPair(s1, _smanager.getLayerEnvelope(layer1), s2, _smanager.getLayerEnvelope(layer2));
+    }
+
+    /**
+     * Pack the layer indices and sector bins of a sector pair into a key.  The
+     * four bins take 12 bits each (bits 0-47), the second layer index bits 48-55
+     * and the first layer index bits 56-62, leaving the sign bit clear so a key
+     * is never -1.  The first layer index is therefore kept to 7 bits and the
+     * second to 8 bits, and -1 is returned if a pair doesn't fit.
+     */
+    private static long PairKey(int layer1, int phibin1, int zbin1, int layer2, int phibin2, int zbin2) {
+        if (layer1 < 0 || layer1 > 0x7f || layer2 < 0 || layer2 > 0xff) return -1;
+        if (!BinFits(phibin1) || !BinFits(zbin1) || !BinFits(phibin2) || !BinFits(zbin2)) return -1;
+        return ((long) layer1 << 56) | ((long) layer2 << 48)
+                | ((long) (phibin1 + 0x800) << 36) | ((long) (zbin1 + 0x800) << 24)
+                | ((long) (phibin2 + 0x800) << 12) | (long) (zbin2 + 0x800);
+    }
+
+    private static boolean BinFits(int bin) {
+        return bin >= -0x800 && bin < 0x800;
+    }
+
+    private static int HashSlot(long key, int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private void GrowTable() {
+        long[] oldkeys = _keys;
+        byte[] oldstates = _states;
+        _keys = new long[2 * oldkeys.length];
+        _states = new byte[2 * oldkeys.length];
+        int mask = _keys.length - 1;
+        for (int i = 0; i < oldkeys.length; i++) {
+            if (oldstates[i] == UNKNOWN) continue;
+            int slot = HashSlot(oldkeys[i], mask);
+            while (_states[slot] != UNKNOWN) {
+                slot = (slot + 1) & mask;
+            }
+            _keys[slot] = oldkeys[i];
+            _states[slot] = oldstates[i];
+        }
+    }
+}
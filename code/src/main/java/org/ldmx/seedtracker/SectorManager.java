@@ -1,6 +1,7 @@
 package org.ldmx.seedtracker;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,19 +13,44 @@ import org.lcsim.recon.tracking.seedtracker.SeedLayer;
 import org.lcsim.recon.tracking.seedtracker.SeedStrategy;
 
 /**
+ * Organize hits into sectors in each tracker layer.  Each layer is assigned a
+ * dense index the first time it is seen, and sectors are located with a packed
+ * integer key made from the layer index and the phi and z bins, so that adding
+ * a hit does not need to build any strings.  The lookup tables are kept from
+ * one event to the next and are only cleared by Initialize().
+ * <p>
+ * By default hits are binned in phi and z (r for endcap layers), which suits a
+ * barrel geometry.  For the planar LDMX trackers, the planar sectoring mode bins
+ * hits in the sensor-plane coordinates u (tracking y) and v (tracking z) instead,
+ * and creates PlanarSector objects.
+ * <p>
+ * The range of hit radius and plane position (x) seen in each layer is also
+ * accumulated over events.  Together with the sector bin limits, these layer
+ * envelopes describe the sector geometry independent of the hits in a given
+ * event.  The geometry version changes whenever an envelope or the sector
+ * parameters change, so that tables derived from the geometry can be rebuilt.
  *
  * @author Richard Partridge
  */
 public class SectorManager {
 
     private List<Sector> _sectorlist;
-    private Map<String, Sector> _sectormap;
-    private Map<String, List<Sector>> _slistmap;
+    private Map<String, Integer> _layerindex;
+    private List<List<Sector>> _layersectors;
+    private List<double[]> _layerenvelopes;
+    private int _version = 0;
+    private long[] _keys;
+    private Sector[] _sectors;
+    private int[] _usedslots;
+    private int _nused;
     private int _nphi;
     private double _dphi;
     private double _dz;
     private int _nphi0 = 4;
     private double _dz0 = 100.;
+    private boolean _planar = false;
+    private double _du;
+    private double _dv;
 
     public SectorManager() {
 
@@ -34,41 +60,63 @@ public class SectorManager {
         //  Create the list of sectors with hits
         _sectorlist = new ArrayList<Sector>();
 
-        //  Create a map to locate a sector using it's ID
-        _sectormap = new HashMap<String, Sector>();
+        //  Create a map to find the index for a layer using it's ID
+        _layerindex = new HashMap<String, Integer>();
 
-        //  Create a map to locate the list of sectors for a given layer
-        _slistmap = new HashMap<String, List<Sector>>();
+        //  Create the lists of sectors for each layer index
+        _layersectors = new ArrayList<List<Sector>>();
+
+        //  Create the list of r and x envelopes for each layer index
+        _layerenvelopes = new ArrayList<double[]>();
+
+        //  Create the hash table to locate a sector using it's key
+        _keys = new long[64];
+        _sectors = new Sector[64];
+        _usedslots = new int[32];
+        _nused = 0;
+    }
+
+    public SectorManager(SectorManager smanager) {
+
+        //  Use the same sector parameters as the existing sector manager
+        this();
+        setSectorParams(smanager._nphi, smanager._dz);
+        if (smanager._planar) setPlanarSectorParams(smanager._du, smanager._dv);
     }
 
     public void AddHit(HelicalTrackHit hit) {
 
-        //  Get the sector identifier for this hit
-        String identifier = FindSectorIdentifier(hit);
-        
+        //  Get the sector key for this hit
+        int layer = LayerIndex(hit.getLayerIdentifier());
+        int phibin = PhiBin(hit);
+        int zbin = ZBin(hit);
+        long key = SectorKey(layer, phibin, zbin);
+
         //  Retrieve the sector - create a new sector if one doesn't already exist
-        Sector sector;
-        if (!_sectormap.containsKey(identifier)) {
-            sector = CreateSector(hit);
+        Sector sector = FindSector(key);
+        if (sector == null) {
+            sector = CreateSector(hit, phibin, zbin);
             _sectorlist.add(sector);
-            _sectormap.put(identifier, sector);
+            StoreSector(key, sector);
 
-            //  See if we need to create a new list of Sensors for this detector layer
-            String lyrid = sector.LayerID();
-            if (!_slistmap.containsKey(lyrid)) {
-                List<Sector> slist = new ArrayList<Sector>();
-                _slistmap.put(lyrid, slist);
-            }
-
-            //  Update the list of sensors for this layer
-            _slistmap.get(lyrid).add(sector);
-
-        } else {
-            sector = _sectormap.get(identifier);
+            //  Update the list of sectors for this layer
+            _layersectors.get(layer).add(sector);
         }
 
         //  Add the hit to the sector
         sector.addHit(hit);
+
+        //  Grow the layer envelope if needed
+        double[] envelope = _layerenvelopes.get(layer);
+        double r = hit.r();
+        double x = hit.getPosition()[0];
+        if (r < envelope[0] || r > envelope[1] || x < envelope[2] || x > envelope[3]) {
+            envelope[0] = Math.min(envelope[0], r);
+            envelope[1] = Math.max(envelope[1], r);
+            envelope[2] = Math.min(envelope[2], x);
+            envelope[3] = Math.max(envelope[3], x);
+            _version++;
+        }
     }
 
     public List<Sector> getAllSectors() {
@@ -76,26 +124,107 @@ public class SectorManager {
     }
 
     public List<Sector> getSectors(SeedLayer layer) {
-        String layerID = layer.LayerID();
-        List<Sector> sectors;
-        if (_slistmap.containsKey(layerID)) {
-            sectors = _slistmap.get(layerID);
-        } else {
-            sectors = new ArrayList<Sector>();
-        }
-        return sectors;
+        Integer index = _layerindex.get(layer.LayerID());
+        if (index == null) return Collections.<Sector>emptyList();
+        return _layersectors.get(index);
+    }
+
+    /**
+     * Return the index assigned to a layer, or -1 if no hits have been seen in this layer.
+     *
+     * @param layer seed layer
+     * @return layer index
+     */
+    public int getLayerIndex(SeedLayer layer) {
+        Integer index = _layerindex.get(layer.LayerID());
+        if (index == null) return -1;
+        return index;
+    }
+
+    /**
+     * Return the number of layers that have been assigned an index.
+     *
+     * @return number of layers
+     */
+    public int getNLayers() {
+        return _layersectors.size();
+    }
+
+    /**
+     * Return the envelope of the hits seen in a layer over all events as the array
+     * {rmin, rmax, xmin, xmax}.  The array is updated in place as hits are added
+     * and must not be modified by the caller.
+     *
+     * @param layer layer index
+     * @return layer envelope
+     */
+    public double[] getLayerEnvelope(int layer) {
+        return _layerenvelopes.get(layer);
+    }
+
+    /**
+     * Return the geometry version, which changes whenever a layer envelope or the
+     * sector parameters change.
+     *
+     * @return geometry version
+     */
+    public int getGeometryVersion() {
+        return _version;
     }
 
     public void Initialize() {
+
+        //  Empty the sectors found in the last event, keeping the lookup tables
         _sectorlist.clear();
-        _sectormap.clear();
-        _slistmap.clear();
+        for (List<Sector> slist : _layersectors) {
+            slist.clear();
+        }
+        for (int i = 0; i < _nused; i++) {
+            _sectors[_usedslots[i]] = null;
+        }
+        _nused = 0;
+    }
+
+    /**
+     * Forget the layer indices, which is needed when the detector changes.
+     */
+    public void InitializeLayers() {
+        Initialize();
+        _layerindex.clear();
+        _layersectors.clear();
+        _layerenvelopes.clear();
+        _version++;
     }
 
     public void setSectorParams(int nphi, double dz) {
         _nphi = nphi;
         _dphi = 2. * Math.PI / _nphi;
         _dz = dz;
+        _planar = false;
+        _version++;
+    }
+
+    /**
+     * Use planar sectoring, where the hits in each layer are binned in the
+     * sensor-plane coordinates u (tracking y) and v (tracking z).
+     *
+     * @param du sector width in u
+     * @param dv sector width in v
+     */
+    public void setPlanarSectorParams(double du, double dv) {
+        _planar = true;
+        _du = du;
+        _dv = dv;
+        _version++;
+    }
+
+    /**
+     * Return true if planar sectoring is in use.
+     *
+     * @return planar sectoring flag
+     */
+    public boolean isPlanar() {
+        return _planar;
     }
 
     public void setSectorParams(List<SeedStrategy> slist, double bfield, double rtrk) {
@@ -139,11 +268,14 @@ public class SectorManager {
         return;
     }
 
-    private Sector CreateSector(HelicalTrackHit hit) {
-        String identifier = FindSectorIdentifier(hit);
+    private Sector CreateSector(HelicalTrackHit hit, int phibin, int zbin) {
         String lyrid = hit.getLayerIdentifier();
-        int phibin = PhiBin(hit);
-        int zbin = ZBin(hit);
+        if (_planar) {
+            String identifier = lyrid + "u" + phibin + "v" + zbin;
+            return new PlanarSector(identifier, lyrid, phibin, zbin,
+                    phibin * _du, (phibin + 1) * _du, zbin * _dv, (zbin + 1) * _dv);
+        }
+        String identifier = SectorID(lyrid, phibin, zbin);
         double phimin = PhiMin(phibin);
         double phimax = PhiMax(phibin);
         double zmin = ZMin(zbin);
@@ -151,11 +283,75 @@ public class SectorManager {
         return new Sector(identifier, lyrid, phibin, zbin, phimin, phimax, zmin, zmax);
     }
 
-    private String FindSectorIdentifier(HelicalTrackHit hit) {
-        String layerID = hit.getLayerIdentifier();
-        int phibin = PhiBin(hit);
-        int zbin = ZBin(hit);
-        return SectorID(layerID, phibin, zbin);
+    private int LayerIndex(String layerID) {
+
+        //  Assign the next index the first time we see a layer
+        Integer index = _layerindex.get(layerID);
+        if (index == null) {
+            index = _layersectors.size();
+            _layerindex.put(layerID, index);
+            _layersectors.add(new ArrayList<Sector>());
+            _layerenvelopes.add(new double[] {1.0e10, -1.0e10, 1.0e10, -1.0e10});
+        }
+        return index;
+    }
+
+    /**
+     * Pack the layer index and the phi and z bins into a sector key.  The bins
+     * are kept to 24 bits each, which is far more than any sectoring will use.
+     */
+    private static long SectorKey(int layer, int phibin, int zbin) {
+        return ((long) layer << 48) | ((long) (phibin & 0xffffff) << 24) | (zbin & 0xffffff);
+    }
+
+    private static int HashSlot(long key, int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private Sector FindSector(long key) {
+        int mask = _keys.length - 1;
+        int slot = HashSlot(key, mask);
+        while (_sectors[slot] != null) {
+            if (_keys[slot] == key) return _sectors[slot];
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private void StoreSector(long key, Sector sector) {
+
+        //  Keep the hash table at most half full
+        if (2 * (_nused + 1) > _keys.length) GrowTable();
+
+        int mask = _keys.length - 1;
+        int slot = HashSlot(key, mask);
+        while (_sectors[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        _keys[slot] = key;
+        _sectors[slot] = sector;
+        if (_nused == _usedslots.length) {
+            int[] usedslots = new int[2 * _usedslots.length];
+            System.arraycopy(_usedslots, 0, usedslots, 0, _nused);
+            _usedslots = usedslots;
+        }
+        _usedslots[_nused++] = slot;
+    }
+
+    private void GrowTable() {
+        long[] oldkeys = _keys;
+        Sector[] oldsectors = _sectors;
+        int[] oldslots = _usedslots;
+        int nold = _nused;
+        _keys = new long[2 * oldkeys.length];
+        _sectors = new Sector[2 * oldkeys.length];
+        _usedslots = new int[oldkeys.length];
+        _nused = 0;
+        for (int i = 0; i < nold; i++) {
+            int slot = oldslots[i];
+            StoreSector(oldkeys[slot], oldsectors[slot]);
+        }
     }
 
     private String SectorID(String layerID, int phibin, int zbin) {
@@ -163,13 +359,27 @@ public class SectorManager {
     }
 
     private int PhiBin(HelicalTrackHit hit) {
+        if (_planar) return (int) Math.floor(hit.getPosition()[1] / _du);
         return (int) Math.floor(hit.phi() / _dphi);
     }
 
     protected int ZBin(HelicalTrackHit hit) {
+        if (_planar) return (int) Math.floor(hit.getPosition()[2] / _dv);
         return (int) Math.floor(z(hit) / _dz);
     }
 
+    /**
+     * Return the z bin of a hit for the position it was corrected to, without
+     * reading the corrected position from the hit itself.
+     *
+     * @param hit corrected hit
+     * @return z bin
+     */
+    protected int ZBin(CorrectedHit hit) {
+        if (_planar) return (int) Math.floor(hit.getHit().getPosition()[2] / _dv);
+        return (int) Math.floor(hit.SectorZ() / _dz);
+    }
+
     private double PhiMin(int phibin) {
         return phibin * _dphi;
     }
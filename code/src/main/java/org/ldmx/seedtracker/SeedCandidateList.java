@@ -0,0 +1,162 @@
+package org.ldmx.seedtracker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.recon.tracking.seedtracker.SeedCandidate;
+
+/**
+ * List of track candidates that keeps an index from each hit to the candidates
+ * that use it.  The candidates that share hits with a new candidate can then be
+ * found without looking at every candidate in the list, which is what track
+ * candidate merging needs.  The index is kept up to date as candidates are
+ * added and removed through any of the list methods, but the hits of a
+ * candidate must not be changed while it is in the list.
+ */
+class SeedCandidateList extends ArrayList<SeedCandidate> {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Map<HelicalTrackHit, List<SeedCandidate>> _index =
+            new IdentityHashMap<HelicalTrackHit, List<SeedCandidate>>();
+
+    SeedCandidateList() {
+        super();
+    }
+
+    /**
+     * Return the candidates in this list that share at least one hit with a
+     * track candidate, each listed once.
+     *
+     * @param seed track candidate
+     * @return candidates sharing hits with the seed
+     */
+    List<SeedCandidate> getSharing(SeedCandidate seed) {
+        List<SeedCandidate> sharing = new ArrayList<SeedCandidate>();
+        Set<SeedCandidate> found = Collections.newSetFromMap(new IdentityHashMap<SeedCandidate, Boolean>());
+        for (HelicalTrackHit hit : seed.getHits()) {
+            List<SeedCandidate> users = _index.get(hit);
+            if (users == null) continue;
+            for (SeedCandidate user : users) {
+                if (found.add(user)) sharing.add(user);
+            }
+        }
+        return sharing;
+    }
+
+    @Override
+    public boolean add(SeedCandidate seed) {
+        super.add(seed);
+        Index(seed);
+        return true;
+    }
+
+    @Override
+    public void add(int i, SeedCandidate seed) {
+        super.add(i, seed);
+        Index(seed);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends SeedCandidate> seeds) {
+        for (SeedCandidate seed : seeds) {
+            Index(seed);
+        }
+        return super.addAll(seeds);
+    }
+
+    @Override
+    public boolean addAll(int i, Collection<? extends SeedCandidate> seeds) {
+        for (SeedCandidate seed : seeds) {
+            Index(seed);
+        }
+        return super.addAll(i, seeds);
+    }
+
+    @Override
+    public SeedCandidate set(int i, SeedCandidate seed) {
+        SeedCandidate old = super.set(i, seed);
+        Unindex(old);
+        Index(seed);
+        return old;
+    }
+
+    @Override
+    public SeedCandidate remove(int i) {
+        SeedCandidate old = super.remove(i);
+        Unindex(old);
+        return old;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int i = indexOf(o);
+        if (i < 0) return false;
+        remove(i);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean changed = super.removeAll(c);
+        if (changed) Reindex();
+        return changed;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        boolean changed = super.retainAll(c);
+        if (changed) Reindex();
+        return changed;
+    }
+
+    @Override
+    protected void removeRange(int from, int to) {
+        super.removeRange(from, to);
+        Reindex();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        _index.clear();
+    }
+
+    private void Index(SeedCandidate seed) {
+        for (HelicalTrackHit hit : seed.getHits()) {
+            List<SeedCandidate> users = _index.get(hit);
+            if (users == null) {
+                users = new ArrayList<SeedCandidate>(2);
+                _index.put(hit, users);
+            }
+            users.add(seed);
+        }
+    }
+
+    private void Unindex(SeedCandidate seed) {
+        for (HelicalTrackHit hit : seed.getHits()) {
+            List<SeedCandidate> users = _index.get(hit);
+            if (users == null) continue;
+            for (int i = 0; i < users.size(); i++) {
+                if (users.get(i) == seed) {
+                    users.remove(i);
+                    break;
+                }
+            }
+            if (users.isEmpty()) _index.remove(hit);
+        }
+    }
+
+    private void Reindex() {
+        _index.clear();
+        for (SeedCandidate seed : this) {
+            Index(seed);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.ldmx.seedtracker;
+
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.recon.tracking.seedtracker.TrackCheck;
+
+/**
+ * A TrackCheck that can also check hit pairs and triplets directly.  The seed
+ * finder uses these methods in place of checkSeed for the hit combinations it
+ * tests before the seed helix fit, so it doesn't need to make a SeedCandidate
+ * for each combination.  They must give the same result as checkSeed would for
+ * a seed candidate holding the same hits and no helix.
+ */
+public interface SeedHitCheck extends TrackCheck {
+
+    /**
+     * Check a pair of seed hits.
+     *
+     * @param hit1 first hit
+     * @param hit2 second hit
+     * @return true if the hits pass the check
+     */
+    boolean checkHitPair(HelicalTrackHit hit1, HelicalTrackHit hit2);
+
+    /**
+     * Check a triplet of seed hits.
+     *
+     * @param hit1 first hit
+     * @param hit2 second hit
+     * @param hit3 third hit
+     * @return true if the hits pass the check
+     */
+    boolean checkHitTriplet(HelicalTrackHit hit1, HelicalTrackHit hit2, HelicalTrackHit hit3);
+}
@@ -0,0 +1,167 @@
+package org.ldmx.seedtracker;
+
+import java.util.List;
+
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+
+/**
+ * Region of interest for track seeds: a set of vertices, such as the points
+ * where the beam electron tracks found upstream cross the target, with a
+ * window around each of them.  A seed hit pair must lie on a straight line in
+ * s-z that passes within the z window of a vertex, and a seed hit triplet must
+ * lie on a circle in x-y that passes within the y window of a vertex.  The hit
+ * positions for an unknown track direction are used, so the checks don't
+ * depend on the state of the stereo hits.
+ */
+final class SeedRegion {
+
+    //  Number of sigma of the extrapolated z error added to the z window
+    private static final double NSIGMA = 3.;
+
+    private final double[][] _vertices;
+    private final double _dy;
+    private final double _dz;
+
+    /**
+     * Create a seed region.
+     *
+     * @param vertices vertex positions (x, y, z)
+     * @param dy half width of the window around each vertex in y (the bend coordinate)
+     * @param dz half width of the window around each vertex in z
+     */
+    SeedRegion(List<double[]> vertices, double dy, double dz) {
+        _vertices = vertices.toArray(new double[vertices.size()][]);
+        _dy = dy;
+        _dz = dz;
+    }
+
+    /**
+     * Return the point where a helix crosses a plane of constant x, taking the
+     * crossing closest to the point of closest approach.
+     *
+     * @param helix helix
+     * @param x x position of the plane
+     * @return position (x, y, z), or null if the helix doesn't reach the plane
+     */
+    static double[] AtPlane(HelicalTrackFit helix, double x) {
+        double R = Math.abs(helix.R());
+        double dx = x - helix.xc();
+        if (dx * dx > R * R) return null;
+        double dy = Math.sqrt(R * R - dx * dx);
+
+        //  Take the crossing closest to the point of closest approach
+        double y0 = helix.dca() * Math.cos(helix.phi0());
+        double y = helix.yc() + dy;
+        if (Math.abs(helix.yc() - dy - y0) < Math.abs(y - y0)) y = helix.yc() - dy;
+
+        double s = HelixSupport.PathLength(helix, x, y);
+        return new double[] {x, y, helix.z0() + s * helix.slope()};
+    }
+
+    /**
+     * Return the number of vertices in the region.
+     *
+     * @return number of vertices
+     */
+    int getNVertices() {
+        return _vertices.length;
+    }
+
+    /**
+     * Check that a pair of hits lies on a line in s-z that passes within the z
+     * window of a vertex.  The arc lengths are taken along the circle through
+     * the vertex and the two hits.
+     *
+     * @param hit1 first hit
+     * @param hit2 second hit
+     * @return true if the hits point back to a vertex
+     */
+    boolean CheckHitPair(HelicalTrackHit hit1, HelicalTrackHit hit2) {
+        double[] p1 = hit1.getPosition();
+        double[] p2 = hit2.getPosition();
+
+        //  z errors from the packed covariance matrices for an unknown track direction
+        double dz1 = Math.sqrt(hit1.getCovMatrix()[5]);
+        double dz2 = Math.sqrt(hit2.getCovMatrix()[5]);
+
+        for (double[] v : _vertices) {
+
+            //  Arc lengths from the vertex to the hits
+            double s1 = Arc(v, p1, p2, p1);
+            double s2 = Arc(v, p1, p2, p2);
+            double ds = s2 - s1;
+
+            //  Hits at the same arc length don't constrain the line
+            if (Math.abs(ds) < 1.e-6) return true;
+
+            //  Extrapolate the line through the hits back to the vertex
+            double zv = p1[2] - (p2[2] - p1[2]) * s1 / ds;
+            double sigma = Math.sqrt(dz1 * dz1 * s2 * s2 + dz2 * dz2 * s1 * s1) / Math.abs(ds);
+            if (Math.abs(zv - v[2]) <= _dz + NSIGMA * sigma) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check that a triplet of hits lies on a circle in x-y that passes within
+     * the y window of a vertex.
+     *
+     * @param hit1 first hit
+     * @param hit2 second hit
+     * @param hit3 third hit
+     * @return true if the hits point back to a vertex
+     */
+    boolean CheckHitTriplet(HelicalTrackHit hit1, HelicalTrackHit hit2, HelicalTrackHit hit3) {
+        double[] p1 = hit1.getPosition();
+        double[] p2 = hit2.getPosition();
+        double[] p3 = hit3.getPosition();
+
+        //  Circle through the three hits
+        double ax = p2[0] - p1[0];
+        double ay = p2[1] - p1[1];
+        double bx = p3[0] - p1[0];
+        double by = p3[1] - p1[1];
+        double d = 2. * (ax * by - ay * bx);
+
+        for (double[] v : _vertices) {
+            double miss;
+            if (Math.abs(d) < 1.e-9 * (ax * ax + ay * ay + bx * bx + by * by)) {
+
+                //  The hits lie on a straight line
+                double len = Math.sqrt(bx * bx + by * by);
+                if (len == 0.) return true;
+                miss = Math.abs((v[0] - p1[0]) * by - (v[1] - p1[1]) * bx) / len;
+            } else {
+                double a2 = ax * ax + ay * ay;
+                double b2 = bx * bx + by * by;
+                double xc = p1[0] + (by * a2 - ay * b2) / d;
+                double yc = p1[1] + (ax * b2 - bx * a2) / d;
+                double R = Math.sqrt((p1[0] - xc) * (p1[0] - xc) + (p1[1] - yc) * (p1[1] - yc));
+                miss = Math.abs(Math.sqrt((v[0] - xc) * (v[0] - xc) + (v[1] - yc) * (v[1] - yc)) - R);
+            }
+            if (miss <= _dy) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the x-y arc length from a vertex to a point along the circle
+     * through the vertex and two hits.
+     */
+    private static double Arc(double[] v, double[] p1, double[] p2, double[] p) {
+        double chord = Distance(v, p);
+
+        //  Radius of the circle through the three points
+        double area2 = Math.abs((p1[0] - v[0]) * (p2[1] - v[1]) - (p1[1] - v[1]) * (p2[0] - v[0]));
+        if (area2 == 0.) return chord;
+        double R = Distance(v, p1) * Distance(v, p2) * Distance(p1, p2) / (2. * area2);
+        return 2. * R * Math.asin(Math.min(1., chord / (2. * R)));
+    }
+
+    private static double Distance(double[] p1, double[] p2) {
+        double dx = p2[0] - p1[0];
+        double dy = p2[1] - p1[1];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
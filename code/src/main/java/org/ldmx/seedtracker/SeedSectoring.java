@@ -23,13 +23,21 @@ public class SeedSectoring {
     }
     
     public SeedSectoring(HitManager hmanager, SeedStrategy strategy, double bfield, boolean doSectorBinCheck, boolean skipChecks) {
+        this(hmanager, strategy, new SectorAdjacency(strategy, bfield, hmanager.getSectorManager(), skipChecks, doSectorBinCheck));
+    }
+
+    /**
+     * Find the valid seed sector combinations using a table of compatible sector
+     * pairs that is kept from one event to the next.
+     *
+     * @param hmanager hit manager for this event
+     * @param strategy seed strategy
+     * @param adjacency sector pair table for this strategy
+     */
+    public SeedSectoring(HitManager hmanager, SeedStrategy strategy, SectorAdjacency adjacency) {
 
         _seedsectors = new ArrayList<List<Sector>>();
 
-        FastCheck checker = new FastCheck(strategy, bfield, null);
-        checker.setSkipChecks(skipChecks);
-        if(doSectorBinCheck) checker.setDoSectorBinCheck(hmanager.getSectorManager());
-        
         //  Get the SeedLayers for this strategy
         List<SeedLayer> layers = strategy.getLayers(SeedLayer.SeedType.Seed);
         if (layers.size() != 3)
@@ -38,13 +46,33 @@ public class SeedSectoring {
         List<Sector> slist0 = hmanager.getSectors(layers.get(0));
         List<Sector> slist1 = hmanager.getSectors(layers.get(1));
         List<Sector> slist2 = hmanager.getSectors(layers.get(2));
+        if (slist0.isEmpty() || slist1.isEmpty() || slist2.isEmpty()) return;
 
+        //  Get the layer indices used to look up the sector pairs
+        SectorManager smanager = hmanager.getSectorManager();
+        int l0 = smanager.getLayerIndex(layers.get(0));
+        int l1 = smanager.getLayerIndex(layers.get(1));
+        int l2 = smanager.getLayerIndex(layers.get(2));
+
+        List<Sector> adj1 = new ArrayList<Sector>();
+        List<Sector> adj2 = new ArrayList<Sector>();
         for (Sector s0 : slist0) {
+
+            //  Find the occupied sectors in the other seed layers that are compatible with this one
+            adj1.clear();
             for (Sector s1 : slist1) {
-                if (!checker.CheckSectorPair(s0, s1)) continue;
-                for (Sector s2 : slist2) {
-                    if (!checker.CheckSectorPair(s0, s2)) continue;
-                    if (!checker.CheckSectorPair(s1, s2)) continue;
+                if (adjacency.CheckSectorPair(l0, s0, l1, s1)) adj1.add(s1);
+            }
+            if (adj1.isEmpty()) continue;
+            adj2.clear();
+            for (Sector s2 : slist2) {
+                if (adjacency.CheckSectorPair(l0, s0, l2, s2)) adj2.add(s2);
+            }
+
+            for (Sector s1 : adj1) {
+                for (Sector s2 : adj2) {
+                    if (!adjacency.CheckSectorPair(l1, s1, l2, s2)) continue;
+                    if (!adjacency.CheckSectorTriple(s0, s1, s2)) continue;
                     List<Sector> slist = new ArrayList<Sector>();
                     slist.add(s0);
                     slist.add(s1);
@@ -59,4 +87,4 @@ public class SeedSectoring {
         return _seedsectors;
     }
     
-}
\ No newline at end of file
+}
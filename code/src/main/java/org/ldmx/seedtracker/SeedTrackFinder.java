@@ -7,10 +7,16 @@
 package org.ldmx.seedtracker;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import org.lcsim.event.MCParticle;
 import org.lcsim.fit.helicaltrack.HelicalTrackHit;
 import org.lcsim.recon.tracking.seedtracker.HelixFitter;
@@ -38,6 +44,15 @@ public class SeedTrackFinder {
     private boolean _debug = false;
     private boolean _applySectorBinning = false;
     private boolean skipChecks = false; 
+    private ForkJoinPool _pool = null;
+    private HelixFitterFactory _fitterfactory = null;
+    private EventBudget _budget = null;
+    private BitSet _usedhits = null;
+    private SeedRegion _region = null;
+    private IndexedMergeSeedLists _merger = new IndexedMergeSeedLists();
+    private Map<Thread, SeedWorker> _seedworkers = new ConcurrentHashMap<Thread, SeedWorker>();
+    private List<HelicalTrackHit> _seedworkerhits = null;
+    private Map<SeedStrategy, SectorAdjacency> _adjacency = new IdentityHashMap<SeedStrategy, SectorAdjacency>();
 
     /**
      * Creates a new instance of SeedTrackFinder
@@ -52,7 +67,7 @@ public class SeedTrackFinder {
         _confirmer = new ConfirmerExtender(_hitmanager, _helixfitter);
 
         //  Create a list of track seeds that have been found
-        _trackseeds = new ArrayList<SeedCandidate>();
+        _trackseeds = new SeedCandidateList();
 
         //  Create a set of MC Particles that have been seeded, confirmed
         _seededmcp = new HashSet<MCParticle>();
@@ -69,131 +84,510 @@ public class SeedTrackFinder {
 
     public void setSkipChecks(boolean skipChecks) { 
         this.skipChecks = skipChecks; 
+        _adjacency.clear();
     }
-    
+
+    /**
+     * Enable seeding with work-stealing tasks.  The seed sector combinations, or
+     * ranges of hits in the first seed layer for a large sector, are split into
+     * tasks that run in the given pool.  Each pool thread has its own seed finder,
+     * working on a private copy of the stereo hits, which it re-uses for all the
+     * tasks it runs in an event.  The track candidates from the tasks are merged
+     * with those found so far in a fixed order.
+     *
+     * @param pool thread pool to run the seeding tasks in (null for serial seeding)
+     * @param fitterfactory source of helix fitters for the seeding tasks
+     */
+    public void setParallelSeeding(ForkJoinPool pool, HelixFitterFactory fitterfactory) {
+        _pool = pool;
+        _fitterfactory = fitterfactory;
+    }
+
     public boolean FindTracks(SeedStrategy strategy, double bfield) {
 
-        //  Instantiate the fast hit checker
+        //  Find the valid sector combinations
+        SeedSectoring ss = new SeedSectoring(_hitmanager, strategy, getSectorAdjacency(strategy, bfield));
+        List<List<Sector>> sslist = ss.SeedSectors();
+
+        if (_pool != null && _fitterfactory != null && _diag == null) {
+
+            //  Find seeds with work-stealing tasks
+            FindTracksParallel(sslist, strategy, bfield);
+
+        } else {
+
+            //  Instantiate the fast hit checker
+            FastCheck checker = newChecker(strategy, bfield);
+
+            //  Loop over the valid sector combinations
+            for (List<Sector> slist : sslist) {
+                if (_budget != null && _budget.isExhausted()) break;
+                List<HelicalTrackHit> hits1 = slist.get(0).Hits();
+                FindSeeds(hits1, 0, hits1.size(), slist.get(1).Hits(), slist.get(2).Hits(), checker, strategy, bfield);
+            }
+        }
+
+        return FinderDone();
+    }
+
+    /**
+     * Finish track finding for a strategy.
+     *
+     * @return true if any track candidates have been found
+     */
+    boolean FinderDone() {
+
+        //  Done with track finding for this strategy
+        if (_diag != null)
+            _diag.fireFinderDone(_trackseeds, _seededmcp);
+
+        return _trackseeds.size() > 0;
+    }
+
+    /**
+     * Return the table of compatible sector pairs for a strategy, which is kept
+     * from one event to the next.
+     *
+     * @param strategy strategy in use
+     * @param bfield magnetic field
+     * @return sector pair table
+     */
+    private SectorAdjacency getSectorAdjacency(SeedStrategy strategy, double bfield) {
+        SectorAdjacency adjacency = _adjacency.get(strategy);
+        if (adjacency == null || adjacency.getBField() != bfield) {
+            adjacency = new SectorAdjacency(strategy, bfield, _hitmanager.getSectorManager(), skipChecks, _applySectorBinning);
+            _adjacency.put(strategy, adjacency);
+        }
+        return adjacency;
+    }
+
+    /**
+     * Create the fast hit checker for a strategy.
+     *
+     * @param strategy strategy in use
+     * @param bfield magnetic field
+     * @return hit checker
+     */
+    FastCheck newChecker(SeedStrategy strategy, double bfield) {
         FastCheck checker = new FastCheck(strategy, bfield, _diag);
         //System.out.println("Skip checks: " + skipChecks);
         checker.setSkipChecks(skipChecks);
         if(_applySectorBinning) checker.setDoSectorBinCheck(_hitmanager.getSectorManager());
-        
-        
-        //  Find the valid sector combinations
-        SeedSectoring ss = new SeedSectoring(_hitmanager, strategy, bfield,_applySectorBinning, skipChecks);
-        List<List<Sector>> sslist = ss.SeedSectors();
+        checker.setCorrectionCache(_hitmanager.getCorrectionCache());
+        return checker;
+    }
 
-        //  Loop over the valid sector combinations
-        for (List<Sector> slist : sslist) {
+    /**
+     * Form seeds from a range of hits in the first seed layer and all the hits in the
+     * second and third seed layers, then confirm and extend them.  Track candidates
+     * are added to the list of track seeds for this finder.
+     *
+     * @param hits1 hits in the first seed layer
+     * @param first index of the first hit to use in the first seed layer
+     * @param last index after the last hit to use in the first seed layer
+     * @param hits2 hits in the second seed layer
+     * @param hits3 hits in the third seed layer
+     * @param checker fast hit checker
+     * @param strategy strategy in use
+     * @param bfield magnetic field
+     */
+    private void FindSeeds(List<HelicalTrackHit> hits1, int first, int last, List<HelicalTrackHit> hits2,
+            List<HelicalTrackHit> hits3, FastCheck checker, SeedStrategy strategy, double bfield) {
+
+        //  Unless the checks are skipped or we are running diagnostics, check the hits in batches
+        if (!skipChecks && _diag == null && !hits1.isEmpty() && !hits2.isEmpty() && !hits3.isEmpty()) {
+            PackedHits packed = _hitmanager.getPackedHits();
+            int base1 = packed.getIndex(hits1.get(0));
+            int base2 = packed.getIndex(hits2.get(0));
+            int base3 = packed.getIndex(hits3.get(0));
+            if (base1 >= 0 && base2 >= 0 && base3 >= 0) {
+                FindSeedsBatched(hits1, first, last, hits2, hits3, packed, base1, base2, base3, checker, strategy, bfield);
+                return;
+            }
+        }
 
-            //  Loop over the first seed layer
-            for (HelicalTrackHit hit1 : slist.get(0).Hits()) {
+        //  Loop over the first seed layer
+        for (int i1 = first; i1 < last; i1++) {
+            HelicalTrackHit hit1 = hits1.get(i1);
 
-                //  Loop over the second seed layer and check that we have a hit pair consistent with our strategy
-                for (HelicalTrackHit hit2 : slist.get(1).Hits()) {
-                    
-                    //  Call _trackCheck if set
-                    if (_trackCheck != null) {
-                        SeedCandidate tempseed = new SeedCandidate(strategy, bfield);
-                        tempseed.addHit(hit1);
-                        tempseed.addHit(hit2);
-                        if (!_trackCheck.checkSeed(tempseed)) continue;
-                    }
+            //  Loop over the second seed layer and check that we have a hit pair consistent with our strategy
+            for (HelicalTrackHit hit2 : hits2) {
+                
+                //  Apply the seed region and call _trackCheck if set
+                if (!CheckHitPair(hit1, hit2, strategy, bfield)) continue;
 
-                    //  Check if the pair of hits is consistent with the current strategy
-                    if (!checker.TwoPointCircleCheck(hit1, hit2, null)) {
-                        if (_diag != null) _diag.fireCheckHitPairFailed(hit1, hit2);
-                        continue;
-                    }
+                //  Check if the pair of hits is consistent with the current strategy
+                if (!checker.TwoPointCircleCheck(hit1, hit2, null)) {
+                    if (_diag != null) _diag.fireCheckHitPairFailed(hit1, hit2);
+                    continue;
+                }
 
-                    //  Loop over the third seed layer and check that we have a hit triplet consistent with our strategy
-                    for (HelicalTrackHit hit3 : slist.get(2).Hits()) {
-                        
-                        //  Call _trackCheck if set
-                        if (_trackCheck != null) {
-                            SeedCandidate tempseed2 = new SeedCandidate(strategy, bfield);
-                            tempseed2.addHit(hit1);
-                            tempseed2.addHit(hit3);
-                            if (!_trackCheck.checkSeed(tempseed2)) continue;
-
-                            SeedCandidate tempseed3 = new SeedCandidate(strategy, bfield);
-                            tempseed3.addHit(hit2);
-                            tempseed3.addHit(hit3);
-                            if (!_trackCheck.checkSeed(tempseed3)) continue;
-                        }
+                //  See if both hits are already used by track candidates from earlier strategies
+                boolean used12 = _usedhits != null && isUsed(hit1) && isUsed(hit2);
 
-                        //  Form a seed candidate from the seed hits
-                        SeedCandidate seed = new SeedCandidate(strategy, bfield);
-                        seed.addHit(hit1);
-                        seed.addHit(hit2);
-                        seed.addHit(hit3);
+                //  Loop over the third seed layer and check that we have a hit triplet consistent with our strategy
+                for (HelicalTrackHit hit3 : hits3) {
 
-                        //  Check if the triplet of hits is consistent with the current strategy
-                        if (!checker.ThreePointHelixCheck(hit1, hit2, hit3)) {
+                    //  Skip seeds with all their hits already used
+                    if (used12 && isUsed(hit3)) continue;
+                    
+                    //  Apply the seed region and call _trackCheck if set
+                    if (!CheckHitPair(hit1, hit3, strategy, bfield)) continue;
+                    if (!CheckHitPair(hit2, hit3, strategy, bfield)) continue;
+                    if (!CheckHitTriplet(hit1, hit2, hit3)) continue;
+
+                    //  Form a seed candidate from the seed hits
+                    SeedCandidate seed = new SeedCandidate(strategy, bfield);
+                    seed.addHit(hit1);
+                    seed.addHit(hit2);
+                    seed.addHit(hit3);
 
-                            if (_diag != null) {
-                                if (seed.isTrueSeed())
-                                _diag.fireCheckHitTripletFailed(hit1, hit2, hit3);
-                            }
-                            continue;
-                        }
 
-                        //  Form a seed candidate from the seed hits
+                    //  Check if the triplet of hits is consistent with the current strategy
+                    if (!checker.ThreePointHelixCheck(hit1, hit2, hit3)) {
 
-                        //  If it's a true seed, add the MC Particle to those that were seeded
-                        if (_diag != null)
+                        if (_diag != null) {
                             if (seed.isTrueSeed())
-                                _seededmcp.addAll(seed.getMCParticles());
+                            _diag.fireCheckHitTripletFailed(hit1, hit2, hit3);
+                        }
+                        continue;
+                    }
 
-                        if(_debug) System.out.println(this.getClass().getSimpleName()+": fit the candidate");
-                        
-                        
-                        //  See if we can fit a helix to this seed candidate
-                        boolean success = _helixfitter.FitCandidate(seed, strategy);
+                    //  Fit, confirm and extend the seed
+                    ProcessSeed(seed, strategy, bfield);
+                }
+            }
+        }
+    }
 
-                        if (!success) continue;
+    /**
+     * Form seeds as in FindSeeds, doing the hit pair and triplet checks in batches
+     * on the packed hits.  Each hit in the first seed layer is checked against all
+     * the hits in the second seed layer at once, and each hit pair against all the
+     * hits in the third seed layer, giving masks of the hits that pass.  The seeds
+     * are processed in the same order as in FindSeeds.
+     */
+    private void FindSeedsBatched(List<HelicalTrackHit> hits1, int first, int last, List<HelicalTrackHit> hits2,
+            List<HelicalTrackHit> hits3, PackedHits packed, int base1, int base2, int base3, FastCheck checker,
+            SeedStrategy strategy, double bfield) {
+
+        int n2 = hits2.size();
+        int n3 = hits3.size();
+        long[] mask2 = new long[HitMask.words(n2)];
+        long[] mask3 = new long[HitMask.words(n3)];
+
+        //  Find the hits in the third seed layer already used by track candidates from earlier strategies
+        long[] used3 = null;
+        if (_usedhits != null) {
+            used3 = new long[HitMask.words(n3)];
+            for (int i3 = 0; i3 < n3; i3++) {
+                if (isUsed(hits3.get(i3))) used3[i3 >>> 6] |= 1L << i3;
+            }
+        }
 
-                        if(_debug) System.out.println(this.getClass().getSimpleName()+": fit success");
+        //  Loop over the first seed layer
+        for (int i1 = first; i1 < last; i1++) {
+            HelicalTrackHit hit1 = hits1.get(i1);
+            boolean used1 = used3 != null && isUsed(hit1);
 
-                        //  Save the helix fit
-                        seed.setHelix(_helixfitter.getHelix());
+            //  Find the hits in the second seed layer that make a hit pair consistent with our strategy
+            HitMask.setAll(mask2, n2);
+            if (checker.TwoPointCircleCheck(packed, base1 + i1, base2, n2, mask2) == 0) continue;
 
-                        // Check the seed - hook for plugging in external constraint
-                        if (_trackCheck != null) {
-                            if (!_trackCheck.checkSeed(seed)) continue;
-                        }
+            for (int i2 = HitMask.next(mask2, 0, n2); i2 >= 0; i2 = HitMask.next(mask2, i2 + 1, n2)) {
+                HelicalTrackHit hit2 = hits2.get(i2);
 
-                        //  See if we can confirm this seed candidate
-                        success = _confirmer.Confirm(seed, strategy, bfield);
-                        if (!success) continue;
+                //  Apply the seed region and call _trackCheck if set
+                if (!CheckHitPair(hit1, hit2, strategy, bfield)) continue;
 
-                        if(_debug) System.out.println(this.getClass().getSimpleName()+": confirmed seed");
-                        
-                        //  Confirmed a seed - if it's a true seed, add the MC Particle to those that were confirmed
-                        if (_diag != null)
-                            if (seed.isTrueSeed())
-                                _confirmedmcp.addAll(seed.getMCParticles());
+                //  Find the hits in the third seed layer that make a hit triplet consistent with our strategy,
+                //  leaving out those that would make a seed with all its hits already used
+                HitMask.setAll(mask3, n3);
+                if (used1 && isUsed(hit2)) {
+                    for (int w = 0; w < mask3.length; w++) {
+                        mask3[w] &= ~used3[w];
+                    }
+                }
+                if (checker.ThreePointHelixCheck(packed, base1 + i1, base2 + i2, base3, n3, mask3) == 0) continue;
 
-                        if(_debug) System.out.println(this.getClass().getSimpleName()+": try to extend");
-                        
-                        //  Try to extend each confirmed seed candidates to make a track candidate
-                        List<SeedCandidate> confirmedlist = _confirmer.getResult();
-                        for (SeedCandidate confirmedseed : confirmedlist) {
+                for (int i3 = HitMask.next(mask3, 0, n3); i3 >= 0; i3 = HitMask.next(mask3, i3 + 1, n3)) {
+                    HelicalTrackHit hit3 = hits3.get(i3);
 
-                            //  See if we can extend this seed candidate
-                            _confirmer.Extend(confirmedseed, strategy, bfield, _trackseeds);
-                        }
-                    }
+                    //  Apply the seed region and call _trackCheck if set
+                    if (!CheckHitPair(hit1, hit3, strategy, bfield)) continue;
+                    if (!CheckHitPair(hit2, hit3, strategy, bfield)) continue;
+                    if (!CheckHitTriplet(hit1, hit2, hit3)) continue;
+
+                    //  Form a seed candidate from the seed hits
+                    SeedCandidate seed = new SeedCandidate(strategy, bfield);
+                    seed.addHit(hit1);
+                    seed.addHit(hit2);
+                    seed.addHit(hit3);
+
+                    //  Fit, confirm and extend the seed
+                    ProcessSeed(seed, strategy, bfield);
                 }
             }
         }
+    }
 
-        //  Done with track finding for this strategy
+    /**
+     * Apply the seed region and the track check to a pair of seed hits.  If the
+     * track check can check hit pairs directly it is asked to do so, otherwise it
+     * checks a temporary seed candidate made from the two hits.
+     *
+     * @param hit1 first hit
+     * @param hit2 second hit
+     * @param strategy strategy in use
+     * @param bfield magnetic field
+     * @return true if the hits pass the seed region and track check (if any)
+     */
+    boolean CheckHitPair(HelicalTrackHit hit1, HelicalTrackHit hit2, SeedStrategy strategy, double bfield) {
+        if (_region != null && !_region.CheckHitPair(hit1, hit2)) return false;
+        if (_trackCheck == null) return true;
+        if (_trackCheck instanceof SeedHitCheck) return ((SeedHitCheck) _trackCheck).checkHitPair(hit1, hit2);
+        SeedCandidate tempseed = new SeedCandidate(strategy, bfield);
+        tempseed.addHit(hit1);
+        tempseed.addHit(hit2);
+        return _trackCheck.checkSeed(tempseed);
+    }
+
+    /**
+     * Apply the seed region and the track check to a triplet of seed hits before
+     * the seed is fit.  The track check is only applied here if it can check hit
+     * triplets directly - other track checks see the seed after the helix fit.
+     *
+     * @param hit1 first hit
+     * @param hit2 second hit
+     * @param hit3 third hit
+     * @return true if the hits pass the checks or they can't be done before the fit
+     */
+    boolean CheckHitTriplet(HelicalTrackHit hit1, HelicalTrackHit hit2, HelicalTrackHit hit3) {
+        if (_region != null && !_region.CheckHitTriplet(hit1, hit2, hit3)) return false;
+        if (_trackCheck instanceof SeedHitCheck) return ((SeedHitCheck) _trackCheck).checkHitTriplet(hit1, hit2, hit3);
+        return true;
+    }
+
+    /**
+     * Apply the track check and the fast triplet check to three seed hits taken
+     * from the packed hits, then form a seed from them and fit, confirm and extend
+     * it.  This is used by the seed finders that select the seed hits themselves.
+     *
+     * @param packed packed hits for this event
+     * @param i1 index of the first seed hit
+     * @param i2 index of the second seed hit
+     * @param i3 index of the third seed hit
+     * @param checker fast hit checker
+     * @param strategy strategy in use
+     * @param bfield magnetic field
+     * @return true if the seed hits passed the checks
+     */
+    boolean ProcessSeedHits(PackedHits packed, int i1, int i2, int i3, FastCheck checker,
+            SeedStrategy strategy, double bfield) {
+
+        HelicalTrackHit hit1 = packed.getHit(i1);
+        HelicalTrackHit hit2 = packed.getHit(i2);
+        HelicalTrackHit hit3 = packed.getHit(i3);
+
+        //  Skip seeds with all their hits already used
+        if (_usedhits != null && isUsed(hit1) && isUsed(hit2) && isUsed(hit3)) return false;
+
+        //  Apply the seed region and call _trackCheck if set
+        if (!CheckHitPair(hit1, hit2, strategy, bfield)) return false;
+        if (!CheckHitPair(hit1, hit3, strategy, bfield)) return false;
+        if (!CheckHitPair(hit2, hit3, strategy, bfield)) return false;
+        if (!CheckHitTriplet(hit1, hit2, hit3)) return false;
+
+        //  Check if the triplet of hits is consistent with the current strategy
+        if (!checker.ThreePointHelixCheck(packed, i1, i2, i3)) return false;
+
+        //  Form a seed candidate from the seed hits
+        SeedCandidate seed = new SeedCandidate(strategy, bfield);
+        seed.addHit(hit1);
+        seed.addHit(hit2);
+        seed.addHit(hit3);
+
+        //  Fit, confirm and extend the seed
+        ProcessSeed(seed, strategy, bfield);
+        return true;
+    }
+
+    /**
+     * Fit a seed candidate that has passed the hit checks, then confirm and extend
+     * it.  Track candidates are added to the list of track seeds for this finder.
+     *
+     * @param seed seed candidate
+     * @param strategy strategy in use
+     * @param bfield magnetic field
+     */
+    void ProcessSeed(SeedCandidate seed, SeedStrategy strategy, double bfield) {
+
+        //  Don't start on new seeds once the event budget is used up
+        if (_budget != null) {
+            if (_budget.isExhausted()) return;
+            _budget.AddFit();
+        }
+
+        //  If it's a true seed, add the MC Particle to those that were seeded
         if (_diag != null)
-            _diag.fireFinderDone(_trackseeds, _seededmcp);
+            if (seed.isTrueSeed())
+                _seededmcp.addAll(seed.getMCParticles());
 
-        return _trackseeds.size() > 0;
+        if(_debug) System.out.println(this.getClass().getSimpleName()+": fit the candidate");
+        
+        
+        //  See if we can fit a helix to this seed candidate
+        boolean success = _helixfitter.FitCandidate(seed, strategy);
+
+        if (!success) return;
+
+        if(_debug) System.out.println(this.getClass().getSimpleName()+": fit success");
+
+        //  Save the helix fit
+        seed.setHelix(_helixfitter.getHelix());
+
+        // Check the seed - hook for plugging in external constraint
+        if (_trackCheck != null) {
+            if (!_trackCheck.checkSeed(seed)) return;
+        }
+
+        //  See if we can confirm this seed candidate
+        success = _confirmer.Confirm(seed, strategy, bfield);
+        if (!success) return;
+
+        if(_debug) System.out.println(this.getClass().getSimpleName()+": confirmed seed");
+        
+        //  Confirmed a seed - if it's a true seed, add the MC Particle to those that were confirmed
+        if (_diag != null)
+            if (seed.isTrueSeed())
+                _confirmedmcp.addAll(seed.getMCParticles());
+
+        if(_debug) System.out.println(this.getClass().getSimpleName()+": try to extend");
+        
+        //  Try to extend each confirmed seed candidates to make a track candidate
+        List<SeedCandidate> confirmedlist = _confirmer.getResult();
+        for (SeedCandidate confirmedseed : confirmedlist) {
+
+            //  See if we can extend this seed candidate
+            _confirmer.Extend(confirmedseed, strategy, bfield, _trackseeds);
+        }
+    }
+
+    /**
+     * Find seeds for a strategy using work-stealing tasks and merge the resulting
+     * track candidates into the list of track seeds.
+     *
+     * @param sslist valid seed sector combinations
+     * @param strategy strategy in use
+     * @param bfield magnetic field
+     */
+    private void FindTracksParallel(List<List<Sector>> sslist, SeedStrategy strategy, double bfield) {
+
+        //  Estimate the work for each sector combination from the number of hit triplets
+        long totalwork = 0;
+        for (List<Sector> slist : sslist) {
+            totalwork += work(slist);
+        }
+        if (totalwork == 0) return;
+
+        //  Aim for a few tasks per thread so that work stealing can balance the load
+        long target = Math.max(1, totalwork / (4 * _pool.getParallelism()));
+
+        //  Split the sector combinations into work units, splitting the first seed layer
+        //  hits when a single sector combination holds more than the target amount of work
+        List<SeedWork> worklist = new ArrayList<SeedWork>();
+        for (List<Sector> slist : sslist) {
+            long work = work(slist);
+            if (work == 0) continue;
+            int nhits = slist.get(0).Hits().size();
+            int nsplit = (int) Math.min(nhits, (work + target - 1) / target);
+            int step = (nhits + nsplit - 1) / nsplit;
+            for (int first = 0; first < nhits; first += step) {
+                int last = Math.min(nhits, first + step);
+                worklist.add(new SeedWork(slist, first, last, work * (last - first) / nhits));
+            }
+        }
+
+        //  Drop the per-thread seed finders if the hits have changed since they were made
+        if (_seedworkerhits != _hitmanager.getHits()) {
+            _seedworkers.clear();
+            _seedworkerhits = _hitmanager.getHits();
+        }
+
+        //  Run the seeding tasks
+        SeedTask task = new SeedTask(worklist, 0, worklist.size(), target, strategy, bfield);
+        List<SeedCandidate> found;
+        if (ForkJoinTask.inForkJoinPool()) found = task.invoke();
+        else found = _pool.invoke(task);
+
+        //  Merge the track candidates into the list of track seeds in work unit order, pruning
+        //  the duplicates of candidates from other tasks and from earlier strategies
+        for (SeedCandidate seed : found) {
+            _merger.Merge(_trackseeds, seed, strategy);
+        }
+    }
+
+    /**
+     * Number of hit triplets for a seed sector combination.
+     */
+    private static long work(List<Sector> slist) {
+        return (long) slist.get(0).Hits().size() * slist.get(1).Hits().size() * slist.get(2).Hits().size();
+    }
+
+    /**
+     * Apply the settings of another seed finder to this one.
+     *
+     * @param finder seed finder to copy the settings from
+     */
+    private void copySettings(SeedTrackFinder finder) {
+        skipChecks = finder.skipChecks;
+        _applySectorBinning = finder._applySectorBinning;
+        _trackCheck = finder._trackCheck;
+        _debug = finder._debug;
+        _confirmer.setMaxFit(finder._confirmer.getMaxFit());
+        _confirmer.setApplySectorBinning(finder._confirmer.getApplySectorBinning());
+        _confirmer.setKalmanMode(finder._confirmer.getKalmanMode());
+        _confirmer.setIncrementalFit(finder._confirmer.getIncrementalFit());
+        setBudget(finder._budget);
+        _usedhits = finder._usedhits;
+        _region = finder._region;
+    }
+
+    /**
+     * Set the budget of helix fits and time for the event (null for no budget).
+     * Seeds are not processed once the budget is used up.
+     *
+     * @param budget event budget
+     */
+    void setBudget(EventBudget budget) {
+        _budget = budget;
+        _confirmer.setBudget(budget);
+    }
+
+    /**
+     * Set the hits used by track candidates from earlier strategies, indexed by
+     * their ordinal in the hit manager (null to use all hits).  Seeds with all
+     * their hits used are skipped.
+     *
+     * @param usedhits used hits
+     */
+    void setUsedHits(BitSet usedhits) {
+        _usedhits = usedhits;
+    }
+
+    /**
+     * Set the region that the seeds must point back to for this event (null to
+     * use all seed hit combinations).
+     *
+     * @param region seed region
+     */
+    void setSeedRegion(SeedRegion region) {
+        _region = region;
+    }
+
+    private boolean isUsed(HelicalTrackHit hit) {
+        int ordinal = _hitmanager.getOrdinal(hit);
+        return ordinal >= 0 && _usedhits.get(ordinal);
     }
 
     /**
@@ -211,6 +605,8 @@ public class SeedTrackFinder {
      */
     public void clearTrackSeedList() {
         _trackseeds.clear();
+        _seedworkers.clear();
+        _seedworkerhits = null;
         _seededmcp.clear();
         _confirmedmcp.clear();
     }
@@ -231,6 +627,7 @@ public class SeedTrackFinder {
      */
     public void setApplySectorBinning(boolean applySectorBinning) {
         this._applySectorBinning = applySectorBinning;
+        _adjacency.clear();
     }
     
     /**
@@ -260,5 +657,148 @@ public class SeedTrackFinder {
     public ConfirmerExtender getConfirmer() {
         return _confirmer;
     }
-    
+
+    /**
+     * Return the hit manager used by this finder.
+     *
+     * @return hit manager
+     */
+    public HitManager getHitManager() {
+        return _hitmanager;
+    }
+
+    /**
+     * Return true if the fast hit checks are skipped.
+     *
+     * @return skip checks switch
+     */
+    public boolean getSkipChecks() {
+        return skipChecks;
+    }
+
+    /**
+     * A range of hits in the first seed layer of a seed sector combination.
+     */
+    private static class SeedWork {
+
+        private List<Sector> _slist;
+        private int _first;
+        private int _last;
+        private long _work;
+
+        SeedWork(List<Sector> slist, int first, int last, long work) {
+            _slist = slist;
+            _first = first;
+            _last = last;
+            _work = work;
+        }
+    }
+
+    /**
+     * Seed finder for one pool thread, working on a private copy of the stereo
+     * hits.  It is made the first time the thread runs a seeding task in an
+     * event and re-used for the other tasks the thread runs in that event.
+     */
+    private class SeedWorker {
+
+        private ConfinedHits _hits;
+        private SeedTrackFinder _finder;
+        private SeedStrategy _strategy = null;
+        private FastCheck _checker = null;
+
+        SeedWorker() {
+            _hits = new ConfinedHits(_hitmanager.getHits());
+            HitManager hitmanager = new HitManager(_hitmanager);
+            hitmanager.OrganizeHits(_hits.getHits());
+            _finder = new SeedTrackFinder(hitmanager, _fitterfactory.createHelixFitter());
+        }
+
+        /**
+         * Find the seeds for a range of work units.
+         *
+         * @return track candidates with the original hits, in work unit order
+         */
+        List<SeedCandidate> FindSeeds(List<SeedWork> worklist, int first, int last, SeedStrategy strategy,
+                double bfield) {
+
+            //  Pick up the settings for this strategy (the used hits change from one strategy to the next)
+            _finder.copySettings(SeedTrackFinder.this);
+            if (strategy != _strategy) {
+                _checker = _finder.newChecker(strategy, bfield);
+                _strategy = strategy;
+            }
+
+            //  Find the seeds for each work unit
+            _finder.clearTrackSeedList();
+            for (int i = first; i < last; i++) {
+                SeedWork unit = worklist.get(i);
+                List<HelicalTrackHit> hits1 = _hits.copies(unit._slist.get(0).Hits());
+                List<HelicalTrackHit> hits2 = _hits.copies(unit._slist.get(1).Hits());
+                List<HelicalTrackHit> hits3 = _hits.copies(unit._slist.get(2).Hits());
+                _finder.FindSeeds(hits1, unit._first, unit._last, hits2, hits3, _checker, strategy, bfield);
+            }
+
+            //  Return the track candidates with the original hits
+            List<SeedCandidate> found = new ArrayList<SeedCandidate>();
+            for (SeedCandidate seed : _finder.getTrackSeeds()) {
+                found.add(_hits.restore(seed, bfield));
+            }
+            _finder.clearTrackSeedList();
+            return found;
+        }
+    }
+
+    /**
+     * Seeding task for a range of work units.  Ranges holding more than the target
+     * amount of work are split in two, otherwise the seeds are found with the seed
+     * finder of the thread running the task.
+     */
+    private class SeedTask extends RecursiveTask<List<SeedCandidate>> {
+
+        private List<SeedWork> _worklist;
+        private int _first;
+        private int _last;
+        private long _target;
+        private SeedStrategy _strategy;
+        private double _bfield;
+
+        SeedTask(List<SeedWork> worklist, int first, int last, long target, SeedStrategy strategy, double bfield) {
+            _worklist = worklist;
+            _first = first;
+            _last = last;
+            _target = target;
+            _strategy = strategy;
+            _bfield = bfield;
+        }
+
+        @Override
+        protected List<SeedCandidate> compute() {
+
+            //  Find the amount of work in this task
+            long work = 0;
+            for (int i = _first; i < _last; i++) {
+                work += _worklist.get(i)._work;
+            }
+
+            //  Split the task if it holds too much work
+            if (work > _target && _last - _first > 1) {
+                int mid = (_first + _last) / 2;
+                SeedTask left = new SeedTask(_worklist, _first, mid, _target, _strategy, _bfield);
+                SeedTask right = new SeedTask(_worklist, mid, _last, _target, _strategy, _bfield);
+                left.fork();
+                List<SeedCandidate> found = new ArrayList<SeedCandidate>(right.compute());
+                found.addAll(0, left.join());
+                return found;
+            }
+
+            //  Use the seed finder of this thread, making it the first time through.  A task
+            //  that finds seeds never waits on other tasks, so a thread only runs one at a time.
+            SeedWorker worker = _seedworkers.get(Thread.currentThread());
+            if (worker == null) {
+                worker = new SeedWorker();
+                _seedworkers.put(Thread.currentThread(), worker);
+            }
+            return worker.FindSeeds(_worklist, _first, _last, _strategy, _bfield);
+        }
+    }
 }
\ No newline at end of file
@@ -10,12 +10,25 @@ import hep.physics.vec.BasicHep3Vector;
 import hep.physics.vec.Hep3Vector;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hps.recon.tracking.MaterialManager;
 import org.hps.recon.tracking.MaterialSupervisor;
+import org.hps.recon.tracking.TrackUtils;
 import org.lcsim.detector.ITransform3D;
 import org.lcsim.event.EventHeader;
 import org.lcsim.event.MCParticle;
+import org.lcsim.event.Track;
+import org.lcsim.fit.helicaltrack.HelicalTrackCross;
+import org.lcsim.fit.helicaltrack.HelicalTrackFit;
 import org.lcsim.fit.helicaltrack.HelicalTrackHit;
 import org.lcsim.geometry.Detector;
 import org.lcsim.recon.tracking.seedtracker.DefaultStrategy;
@@ -37,7 +50,7 @@ import org.lcsim.util.aida.AIDA;
  * @author Richard Partridge
  * @version 1.0
  */
-public class SeedTracker extends Driver {
+public class SeedTracker extends Driver implements HelixFitterFactory {
 
     protected List<SeedStrategy> _strategylist;
     protected ISeedTrackerDiagnostics _diag = null;
@@ -55,6 +68,42 @@ public class SeedTracker extends Driver {
     protected String _inputCol = "HelicalTrackHits";
     private int _iterativeConfirmedFits = 0;
     private boolean _debug = false;
+    private boolean _parallelStrategies = false;
+    private boolean _parallelSeeding = false;
+    private int _nthreads = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool _pool = null;
+    private double _xref = 0.;
+    private double _yref = 0.;
+    private int _maxfit = 0;
+    private boolean _skipChecks = false;
+    private boolean _applySectorBinning = false;
+    private TrackCheck _trackCheck = null;
+    private SeedingAlgorithm _seeding = SeedingAlgorithm.COMBINATORIAL;
+    private boolean _kalman = false;
+    private boolean _incrementalFit = false;
+    private int _maxEventFits = 0;
+    private double _maxEventTime = 0.;
+    private double _budgetSoftFraction = 0.5;
+    private double _budgetChisqScale = 0.5;
+    private EventBudget _budget = null;
+    private String _trkCollectionName = "Tracks";
+    private AtomicInteger _ntruncated = new AtomicInteger();
+    private boolean _maskUsedHits = false;
+    private boolean _parallelRefits = false;
+    private double _refitTolerance = 0.01;
+    private double _refitChisqTolerance = 0.01;
+    private Set<String> _maskedStrategies = null;
+    private String _regionCollection = null;
+    private double _targetX = 0.;
+    private double _regionDY = 5.;
+    private double _regionDZ = 5.;
+
+    //  Per-event track finding state, so several events can be processed at once
+    private EventContext _primary = null;
+    private AtomicBoolean _primaryInUse = new AtomicBoolean(false);
+    private ConcurrentLinkedQueue<EventContext> _contexts = new ConcurrentLinkedQueue<EventContext>();
+    private AtomicInteger _generation = new AtomicInteger();
+    private final Object _diagLock = new Object();
     
     /** Creates a new instance of SeedTracker */
     public SeedTracker() {
@@ -74,7 +123,7 @@ public class SeedTracker extends Driver {
         _helixfitter = new HelixFitter(_materialmanager);
 
         //  Instantiate the Seed Finder
-        _finder = new SeedTrackFinder(_hitmanager, _helixfitter);
+        _finder = newFinder(_hitmanager, _helixfitter);
 
         //  Instantiate the Track Maker
         _maketracks = new MakeTracks();
@@ -103,15 +152,41 @@ public class SeedTracker extends Driver {
         }
         
         //  Instantiate the helix finder since it depends on the material manager
-        _finder = new SeedTrackFinder(_hitmanager, _helixfitter);
+        _finder = newFinder(_hitmanager, _helixfitter);
     } 
     
     /**
-     * Invoke the track finding algorithm
+     * Invoke the track finding algorithm.  This can be called for several events
+     * at once from different threads: each call gets an event context with its
+     * own hit manager, seed finder, helix fitter and event budget.  Events are
+     * processed one at a time when diagnostics are enabled.
      * @param event EventHeader for this event
      */
     @Override
     protected void process(EventHeader event) {
+        if (_diag != null) {
+            synchronized (_diagLock) {
+                process(event, acquireContext());
+            }
+        } else {
+            process(event, acquireContext());
+        }
+    }
+
+    private void process(EventHeader event, EventContext context) {
+        try {
+            findTracks(event, context);
+        } finally {
+            releaseContext(context);
+        }
+    }
+
+    /**
+     * Find the tracks in an event using the state in an event context.
+     * @param event EventHeader for this event
+     * @param context event context
+     */
+    private void findTracks(EventHeader event, EventContext context) {
 
 //        System.out.println("New event");
         //  Pass the event to the diagnostics package
@@ -120,68 +195,357 @@ public class SeedTracker extends Driver {
         //  Get the hit collection from the event
         List<HelicalTrackHit> hitcol = event.get(HelicalTrackHit.class, _inputCol);
         
-        //  Sort the hits for this event
-        _hitmanager.OrganizeHits(hitcol);
-        
-        //  Make sure that we have cleared the list of track seeds in the finder
-        _finder.clearTrackSeedList();
+        //  Get the list of final list of SeedCandidates
+        List<SeedCandidate> trackseeds;
 
-        //  Loop over strategies and perform track finding
-        for (SeedStrategy strategy : _strategylist) {
+        //  Start the fit and time budget for this event
+        if (context.budget != null) context.budget.Start();
 
-            //  Set the strategy for the diagnostics
-            if (_diag != null) _diag.fireStrategyChanged(strategy);
+        //  Restrict the seeds to those pointing back to the upstream tracks, if there are any
+        SeedRegion region = getSeedRegion(event);
 
-            //  Perform track finding under this strategy
-            _finder.FindTracks(strategy, _bfield);
-        }
+        if (_parallelStrategies && _diag == null && _strategylist.size() > 1) {
 
-        //  Get the list of final list of SeedCandidates
-        List<SeedCandidate> trackseeds = _finder.getTrackSeeds();
+            //  Run the strategies concurrently and merge their track candidates
+            trackseeds = findTracksParallel(hitcol, region, context);
+
+        } else {
+
+            //  Set up the seeding tasks if parallel seeding is enabled
+            if (_parallelSeeding) context.finder.setParallelSeeding(getPool(), this);
+            else context.finder.setParallelSeeding(null, null);
+
+            //  Sort the hits for this event
+            context.hitmanager.OrganizeHits(hitcol);
+
+            //  Make sure that we have cleared the list of track seeds in the finder
+            context.finder.clearTrackSeedList();
+            context.finder.setSeedRegion(region);
+
+            //  Hits used by the track candidates found so far, if used hits are masked
+            BitSet usedhits = null;
+
+            //  Loop over strategies and perform track finding
+            for (SeedStrategy strategy : _strategylist) {
+
+                //  Skip the remaining (lower priority) strategies once the event budget is running low
+                if (context.budget != null && context.budget.isDegraded()) break;
+
+                //  Set the strategy for the diagnostics
+                if (_diag != null) _diag.fireStrategyChanged(strategy);
+
+                //  Skip seeds made only of hits used by earlier strategies if this strategy is masked
+                context.finder.setUsedHits(isMasked(strategy) ? usedhits : null);
+
+                //  Perform track finding under this strategy
+                context.finder.FindTracks(strategy, _bfield);
+
+                //  Update the used hits
+                if (_maskUsedHits) usedhits = getUsedHits(context.finder.getTrackSeeds(), context.hitmanager);
+            }
+            context.finder.setUsedHits(null);
+            context.finder.setSeedRegion(null);
+
+            trackseeds = context.finder.getTrackSeeds();
+        }
         
 
-        if(_iterativeConfirmedFits>0) {
+        if(_iterativeConfirmedFits>0 && !(context.budget != null && context.budget.isExhausted())) {
             // Iteratively re-fit tracks to take into account helix and hit position correlations
             if(_debug) System.out.printf("%s: Iteratively improve %d seeds\n",this.getClass().getSimpleName(),trackseeds.size());
-            List<SeedCandidate> seedsToRemove = new ArrayList<SeedCandidate>();
-            for(SeedCandidate seed : trackseeds) {
-                SeedStrategy strategy = seed.getSeedStrategy();
-                boolean success = false;
-                for(int iterFit=0;iterFit<_iterativeConfirmedFits;++iterFit) {
-                    success = _helixfitter.FitCandidate(seed, strategy);
-                }
-                if(!success) {
-                    seedsToRemove.add(seed);
-                } else {
-                    if(_debug) System.out.printf("%s: done iterating, this seed will be added to event:\n%s\n",this.getClass().getSimpleName(),seed.toString());
-                }
-            }
-            for(SeedCandidate badseed : seedsToRemove) {
-                trackseeds.remove(badseed);
-            }
+            trackseeds = refitSeeds(trackseeds, context);
         }
 
-
-
         //  Make tracks from the final list of track seeds
         _maketracks.Process(event, trackseeds, _bfield);
 
+        //  Flag the track collection if track finding was cut short by the event budget
+        if (context.budget != null && context.budget.isTruncated()) {
+            event.getIntegerParameters().put(_trkCollectionName + "Truncated", new int[] {context.budget.Level()});
+            _ntruncated.incrementAndGet();
+            if (_debug) System.out.printf("%s: event budget used up after %d fits, %d tracks found\n",
+                    this.getClass().getSimpleName(), context.budget.getNFit(), trackseeds.size());
+        }
+
         //  Save the MC Particles that have been seeded / confirmed if diagnostics are enabled
         if (_diag != null) {
-            Set<MCParticle> seededmcpset = _finder.getSeededMCParticles();
+            Set<MCParticle> seededmcpset = context.finder.getSeededMCParticles();
             List<MCParticle> seededmcp = new ArrayList<MCParticle>(seededmcpset);
             event.put("SeededMCParticles", seededmcp, MCParticle.class, 0);
-            Set<MCParticle> confirmedmcpset = _finder.getConfirmedMCParticles();
+            Set<MCParticle> confirmedmcpset = context.finder.getConfirmedMCParticles();
             List<MCParticle> confirmedmcp = new ArrayList<MCParticle>(confirmedmcpset);
             event.put("ConfirmedMCParticles", confirmedmcp, MCParticle.class, 0);
         }
 
         //  Clear the list of track seeds accumulated in the track finder
-        _finder.clearTrackSeedList();
+        context.finder.clearTrackSeedList();
         
         return;
     }
 
+    /**
+     * Perform track finding with each strategy running on its own thread.  Every
+     * strategy has its own hit manager, seed finder and helix fitter, and works on
+     * a private copy of the stereo hits.  The track candidates from the strategies
+     * are merged in the order the strategies are listed, so the result does not
+     * depend on which strategy finishes first.
+     *
+     * @param hitcol hits for this event
+     * @param region seed region for this event (or null)
+     * @param context event context
+     * @return merged list of track candidates
+     */
+    private List<SeedCandidate> findTracksParallel(List<HelicalTrackHit> hitcol, SeedRegion region, EventContext context) {
+
+        //  Create the strategy workers for this context the first time through
+        if (context.workers == null) {
+            context.workers = new ArrayList<StrategyWorker>();
+            for (SeedStrategy strategy : _strategylist) {
+                context.workers.add(new StrategyWorker(strategy, context.budget));
+            }
+        }
+        ForkJoinPool pool = getPool();
+
+        //  Run the strategies
+        for (StrategyWorker worker : context.workers) {
+            worker.setHits(hitcol, region);
+        }
+        List<Future<List<SeedCandidate>>> results;
+        try {
+            results = pool.invokeAll(context.workers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for track finding", e);
+        }
+
+        //  Merge the track candidates in strategy order
+        List<SeedCandidate> trackseeds = new SeedCandidateList();
+        IndexedMergeSeedLists merger = new IndexedMergeSeedLists();
+        for (Future<List<SeedCandidate>> result : results) {
+            List<SeedCandidate> seeds;
+            try {
+                seeds = result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for track finding", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Track finding failed", e.getCause());
+            }
+            for (SeedCandidate seed : seeds) {
+                merger.Merge(trackseeds, seed, seed.getSeedStrategy());
+            }
+        }
+
+        //  Leave the stereo hits corrected for the direction of the final track candidates
+        for (SeedCandidate seed : trackseeds) {
+            for (HelicalTrackHit hit : seed.getHits()) {
+                if (hit instanceof HelicalTrackCross) ((HelicalTrackCross) hit).setTrackDirection(seed.getHelix());
+            }
+        }
+
+        return trackseeds;
+    }
+
+    /**
+     * Make the seed region for an event from the tracks in the seed region
+     * collection, extrapolated to the target.
+     *
+     * @param event EventHeader for this event
+     * @return seed region, or null to use all seed hit combinations
+     */
+    private SeedRegion getSeedRegion(EventHeader event) {
+        if (_regionCollection == null || !event.hasCollection(Track.class, _regionCollection)) return null;
+        List<double[]> vertices = new ArrayList<double[]>();
+        for (Track track : event.get(Track.class, _regionCollection)) {
+            double[] vertex = SeedRegion.AtPlane(TrackUtils.getHTF(track), _targetX);
+            if (vertex != null) vertices.add(vertex);
+        }
+        if (_debug) System.out.printf("%s: %d seed region vertices\n", this.getClass().getSimpleName(), vertices.size());
+        if (vertices.isEmpty()) return null;
+        return new SeedRegion(vertices, _regionDY, _regionDZ);
+    }
+
+    /**
+     * Refit the final track candidates, iterating each fit until the helix
+     * converges or the maximum number of iterations is reached.  The candidates
+     * that fail a refit are dropped.
+     *
+     * @param trackseeds track candidates
+     * @param context event context
+     * @return refit track candidates, in the same order
+     */
+    private List<SeedCandidate> refitSeeds(List<SeedCandidate> trackseeds, EventContext context) {
+
+        List<SeedCandidate> refit;
+        if (_parallelRefits && _diag == null && trackseeds.size() > 1) {
+
+            //  Refit the candidates in tasks that work on private copies of their hits
+            RefitTask task = new RefitTask(trackseeds, 0, trackseeds.size());
+            if (ForkJoinTask.inForkJoinPool()) refit = task.invoke();
+            else refit = getPool().invoke(task);
+
+            //  Leave the stereo hits corrected for the direction of the refit candidates
+            for (SeedCandidate seed : refit) {
+                for (HelicalTrackHit hit : seed.getHits()) {
+                    if (hit instanceof HelicalTrackCross) ((HelicalTrackCross) hit).setTrackDirection(seed.getHelix());
+                }
+            }
+
+        } else {
+            refit = new ArrayList<SeedCandidate>(trackseeds.size());
+            for (SeedCandidate seed : trackseeds) {
+                if (refitSeed(seed, context.fitter, context.hitmanager.getCorrectionCache())) refit.add(seed);
+            }
+        }
+
+        if (_debug) {
+            for (SeedCandidate seed : refit) {
+                System.out.printf("%s: done iterating, this seed will be added to event:\n%s\n",this.getClass().getSimpleName(),seed.toString());
+            }
+        }
+        return refit;
+    }
+
+    /**
+     * Iteratively refit a track candidate, stopping once the helix parameters
+     * change by less than the refit tolerance times their errors and the chisq
+     * changes by less than the chisq tolerance.  The helix of the refit
+     * candidate always comes from a full helix fit: if the last iteration used
+     * the incremental fit, the candidate is fit once more with the helix fitter.
+     *
+     * @param seed track candidate
+     * @param fitter helix fitter to use
+     * @param corrections corrected hit cache for the hits of the candidate (or null)
+     * @return true if the refits succeeded
+     */
+    private boolean refitSeed(SeedCandidate seed, HelixFitter fitter, CorrectionCache corrections) {
+        SeedStrategy strategy = seed.getSeedStrategy();
+        boolean success = false;
+        boolean incremental = false;
+        for (int iterFit = 0; iterFit < _iterativeConfirmedFits; ++iterFit) {
+            HelicalTrackFit oldhelix = seed.getHelix();
+
+            // After the first fit, refit from the sums of an incremental fit when the helix allows it
+            incremental = _incrementalFit && iterFit > 0 && IncrementalHelixFit.isSupported(oldhelix);
+            if (incremental) {
+                IncrementalHelixFit fit = new IncrementalHelixFit(seed, _bfield, corrections);
+                success = fit.Solve(strategy);
+                if (success) seed.setHelix(fit.getHelix());
+            } else {
+                success = fitter.FitCandidate(seed, strategy);
+                if (success) seed.setHelix(fitter.getHelix());
+            }
+            if (!success) return false;
+
+            //  Stop iterating once the fit has converged
+            if (oldhelix != null && isConverged(oldhelix, seed.getHelix())) break;
+        }
+
+        //  The incremental fit keeps the path lengths and scattering errors of the previous fit,
+        //  so the helix passed on to the tracks is always made by the helix fitter
+        if (incremental) {
+            success = fitter.FitCandidate(seed, strategy);
+            if (success) seed.setHelix(fitter.getHelix());
+        }
+        return success;
+    }
+
+    private boolean isConverged(HelicalTrackFit oldhelix, HelicalTrackFit newhelix) {
+        if (!(Math.abs(newhelix.chisqtot() - oldhelix.chisqtot()) <= _refitChisqTolerance)) return false;
+        double[] oldpar = oldhelix.parameters();
+        double[] newpar = newhelix.parameters();
+        for (int i = 0; i < newpar.length; i++) {
+            double dpar = Math.abs(newpar[i] - oldpar[i]);
+            if (i == HelicalTrackFit.phi0Index) dpar = Math.min(dpar, 2. * Math.PI - dpar);
+            double sigma = Math.sqrt(newhelix.covariance().e(i, i));
+            if (!(dpar <= _refitTolerance * sigma)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the thread pool used for parallel track finding, creating it if needed.
+     *
+     * @return thread pool
+     */
+    private synchronized ForkJoinPool getPool() {
+        if (_pool == null) _pool = new ForkJoinPool(_nthreads);
+        return _pool;
+    }
+
+    /**
+     * Create a helix fitter with the same configuration as the one used by this driver.
+     *
+     * @return new helix fitter
+     */
+    @Override
+    public HelixFitter createHelixFitter() {
+        HelixFitter fitter = new HelixFitter(_materialmanager);
+        fitter.setBField(_bfield);
+        fitter.setReferencePoint(_xref, _yref);
+        return fitter;
+    }
+
+    /**
+     * Create a seed finder for the seeding algorithm in use.
+     *
+     * @param hitmanager hit manager for the finder
+     * @param helixfitter helix fitter for the finder
+     * @return seed finder
+     */
+    private SeedTrackFinder newFinder(HitManager hitmanager, HelixFitter helixfitter) {
+        switch (_seeding) {
+            case CELLULAR_AUTOMATON:
+                return new CellularAutomatonSeedFinder(hitmanager, helixfitter);
+            case HOUGH:
+                return new HoughSeedFinder(hitmanager, helixfitter);
+            default:
+                return new SeedTrackFinder(hitmanager, helixfitter);
+        }
+    }
+
+    /**
+     * Apply the track finding settings of this driver to a seed finder.
+     *
+     * @param finder seed finder to configure
+     * @param budget event budget for the finder (or null)
+     */
+    private void configureFinder(SeedTrackFinder finder, EventBudget budget) {
+        finder.setSkipChecks(_skipChecks);
+        finder.setApplySectorBinning(_applySectorBinning);
+        finder.getConfirmer().setApplySectorBinning(_applySectorBinning);
+        finder.getConfirmer().setKalmanMode(_kalman);
+        finder.getConfirmer().setIncrementalFit(_incrementalFit);
+        finder.setBudget(budget);
+        finder._trackCheck = _trackCheck;
+        if (_maxfit > 0) finder.setMaxFit(_maxfit);
+        if (_parallelSeeding) finder.setParallelSeeding(getPool(), this);
+    }
+
+    @Override
+    protected void startOfData() {
+
+        //  The strategy workers each find their own tracks, so they can't mask the hits of earlier strategies
+        if (_maskUsedHits && _parallelStrategies)
+            System.out.println(this.getClass().getSimpleName() + ": WARNING - used hit masking is ignored when the strategies are run concurrently");
+
+        super.startOfData();
+    }
+
+    @Override
+    public void endOfData() {
+
+        //  Report the events that were cut short by the event budget
+        if (_ntruncated.get() > 0)
+            System.out.println(this.getClass().getSimpleName() + ": track finding truncated in " + _ntruncated.get() + " events");
+
+        //  Stop the worker threads
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+    }
+
     @Override
     protected void detectorChanged(Detector detector) {
 
@@ -200,6 +564,12 @@ public class SeedTracker extends Driver {
         //  Set the sectoring parameters
         if (_autosectoring)
             _hitmanager.setSectorParams(_strategylist, _bfield, _rtrk);
+
+        //  Layer indices are assigned afresh for the new detector
+        _hitmanager.getSectorManager().InitializeLayers();
+
+        //  The strategy workers are re-created with the new detector
+        resetContexts();
     }
 
     /**
@@ -217,15 +587,31 @@ public class SeedTracker extends Driver {
         if (_autosectoring)
             _hitmanager.setSectorParams(strategylist, _bfield, _rtrk);
 
+        resetContexts();
         return;
     }
 
     public void setSectorParams(int nphi, double dz) {
         _hitmanager.setSectorParams(nphi, dz);
         _autosectoring = false;
+        resetContexts();
         return;
     }
 
+    /**
+     * Use planar sectoring, binning the hits in each layer in the sensor-plane
+     * coordinates u (tracking y) and v (tracking z).  This replaces the barrel
+     * phi / z sectoring for fixed-target geometries with planar sensors.
+     *
+     * @param du sector width in u
+     * @param dv sector width in v
+     */
+    public void setPlanarSectorParams(double du, double dv) {
+        _hitmanager.setPlanarSectorParams(du, dv);
+        _autosectoring = false;
+        resetContexts();
+    }
+
 
     /*
     public void setDiagnostics(ISeedTrackerDiagnostics d) {
@@ -244,6 +630,7 @@ public class SeedTracker extends Driver {
     }*/
 
     public void setTrkCollectionName(String name) {
+        _trkCollectionName = name;
         _maketracks.setTrkCollectionName(name);
     }
 
@@ -261,7 +648,9 @@ public class SeedTracker extends Driver {
      * @param maxfit maximum number of fits
      */
     public void setMaxFit(int maxfit) {
+        _maxfit = maxfit;
         _finder.setMaxFit(maxfit);
+        resetContexts();
     }
 
     public void setBField(double bfield) {
@@ -269,18 +658,24 @@ public class SeedTracker extends Driver {
         _bfield=bfield;
     }
       public void setReferencePoint(double xref,double yref){
+        _xref = xref;
+        _yref = yref;
         _helixfitter.setReferencePoint(xref, yref);
+        resetContexts();
     }
       public void setSectorParams(boolean sector){
           _hitmanager.setDoSectoring(sector);
+          resetContexts();
       }
     /**
      * Set {@link TrackCheck} object to be used by the track finding algorithm.
      * If this method is never called, no external checking of seeds and tracks is performed.
      */  
     public void setTrackCheck(TrackCheck trackCheck) {
+        _trackCheck = trackCheck;
         _finder._trackCheck = trackCheck;
         _maketracks.setTrackCheck(trackCheck);
+        resetContexts();
     }
     /**
      * Set the maximum number of iterative fits on a confirmed/extended candidate.
@@ -306,7 +701,9 @@ public class SeedTracker extends Driver {
     }
     
     public void setSkipChecks(boolean skipChecks) { 
+        _skipChecks = skipChecks;
         _finder.setSkipChecks(skipChecks);
+        resetContexts();
     }
      /**
      * Set to enable the sectoring to use the sector bins in checking for consistent hits.
@@ -314,11 +711,464 @@ public class SeedTracker extends Driver {
      * @param applySectorBinning apply sector binning switch
      */
     public void setApplySectorBinning(boolean applySectorBinning) {
+        _applySectorBinning = applySectorBinning;
         _finder.setApplySectorBinning(applySectorBinning);
         _finder.getConfirmer().setApplySectorBinning(applySectorBinning);        
+        resetContexts();
+    }
+
+    /**
+     * Set to add hits in the confirm and extend steps with a Kalman filter update
+     * of the helix, only fitting the final track candidates.
+     *
+     * @param kalman Kalman mode switch
+     */
+    public void setKalmanMode(boolean kalman) {
+        _kalman = kalman;
+        _finder.getConfirmer().setKalmanMode(kalman);
+        resetContexts();
+    }
+
+    /**
+     * Set to add hits in the confirm and extend steps by updating the sums of an
+     * incremental helix fit, only fitting the final track candidates.  The
+     * iterative refits of the confirmed candidates also use the incremental fit
+     * after the first full fit, but the last refit is always a full fit.
+     *
+     * @param incremental incremental fit switch
+     */
+    public void setIncrementalFit(boolean incremental) {
+        _incrementalFit = incremental;
+        _finder.getConfirmer().setIncrementalFit(incremental);
+        resetContexts();
+    }
+
+    /**
+     * Set the maximum number of helix fits for track finding in an event (0 for
+     * no limit).  See setMaxEventTime for what happens when the budget runs low.
+     *
+     * @param maxfits maximum number of fits per event
+     */
+    public void setMaxEventFits(int maxfits) {
+        _maxEventFits = maxfits;
+        updateBudget();
+    }
+
+    /**
+     * Set the maximum time for track finding in an event in ms (0 for no limit).
+     * Once a fraction of the fit or time budget is used, the remaining strategies
+     * are skipped and the chisq cut on track candidates in the confirm and extend
+     * steps is tightened.  Once the budget is used up, no more seeds are processed
+     * and the confirm and extend steps stop.  The event is then flagged with an
+     * integer parameter named after the track collection with "Truncated" appended.
+     *
+     * @param maxtime maximum track finding time per event in ms
+     */
+    public void setMaxEventTime(double maxtime) {
+        _maxEventTime = maxtime;
+        updateBudget();
+    }
+
+    /**
+     * Set the fraction of the event budget after which track finding is degraded.
+     *
+     * @param fraction soft budget fraction
+     */
+    public void setBudgetSoftFraction(double fraction) {
+        _budgetSoftFraction = fraction;
+        updateBudget();
+    }
+
+    /**
+     * Set the factor applied to the chisq cut on track candidates when track
+     * finding is degraded.
+     *
+     * @param scale chisq scale factor
+     */
+    public void setBudgetChisqScale(double scale) {
+        _budgetChisqScale = scale;
+        updateBudget();
+    }
+
+    /**
+     * Return the number of events with track finding cut short by the event budget.
+     *
+     * @return number of truncated events
+     */
+    public int getNTruncated() {
+        return _ntruncated.get();
+    }
+
+    /**
+     * Set to skip seeds with all their hits used by track candidates found with
+     * earlier strategies.  Strategies should then be listed from the cleanest to
+     * the loosest.  This is ignored when the strategies are run concurrently.
+     *
+     * @param mask used hit masking switch
+     */
+    public void setMaskUsedHits(boolean mask) {
+        _maskUsedHits = mask;
+    }
+
+    /**
+     * Set the names of the strategies that skip seeds made of used hits when
+     * used hit masking is enabled (null for all strategies).
+     *
+     * @param names strategy names
+     */
+    public void setMaskedStrategies(Collection<String> names) {
+        _maskedStrategies = names == null ? null : new HashSet<String>(names);
+    }
+
+    private boolean isMasked(SeedStrategy strategy) {
+        return _maskUsedHits && (_maskedStrategies == null || _maskedStrategies.contains(strategy.getName()));
+    }
+
+    /**
+     * Make the set of hits used by a list of track candidates, indexed by their
+     * ordinal in the hit manager.
+     */
+    private BitSet getUsedHits(List<SeedCandidate> trackseeds, HitManager hitmanager) {
+        BitSet usedhits = new BitSet(hitmanager.getHits().size());
+        for (SeedCandidate seed : trackseeds) {
+            for (HelicalTrackHit hit : seed.getHits()) {
+                int ordinal = hitmanager.getOrdinal(hit);
+                if (ordinal >= 0) usedhits.set(ordinal);
+            }
+        }
+        return usedhits;
+    }
+
+    private void updateBudget() {
+        _budget = newBudget();
+        _finder.setBudget(_budget);
+        resetContexts();
+    }
+
+    private EventBudget newBudget() {
+        if (_maxEventFits > 0 || _maxEventTime > 0.)
+            return new EventBudget(_maxEventFits, _maxEventTime, _budgetSoftFraction, _budgetChisqScale);
+        return null;
+    }
+
+    /**
+     * Return an event context that isn't in use by another event.  The first
+     * context holds the hit manager, seed finder and helix fitter of this driver,
+     * so single threaded running is unchanged.  The others are made as needed
+     * with the same settings and kept for later events.
+     */
+    private EventContext acquireContext() {
+        if (_primaryInUse.compareAndSet(false, true)) {
+            EventContext primary = _primary;
+            if (primary == null || primary.generation != _generation.get()) {
+                primary = new EventContext(_hitmanager, _helixfitter, _finder, _budget, true);
+                _primary = primary;
+            }
+            return primary;
+        }
+        EventContext context;
+        while ((context = _contexts.poll()) != null) {
+            if (context.generation == _generation.get()) return context;
+        }
+        HitManager hitmanager = new HitManager(_hitmanager);
+        HelixFitter fitter = createHelixFitter();
+        SeedTrackFinder finder = newFinder(hitmanager, fitter);
+        EventBudget budget = newBudget();
+        configureFinder(finder, budget);
+        return new EventContext(hitmanager, fitter, finder, budget, false);
+    }
+
+    private void releaseContext(EventContext context) {
+
+        //  The primary context may have been discarded while it was in use, so
+        //  go by the context itself rather than the current primary
+        if (context.primary) {
+            _primaryInUse.set(false);
+        } else if (context.generation == _generation.get()) {
+            _contexts.offer(context);
+        }
+    }
+
+    /**
+     * Discard the event contexts after a change to the track finding settings.
+     * Settings should not be changed while events are being processed.
+     */
+    private void resetContexts() {
+        _generation.incrementAndGet();
+        _primary = null;
+        _contexts.clear();
+    }
+
+    /**
+     * Enable refitting the final track candidates concurrently, each thread
+     * with its own helix fitter and copy of the stereo hits.  This setting is
+     * ignored when diagnostics are enabled.
+     *
+     * @param parallel parallel refit switch
+     */
+    public void setParallelRefits(boolean parallel) {
+        _parallelRefits = parallel;
+    }
+
+    /**
+     * Set the size in radians of the track direction bins used to cache the
+     * stereo hit positions corrected for the track direction in the hit checks
+     * and the helix updates of the confirm and extend steps.  A hit is then only
+     * corrected once for all the helices whose direction at the hit falls in the
+     * same bin.  The correction is made for the direction at the center of the
+     * bin and isn't checked against the actual direction of the helix, so the
+     * bin size should be small enough that the shift of a stereo hit over half
+     * a bin is well below the strip resolution.  The default of 0 corrects the
+     * hits for every helix.
+     *
+     * @param tolerance direction bin size
+     */
+    public void setDirectionTolerance(double tolerance) {
+        _hitmanager.setDirectionTolerance(tolerance);
+        resetContexts();
+    }
+
+    /**
+     * Set the collection of upstream tracks used to restrict the seeds.  Each
+     * track is extrapolated to the target, and only seed hit combinations that
+     * point back to one of these vertices are used.  All the seed hit
+     * combinations are used in events without any of these tracks.  The
+     * default of null uses all seed hit combinations in every event.
+     *
+     * @param name track collection name (or null)
+     */
+    public void setSeedRegionCollectionName(String name) {
+        _regionCollection = name;
+    }
+
+    /**
+     * Set the position of the target along the beam (tracking x) used for the
+     * seed region.
+     *
+     * @param x target position
+     */
+    public void setTargetPosition(double x) {
+        _targetX = x;
+    }
+
+    /**
+     * Set the half widths of the seed region window around each vertex.
+     *
+     * @param dy half width in y (the bend coordinate)
+     * @param dz half width in z
+     */
+    public void setSeedRegionWindow(double dy, double dz) {
+        _regionDY = dy;
+        _regionDZ = dz;
+    }
+
+    /**
+     * Set the convergence tolerance of the iterative refits, as a fraction of
+     * the error on each helix parameter.
+     *
+     * @param tolerance refit tolerance
+     */
+    public void setRefitTolerance(double tolerance) {
+        _refitTolerance = tolerance;
+    }
+
+    /**
+     * Set the largest change in chisq for an iterative refit to have converged.
+     *
+     * @param tolerance chisq tolerance
+     */
+    public void setRefitChisqTolerance(double tolerance) {
+        _refitChisqTolerance = tolerance;
+    }
+
+    /**
+     * Enable running the strategies concurrently, each on its own thread.
+     * The diagnostics package requires the strategies to be run in sequence,
+     * so this setting is ignored when diagnostics are enabled.
+     *
+     * @param parallelStrategies parallel strategy switch
+     */
+    public void setParallelStrategies(boolean parallelStrategies) {
+        _parallelStrategies = parallelStrategies;
+    }
+
+    /**
+     * Enable splitting the seeding for each strategy into work-stealing tasks
+     * that run on multiple threads.  The diagnostics package requires serial
+     * seeding, so this setting is ignored when diagnostics are enabled.
+     *
+     * @param parallelSeeding parallel seeding switch
+     */
+    public void setParallelSeeding(boolean parallelSeeding) {
+        _parallelSeeding = parallelSeeding;
+        resetContexts();
+    }
+
+    /**
+     * Select the algorithm used to find track seeds.  The seed finder is replaced
+     * and the track finding settings made so far are applied to the new one.
+     * Parallel seeding only applies to the combinatorial algorithm.
+     *
+     * @param algorithm seeding algorithm
+     */
+    public void setSeedingAlgorithm(SeedingAlgorithm algorithm) {
+        _seeding = algorithm;
+        _finder = newFinder(_hitmanager, _helixfitter);
+        configureFinder(_finder, _budget);
+        if (_diag != null) _finder.setDiagnostic(_diag);
+        resetContexts();
+    }
+
+    /**
+     * Set the number of threads used for parallel track finding.
+     *
+     * @param nthreads number of threads
+     */
+    public void setThreads(int nthreads) {
+        if (nthreads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        _nthreads = nthreads;
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+        resetContexts();
     }
     
     public void setSubdetectorName(String subdetectorName) {
         ((MaterialSupervisor) this._materialmanager).setSubdetectorName(subdetectorName);
     }
+
+    /**
+     * Refits a range of the final track candidates, splitting the range into
+     * tasks of a few candidates each.  The candidates that pass are returned in
+     * their original order.
+     */
+    private class RefitTask extends RecursiveTask<List<SeedCandidate>> {
+
+        private static final long serialVersionUID = 1L;
+        private static final int MINSEEDS = 4;
+        private List<SeedCandidate> _seeds;
+        private int _first;
+        private int _last;
+
+        RefitTask(List<SeedCandidate> seeds, int first, int last) {
+            _seeds = seeds;
+            _first = first;
+            _last = last;
+        }
+
+        @Override
+        protected List<SeedCandidate> compute() {
+
+            //  Split the task if it holds too many candidates
+            if (_last - _first > MINSEEDS) {
+                int mid = (_first + _last) / 2;
+                RefitTask left = new RefitTask(_seeds, _first, mid);
+                RefitTask right = new RefitTask(_seeds, mid, _last);
+                left.fork();
+                List<SeedCandidate> refit = new ArrayList<SeedCandidate>(right.compute());
+                refit.addAll(0, left.join());
+                return refit;
+            }
+
+            //  Make private copies of the hits on these candidates
+            List<HelicalTrackHit> hitlist = new ArrayList<HelicalTrackHit>();
+            Set<HelicalTrackHit> hitset = Collections.newSetFromMap(new IdentityHashMap<HelicalTrackHit, Boolean>());
+            for (int i = _first; i < _last; i++) {
+                for (HelicalTrackHit hit : _seeds.get(i).getHits()) {
+                    if (hitset.add(hit)) hitlist.add(hit);
+                }
+            }
+            ConfinedHits hits = new ConfinedHits(hitlist);
+
+            //  Refit the candidates with the copies and return them with the original hits
+            HelixFitter fitter = createHelixFitter();
+            List<SeedCandidate> refit = new ArrayList<SeedCandidate>();
+            for (int i = _first; i < _last; i++) {
+                SeedCandidate seed = hits.confine(_seeds.get(i), _bfield);
+                if (refitSeed(seed, fitter, null)) refit.add(hits.restore(seed, _bfield));
+            }
+            return refit;
+        }
+    }
+
+    /**
+     * Per-event state of the track finding for one event at a time: the hit
+     * manager, seed finder, helix fitter and event budget, and the strategy
+     * workers when the strategies are run concurrently.
+     */
+    private class EventContext {
+
+        final HitManager hitmanager;
+        final HelixFitter fitter;
+        final SeedTrackFinder finder;
+        final EventBudget budget;
+        final int generation;
+        final boolean primary;
+        List<StrategyWorker> workers = null;
+
+        EventContext(HitManager hitmanager, HelixFitter fitter, SeedTrackFinder finder, EventBudget budget, boolean primary) {
+            this.hitmanager = hitmanager;
+            this.fitter = fitter;
+            this.finder = finder;
+            this.budget = budget;
+            this.generation = _generation.get();
+            this.primary = primary;
+        }
+    }
+
+    /**
+     * Track finding for a single strategy on a worker thread.
+     */
+    private class StrategyWorker implements Callable<List<SeedCandidate>> {
+
+        private SeedStrategy _strategy;
+        private HitManager _workerhits;
+        private SeedTrackFinder _workerfinder;
+        private EventBudget _budget;
+        private List<HelicalTrackHit> _hitcol;
+        private SeedRegion _region;
+
+        StrategyWorker(SeedStrategy strategy, EventBudget budget) {
+            _strategy = strategy;
+            _budget = budget;
+            _workerhits = new HitManager(_hitmanager);
+            _workerfinder = newFinder(_workerhits, createHelixFitter());
+            configureFinder(_workerfinder, budget);
+        }
+
+        void setHits(List<HelicalTrackHit> hitcol, SeedRegion region) {
+            _hitcol = hitcol;
+            _region = region;
+        }
+
+        @Override
+        public List<SeedCandidate> call() {
+
+            //  Lower priority strategies are skipped once the event budget is running low
+            if (_budget != null && _budget.isDegraded()) return new ArrayList<SeedCandidate>();
+
+            //  Sort a private copy of the hits
+            ConfinedHits hits = new ConfinedHits(_hitcol);
+            _workerhits.OrganizeHits(hits.getHits());
+
+            //  Find the track candidates for this strategy
+            _workerfinder.clearTrackSeedList();
+            _workerfinder.setSeedRegion(_region);
+            _workerfinder.FindTracks(_strategy, _bfield);
+
+            //  Return the track candidates with the original hits
+            List<SeedCandidate> trackseeds = new ArrayList<SeedCandidate>();
+            for (SeedCandidate seed : _workerfinder.getTrackSeeds()) {
+                trackseeds.add(hits.restore(seed, _bfield));
+            }
+            _workerfinder.clearTrackSeedList();
+            _workerfinder.setSeedRegion(null);
+            _hitcol = null;
+            _region = null;
+
+            return trackseeds;
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package org.ldmx.seedtracker;
+
+/**
+ * Seeding algorithms that SeedTracker can use to find track seeds.
+ */
+public enum SeedingAlgorithm {
+
+    /** Try every combination of hits in the seed layers (SeedTrackFinder) */
+    COMBINATORIAL,
+    /** Form seeds from chains of hit doublets (CellularAutomatonSeedFinder) */
+    CELLULAR_AUTOMATON,
+    /** Form seeds from peaks in Hough transforms of the hits (HoughSeedFinder) */
+    HOUGH
+}
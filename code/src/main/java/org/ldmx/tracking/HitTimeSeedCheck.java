@@ -0,0 +1,83 @@
+package org.ldmx.tracking;
+
+import java.util.List;
+
+import org.hps.recon.tracking.HitTimeTrackCheck;
+import org.lcsim.fit.helicaltrack.HelicalTrackCross;
+import org.lcsim.fit.helicaltrack.HelicalTrackHit;
+import org.lcsim.fit.helicaltrack.HelicalTrackStrip;
+import org.ldmx.seedtracker.SeedHitCheck;
+
+/**
+ * Hit time check with direct checks of seed hit pairs and triplets.  As in
+ * HitTimeTrackCheck, a set of hits passes if the mean absolute deviation of
+ * their strip times from the mean strip time is less than the time cut.  The
+ * pair and triplet checks work on the strip times directly, without making a
+ * seed candidate.  Only stereo hits have strip times, so other hits are left
+ * out of these checks.  The checks are called for every hit combination
+ * while seeding, so they read the strip times into locals and don't allocate.
+ */
+public class HitTimeSeedCheck extends HitTimeTrackCheck implements SeedHitCheck {
+
+    private final double rmsTimeCut;
+
+    public HitTimeSeedCheck(double rmsTimeCut) {
+        super(rmsTimeCut);
+        this.rmsTimeCut = rmsTimeCut;
+    }
+
+    @Override
+    public boolean checkHitPair(HelicalTrackHit hit1, HelicalTrackHit hit2) {
+        boolean cross1 = hit1 instanceof HelicalTrackCross;
+        boolean cross2 = hit2 instanceof HelicalTrackCross;
+        int ntimes = (cross1 ? 2 : 0) + (cross2 ? 2 : 0);
+        if (ntimes < 2) return true;
+        double t1 = 0, t2 = 0, t3 = 0, t4 = 0;
+        if (cross1) {
+            List<HelicalTrackStrip> strips = ((HelicalTrackCross) hit1).getStrips();
+            t1 = strips.get(0).time();
+            t2 = strips.get(1).time();
+        }
+        if (cross2) {
+            List<HelicalTrackStrip> strips = ((HelicalTrackCross) hit2).getStrips();
+            t3 = strips.get(0).time();
+            t4 = strips.get(1).time();
+        }
+        double mean = (t1 + t2 + t3 + t4) / ntimes;
+        double dev = 0;
+        if (cross1) dev += Math.abs(t1 - mean) + Math.abs(t2 - mean);
+        if (cross2) dev += Math.abs(t3 - mean) + Math.abs(t4 - mean);
+        return dev / ntimes < rmsTimeCut;
+    }
+
+    @Override
+    public boolean checkHitTriplet(HelicalTrackHit hit1, HelicalTrackHit hit2, HelicalTrackHit hit3) {
+        boolean cross1 = hit1 instanceof HelicalTrackCross;
+        boolean cross2 = hit2 instanceof HelicalTrackCross;
+        boolean cross3 = hit3 instanceof HelicalTrackCross;
+        int ntimes = (cross1 ? 2 : 0) + (cross2 ? 2 : 0) + (cross3 ? 2 : 0);
+        if (ntimes < 2) return true;
+        double t1 = 0, t2 = 0, t3 = 0, t4 = 0, t5 = 0, t6 = 0;
+        if (cross1) {
+            List<HelicalTrackStrip> strips = ((HelicalTrackCross) hit1).getStrips();
+            t1 = strips.get(0).time();
+            t2 = strips.get(1).time();
+        }
+        if (cross2) {
+            List<HelicalTrackStrip> strips = ((HelicalTrackCross) hit2).getStrips();
+            t3 = strips.get(0).time();
+            t4 = strips.get(1).time();
+        }
+        if (cross3) {
+            List<HelicalTrackStrip> strips = ((HelicalTrackCross) hit3).getStrips();
+            t5 = strips.get(0).time();
+            t6 = strips.get(1).time();
+        }
+        double mean = (t1 + t2 + t3 + t4 + t5 + t6) / ntimes;
+        double dev = 0;
+        if (cross1) dev += Math.abs(t1 - mean) + Math.abs(t2 - mean);
+        if (cross2) dev += Math.abs(t3 - mean) + Math.abs(t4 - mean);
+        if (cross3) dev += Math.abs(t5 - mean) + Math.abs(t6 - mean);
+        return dev / ntimes < rmsTimeCut;
+    }
+}
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
 
 import org.hps.conditions.database.DatabaseConditionsManager;
@@ -31,7 +32,6 @@ import org.hps.readout.ecal.ClockSingleton;
 import org.hps.readout.ecal.ReadoutTimestamp;
 import org.hps.readout.ecal.TriggerableDriver;
 import org.hps.recon.tracking.PulseShape;
-import org.hps.util.RandomGaussian;
 
 /**
  * LDMX Tracker readout simulation.
@@ -77,10 +77,14 @@ public class SimpleLdmxReadout extends TriggerableDriver {
     // Flags
     private boolean noPileup = false;
     private boolean addNoise = true;
+    private long noiseSeed = 0;
     private boolean useTimingConditions = false;
     private boolean debug = false;
     private int verbosity = 0;
 
+    // Noise generator for this driver, seeded from noiseSeed and the subdetector name
+    private Random noiseGenerator = null;
+
     // Default constructor
     public SimpleLdmxReadout() {
         add(readoutDriver);
@@ -96,6 +100,18 @@ public class SimpleLdmxReadout extends TriggerableDriver {
         this.addNoise = addNoise;
     }
 
+    /**
+     * Set the seed of the noise generator.  Each readout driver has its own
+     * generator, seeded from this and the subdetector name, so the noise
+     * doesn't depend on the other drivers in the job or on the order in which
+     * drivers running in parallel draw their noise.
+     * 
+     * @param noiseSeed seed of the noise generator
+     */
+    public void setNoiseSeed(long noiseSeed) {
+        this.noiseSeed = noiseSeed;
+    }
+
     /**
      * Enable/disable debug output.
      * 
@@ -365,8 +381,11 @@ public class SimpleLdmxReadout extends TriggerableDriver {
     }
 
     private void addNoise(SiSensor sensor, int channel, double[] signal) {
+        if (noiseGenerator == null) {
+            noiseGenerator = new Random(noiseSeed * 31 + subdetectorName.hashCode());
+        }
         for (int sampleN = 0; sampleN < 6; sampleN++) {
-            signal[sampleN] += RandomGaussian.getGaussian(0, ((HpsSiSensor) sensor).getNoise(channel, sampleN));
+            signal[sampleN] += noiseGenerator.nextGaussian() * ((HpsSiSensor) sensor).getNoise(channel, sampleN);
         }
     }
 
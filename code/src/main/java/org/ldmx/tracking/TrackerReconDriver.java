@@ -5,16 +5,17 @@ import hep.physics.vec.Hep3Vector;
 import hep.physics.vec.VecOp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.hps.recon.tracking.TrackUtils;
 import org.hps.recon.tracking.CoordinateTransformations;
-import org.hps.recon.tracking.HitTimeTrackCheck;
 import org.lcsim.event.EventHeader;
 import org.lcsim.event.RelationalTable;
 import org.lcsim.event.Track;
@@ -28,6 +29,7 @@ import org.lcsim.recon.tracking.seedtracker.diagnostic.SeedTrackerDiagnostics;
 import org.lcsim.util.Driver;
 
 import org.ldmx.seedtracker.SeedTracker;
+import org.ldmx.seedtracker.SeedingAlgorithm;
 
 /**
  * This class runs the Track Reconstruction for the HPS Test Proposal detector.
@@ -46,11 +48,11 @@ public final class TrackerReconDriver extends Driver {
     // Debug flag.
     private boolean debug = false;
     
-    // Tracks found across all events.
-    int ntracks = 0;
+    // Tracks found across all events (events may be processed on several threads).
+    final AtomicInteger ntracks = new AtomicInteger();
     
     // Number of events processed.
-    int nevents = 0;
+    final AtomicInteger nevents = new AtomicInteger();
     
     // Cache detector object.
     Detector detector = null;
@@ -86,6 +88,53 @@ public final class TrackerReconDriver extends Driver {
     private boolean rejectSharedHits = false;
     
     private boolean skipChecks = false; 
+    
+    // run the tracking strategies concurrently
+    private boolean parallelStrategies = false;
+    
+    // split the seeding for each strategy into work-stealing tasks
+    private boolean parallelSeeding = false;
+    
+    // refit the final track candidates on multiple threads
+    private boolean parallelRefits = false;
+    
+    // number of threads used for parallel track finding (0 uses all available processors)
+    private int threads = 0;
+    
+    // bin the hits in the sensor-plane coordinates instead of phi / z
+    private boolean planarSectoring = false;
+    
+    // planar sector widths in the bend (u) and non-bend (v) coordinates
+    private double sectorWidthU = 20.;
+    private double sectorWidthV = 20.;
+    
+    // algorithm used to find the track seeds
+    private SeedingAlgorithm seedingAlgorithm = SeedingAlgorithm.COMBINATORIAL;
+    
+    // add hits in the confirm / extend steps with a Kalman filter update
+    private boolean kalmanMode = false;
+    
+    // add hits in the confirm / extend steps with an incremental helix fit
+    private boolean incrementalFit = false;
+    
+    // per-event budget of helix fits and track finding time in ms (0 for no limit)
+    private int maxEventFits = 0;
+    private double maxEventTime = 0.;
+    
+    // skip seeds whose hits are all used by tracks from earlier strategies
+    private boolean maskUsedHits = false;
+    private String[] maskedStrategies = null;
+    
+    // size in radians of the track direction bins for caching corrected stereo hit positions (0 for no cache)
+    private double directionTolerance = 0.;
+    
+    // upstream track collection used to restrict the seeds to those pointing back to the target (null for no restriction)
+    private String seedRegionCollectionName = null;
+    
+    // target position along the beam and half widths of the seed region window around each vertex (mm)
+    private double targetPosition = 0.;
+    private double seedRegionWidthY = 5.;
+    private double seedRegionWidthZ = 5.;
 
     public TrackerReconDriver() {
     }
@@ -163,6 +212,199 @@ public final class TrackerReconDriver extends Driver {
     public void setSkipChecks(boolean skipChecks) { 
         this.skipChecks = skipChecks;
     }
+
+    /**
+     * Set to run each tracking strategy on its own thread.
+     *
+     * @param parallelStrategies parallel strategy switch
+     */
+    public void setParallelStrategies(boolean parallelStrategies) {
+        this.parallelStrategies = parallelStrategies;
+    }
+
+    /**
+     * Set to split the seeding for each strategy into tasks that run on multiple threads.
+     *
+     * @param parallelSeeding parallel seeding switch
+     */
+    public void setParallelSeeding(boolean parallelSeeding) {
+        this.parallelSeeding = parallelSeeding;
+    }
+
+    /**
+     * Set to run the iterative refits of the final track candidates on multiple threads.
+     *
+     * @param parallelRefits parallel refit switch
+     */
+    public void setParallelRefits(boolean parallelRefits) {
+        this.parallelRefits = parallelRefits;
+    }
+
+    /**
+     * Set the number of threads used for parallel track finding.
+     *
+     * @param threads number of threads (0 uses all available processors)
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set to bin the hits in the sensor-plane coordinates (u, v) rather than
+     * in phi and z.  The sector bin check (applySectorBinning) is turned off
+     * with planar sectoring, since it would require every hit on a track to
+     * lie in the same v bin.
+     *
+     * @param planarSectoring planar sectoring switch
+     */
+    public void setPlanarSectoring(boolean planarSectoring) {
+        this.planarSectoring = planarSectoring;
+    }
+
+    /**
+     * Set the planar sector width in the bend coordinate.
+     *
+     * @param sectorWidthU sector width in u (mm)
+     */
+    public void setSectorWidthU(double sectorWidthU) {
+        this.sectorWidthU = sectorWidthU;
+    }
+
+    /**
+     * Set the planar sector width in the non-bend coordinate.
+     *
+     * @param sectorWidthV sector width in v (mm)
+     */
+    public void setSectorWidthV(double sectorWidthV) {
+        this.sectorWidthV = sectorWidthV;
+    }
+
+    /**
+     * Set the algorithm used to find the track seeds: "combinatorial" (every
+     * combination of seed layer hits), "cellular_automaton" (chains of hit
+     * doublets) or "hough" (peaks in Hough transforms of the hits).
+     *
+     * @param seedingAlgorithm name of the seeding algorithm
+     */
+    public void setSeedingAlgorithm(String seedingAlgorithm) {
+        this.seedingAlgorithm = SeedingAlgorithm.valueOf(seedingAlgorithm.toUpperCase());
+    }
+
+    /**
+     * Set to add hits in the confirm and extend steps with a Kalman filter
+     * update rather than a helix fit.  Only the final candidates are fit.
+     *
+     * @param kalmanMode Kalman mode switch
+     */
+    public void setKalmanMode(boolean kalmanMode) {
+        this.kalmanMode = kalmanMode;
+    }
+
+    /**
+     * Set to add hits in the confirm and extend steps by updating an
+     * incremental helix fit rather than with a new helix fit.  Only the final
+     * candidates are fit.
+     *
+     * @param incrementalFit incremental fit switch
+     */
+    public void setIncrementalFit(boolean incrementalFit) {
+        this.incrementalFit = incrementalFit;
+    }
+
+    /**
+     * Set the maximum number of helix fits for track finding in an event.
+     * Track finding is degraded and then stopped as the budget runs out, and
+     * the event is flagged as truncated.
+     *
+     * @param maxEventFits maximum number of fits per event (0 for no limit)
+     */
+    public void setMaxEventFits(int maxEventFits) {
+        this.maxEventFits = maxEventFits;
+    }
+
+    /**
+     * Set the maximum time for track finding in an event.
+     *
+     * @param maxEventTime maximum time per event in ms (0 for no limit)
+     */
+    public void setMaxEventTime(double maxEventTime) {
+        this.maxEventTime = maxEventTime;
+    }
+
+    /**
+     * Set to skip seeds whose hits are all used by tracks found with earlier
+     * strategies in the strategy file.
+     *
+     * @param maskUsedHits used hit masking switch
+     */
+    public void setMaskUsedHits(boolean maskUsedHits) {
+        this.maskUsedHits = maskUsedHits;
+    }
+
+    /**
+     * Set the names of the strategies that skip seeds made of used hits.  By
+     * default all strategies do when used hit masking is enabled.
+     *
+     * @param maskedStrategies strategy names
+     */
+    public void setMaskedStrategies(String[] maskedStrategies) {
+        this.maskedStrategies = maskedStrategies;
+    }
+
+    /**
+     * Set the size in radians of the track direction bins used to cache the
+     * stereo hit positions corrected for the track direction (0 for no cache).
+     * Hits are corrected for the direction at the center of each bin, so this
+     * should be small enough that a stereo hit moves well below the strip
+     * resolution over half a bin.
+     *
+     * @param directionTolerance direction bin size
+     */
+    public void setDirectionTolerance(double directionTolerance) {
+        this.directionTolerance = directionTolerance;
+    }
+
+
+    /**
+     * Set the collection of upstream tracks, such as the Tagger tracks, used to
+     * restrict the seeds.  Each track is extrapolated to the target and only
+     * seeds that point back to one of these vertices are used.  Events without
+     * any of these tracks use all the seeds.
+     *
+     * @param seedRegionCollectionName track collection name
+     */
+    public void setSeedRegionCollectionName(String seedRegionCollectionName) {
+        this.seedRegionCollectionName = seedRegionCollectionName;
+    }
+
+    /**
+     * Set the position of the target along the beam in the tracking frame.
+     *
+     * @param targetPosition target position (mm)
+     */
+    public void setTargetPosition(double targetPosition) {
+        this.targetPosition = targetPosition;
+    }
+
+    /**
+     * Set the half width in the bend coordinate of the seed region window
+     * around each vertex.
+     *
+     * @param seedRegionWidthY half width in y (mm)
+     */
+    public void setSeedRegionWidthY(double seedRegionWidthY) {
+        this.seedRegionWidthY = seedRegionWidthY;
+    }
+
+    /**
+     * Set the half width in the non-bend coordinate of the seed region window
+     * around each vertex.
+     *
+     * @param seedRegionWidthZ half width in z (mm)
+     */
+    public void setSeedRegionWidthZ(double seedRegionWidthZ) {
+        this.seedRegionWidthZ = seedRegionWidthZ;
+    }
     
     /**
      * This is used to setup the Drivers after XML config.
@@ -195,7 +437,12 @@ public final class TrackerReconDriver extends Driver {
         List<SeedStrategy> sFinallist = StrategyXMLUtils.getStrategyListFromInputStream(this.getClass().getResourceAsStream(strategyResource));
         SeedTracker stFinal = new SeedTracker(sFinallist, this._useHPSMaterialManager, this.includeMS);
         stFinal.setSubdetectorName(subdetectorName);
-        stFinal.setApplySectorBinning(_applySectorBinning);
+        stFinal.setSeedingAlgorithm(seedingAlgorithm);
+        // The sector bin check is not applied with planar sectoring
+        if (planarSectoring && _applySectorBinning) {
+            LOGGER.warning("applySectorBinning is ignored with planarSectoring");
+        }
+        stFinal.setApplySectorBinning(_applySectorBinning && !planarSectoring);
         stFinal.setUseDefaultXPlane(false);
         stFinal.setDebug(this.debug);
         stFinal.setIterativeConfirmed(_iterativeConfirmed);
@@ -205,12 +452,30 @@ public final class TrackerReconDriver extends Driver {
         stFinal.setBField(bfield);
         System.out.println("Skip Checks: " + skipChecks);
         stFinal.setSkipChecks(skipChecks);
+        stFinal.setKalmanMode(kalmanMode);
+        stFinal.setIncrementalFit(incrementalFit);
+        stFinal.setMaxEventFits(maxEventFits);
+        stFinal.setMaxEventTime(maxEventTime);
+        stFinal.setMaskUsedHits(maskUsedHits);
+        if (maskedStrategies != null) stFinal.setMaskedStrategies(Arrays.asList(maskedStrategies));
+        stFinal.setDirectionTolerance(directionTolerance);
+        stFinal.setSeedRegionCollectionName(seedRegionCollectionName);
+        stFinal.setTargetPosition(targetPosition);
+        stFinal.setSeedRegionWindow(seedRegionWidthY, seedRegionWidthZ);
         // stFinal.setSectorParams(false); //this doesn't actually seem to do anything
-        stFinal.setSectorParams(1, 10000);
+        if (planarSectoring) {
+            stFinal.setPlanarSectorParams(sectorWidthU, sectorWidthV);
+        } else {
+            stFinal.setSectorParams(1, 10000);
+        }
+        stFinal.setParallelStrategies(parallelStrategies);
+        stFinal.setParallelSeeding(parallelSeeding);
+        stFinal.setParallelRefits(parallelRefits);
+        if (threads > 0) stFinal.setThreads(threads);
         add(stFinal);
 
         if (rmsTimeCut > 0) {
-            HitTimeTrackCheck timeCheck = new HitTimeTrackCheck(rmsTimeCut);
+            HitTimeSeedCheck timeCheck = new HitTimeSeedCheck(rmsTimeCut);
             timeCheck.setDebug(debug);
             stFinal.setTrackCheck(timeCheck);
         }        
@@ -308,10 +573,10 @@ public final class TrackerReconDriver extends Driver {
         setTrackType(tracks);
 
         // Increment number of events.
-        ++nevents;
+        nevents.incrementAndGet();
 
         // Add to tracks found.
-        ntracks += event.get(Track.class, trackCollectionName).size();
+        ntracks.addAndGet(event.get(Track.class, trackCollectionName).size());
     }
 
     /**
@@ -329,7 +594,8 @@ public final class TrackerReconDriver extends Driver {
     public void endOfData() {
         if (debug) {
             System.out.println("-------------------------------------------");
-            System.out.println(this.getName() + " with strategy " + strategyResource + " found " + ntracks + " tracks in " + nevents + " events which is " + ((double) ntracks / (double) nevents) + " tracks per event.");
+            System.out.println(this.getName() + " with strategy " + strategyResource + " found " + ntracks.get() + " tracks in " + nevents.get() + " events which is " + ((double) ntracks.get() / (double) nevents.get()) + " tracks per event.");
         }
+        super.endOfData();
     }
 }
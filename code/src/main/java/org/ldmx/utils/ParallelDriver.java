@@ -0,0 +1,399 @@
+package org.ldmx.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import org.lcsim.event.EventHeader;
+import org.lcsim.util.Driver;
+
+/**
+ * Driver that runs independent chains of drivers on separate threads and
+ * waits for all of them to finish before the next driver is called.
+ * <p>
+ * The branches are given in the steering file as the names of the drivers in
+ * each branch, with the drivers of a branch separated by commas and the
+ * branches separated by white space.  The named drivers must be listed in the
+ * execute section after this driver.  When the job starts they are taken over
+ * by this driver, so they are only called as part of their branch.  Within a
+ * branch the drivers are called in the order they are listed.
+ * <pre>
+ * &lt;driver name="TrackerBranches" type="org.ldmx.utils.ParallelDriver"&gt;
+ *     &lt;branches&gt;
+ *         SimpleTaggerReadout,TaggerRawHitFitterDriver,TaggerTrackReconDriver
+ *         SimpleRecoilReadout,RecoilRawHitFitterDriver,RecoilTrackReconDriver
+ *     &lt;/branches&gt;
+ * &lt;/driver&gt;
+ * </pre>
+ * Each branch sees the event through its own view, which implements
+ * EventHeader only.  Calls to the event from the branches are made one at a
+ * time.  A collection put by a branch is hidden from the other branches until
+ * they have all finished, and reading it by name from another branch is an
+ * error, so a branch can change its own collections in place.  The event
+ * parameter maps (getIntegerParameters etc.) given to a branch are its own
+ * copies, which are merged into the event, branch by branch, after the join.
+ * Collections that were in the event before this driver are shared and must
+ * only be read by the branches.
+ * <p>
+ * The branches share the detector.  The drivers of a branch get
+ * detectorChanged, startOfData and endOfData on the job thread, so the
+ * conditions and sensor setup done there needs no locking.  During the event
+ * the geometry (subdetectors, sensors, their transforms and conditions) is
+ * only read and can be used from any branch.  An IDDecoder keeps the last
+ * identifier it decoded, so a decoder must not be used by two branches at
+ * once; this holds when the branches read hits of different readouts and
+ * sensors of different subdetectors, as the Tagger and Recoil branches do.
+ * <p>
+ * The drivers of different branches must not share mutable static state, such
+ * as a static random number generator: the order in which the branches use it
+ * would depend on the thread timing, and the results would no longer be
+ * reproducible or equal to running the drivers one after the other.
+ */
+public class ParallelDriver extends Driver {
+
+    /** Initialize Logger */
+    private static final Logger LOGGER = Logger.getLogger(ParallelDriver.class.getPackage().getName());
+
+    /** Driver names for each branch */
+    private String[] branchNames = new String[0];
+
+    /** Branches run in parallel */
+    private List<Branch> branches = new ArrayList<Branch>();
+
+    /** Branches whose drivers are named in the steering file */
+    private List<Branch> namedBranches = new ArrayList<Branch>();
+
+    /** True once the drivers named in the steering file have been found */
+    private boolean resolved = false;
+
+    /** Threads used to run all but the first branch */
+    private ExecutorService executor = null;
+
+    /**
+     * Set the branches to run in parallel, each given as a comma separated list
+     * of driver names.
+     *
+     * @param branchNames driver names for each branch
+     */
+    public void setBranches(String[] branchNames) {
+        this.branchNames = branchNames;
+        for (int i = 0; i < branchNames.length; i++) {
+            namedBranches.add(newBranch());
+        }
+    }
+
+    /**
+     * Add a branch made of the given drivers, which are called in order.  This
+     * is used when the job is set up in code; the drivers must not also be
+     * added to another driver.
+     *
+     * @param drivers drivers of the branch
+     */
+    public void addBranch(Driver... drivers) {
+        Branch branch = newBranch();
+        for (Driver driver : drivers) {
+            branch.add(driver);
+        }
+    }
+
+    private Branch newBranch() {
+        Branch branch = new Branch();
+        this.add(branch);
+        branches.add(branch);
+        return branch;
+    }
+
+    @Override
+    protected void startOfData() {
+
+        // Fill the branches named in the steering file with the drivers taken over from the parent driver
+        if (!resolved) {
+            resolved = true;
+            List<Driver> siblings = getParent().drivers();
+            for (int i = 0; i < branchNames.length; i++) {
+                Branch branch = namedBranches.get(i);
+                for (String name : branchNames[i].split(",")) {
+                    name = name.trim();
+                    if (name.isEmpty()) continue;
+                    branch.add(takeOver(siblings, name));
+                }
+            }
+            LOGGER.config("Running " + branches.size() + " branches in parallel");
+        }
+
+        if (executor == null && branches.size() > 1) {
+            executor = Executors.newFixedThreadPool(branches.size() - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, getName() + "-branch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        super.startOfData();
+    }
+
+    /**
+     * Take a driver that comes after this one from the parent driver, leaving
+     * one that does nothing in its place.  The lcsim job only gives a driver
+     * its parent after its setters have been called, so this can't be done
+     * before the parent starts going through its drivers.  Replacing an entry
+     * doesn't change the structure of the parent's list, so the parent's loop
+     * carries on over the replacement.  Jobs set up in code give the drivers
+     * to addBranch instead, and nothing is taken from the parent.
+     */
+    private Driver takeOver(List<Driver> siblings, String name) {
+        int self = siblings.indexOf(this);
+        for (int i = self + 1; i < siblings.size(); i++) {
+            Driver driver = siblings.get(i);
+            if (name.equals(driver.getName())) {
+                Driver stub = new Driver() {};
+                try {
+                    siblings.set(i, stub);
+                } catch (UnsupportedOperationException e) {
+                    throw new RuntimeException("Can't take driver " + name + " from the parent of " + getName()
+                            + " for a parallel branch: the parent's driver list can't be changed", e);
+                }
+
+                // The driver would run twice if the parent handed out a copy of its list
+                if (getParent().drivers().get(i) != stub) {
+                    throw new RuntimeException("Can't take driver " + name + " from the parent of " + getName()
+                            + " for a parallel branch: the parent's driver list is a copy");
+                }
+                return driver;
+            }
+        }
+        throw new RuntimeException("Driver " + name + " for a parallel branch must be listed after " + getName());
+    }
+
+    @Override
+    protected void process(final EventHeader event) {
+
+        // Give each branch its own view of the event
+        EventStage stage = new EventStage(event, branches.size());
+
+        // Start all but the first branch on the worker threads and run the first one here
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (int i = 1; i < branches.size(); i++) {
+            final Branch branch = branches.get(i);
+            final EventHeader view = stage.view(i);
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    branch.run(view);
+                    return null;
+                }
+            }));
+        }
+        Throwable failure = null;
+        try {
+            if (!branches.isEmpty()) branches.get(0).run(stage.view(0));
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+
+        // Wait for the other branches
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for a parallel branch", e);
+            } catch (ExecutionException e) {
+                if (failure == null) failure = e.getCause();
+            }
+        }
+
+        // Pass on unchecked exceptions as they are, so lcsim control flow such as NextEventException still works
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new RuntimeException("Parallel branch failed", failure);
+
+        // Put the parameters set by the branches into the event
+        stage.merge();
+    }
+
+    @Override
+    protected void endOfData() {
+        super.endOfData();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * State shared by the views of the event given to the branches for one
+     * event: which branch put each collection, and the copies of the parameter
+     * maps made for each branch.
+     */
+    private static class EventStage {
+
+        private final EventHeader event;
+        private final Map<String, Integer> owners = new HashMap<String, Integer>();
+        private final Map<Object, Integer> listOwners = new IdentityHashMap<Object, Integer>();
+        private final List<Map<String, Map<String, Object>>> parameters;
+        private final List<Map<String, Map<String, Object>>> originals;
+
+        EventStage(EventHeader event, int nbranches) {
+            this.event = event;
+            parameters = new ArrayList<Map<String, Map<String, Object>>>();
+            originals = new ArrayList<Map<String, Map<String, Object>>>();
+            for (int i = 0; i < nbranches; i++) {
+                parameters.add(new HashMap<String, Map<String, Object>>());
+                originals.add(new HashMap<String, Map<String, Object>>());
+            }
+        }
+
+        /**
+         * Return the view of the event for a branch.
+         */
+        EventHeader view(final int branch) {
+            return (EventHeader) Proxy.newProxyInstance(EventHeader.class.getClassLoader(),
+                    new Class<?>[] {EventHeader.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            synchronized (event) {
+                                try {
+                                    return call(branch, method, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                            }
+                        }
+                    });
+        }
+
+        /**
+         * Make a call to the event for a branch.  Called with the event locked.
+         */
+        private Object call(int branch, Method method, Object[] args) throws Exception {
+            String name = method.getName();
+
+            // The parameter maps are copies for this branch
+            if (name.endsWith("Parameters") && (args == null || args.length == 0)) {
+                Map<String, Object> map = parameters.get(branch).get(name);
+                if (map == null) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> original = (Map<String, Object>) method.invoke(event, args);
+                    originals.get(branch).put(name, new HashMap<String, Object>(original));
+                    map = new HashMap<String, Object>(original);
+                    parameters.get(branch).put(name, map);
+                }
+                return map;
+            }
+
+            // Record the collections put by this branch
+            if (name.equals("put")) {
+                Object result = method.invoke(event, args);
+                owners.put((String) args[0], branch);
+                if (args.length > 1) listOwners.put(args[1], branch);
+                return result;
+            }
+
+            // Collections put by other branches can't be looked up by name
+            String collection = collectionName(args);
+            if (collection != null && isOther(branch, owners.get(collection))) {
+                if (name.startsWith("has")) return false;
+                throw new RuntimeException("Collection " + collection + " is written by another parallel branch");
+            }
+            if (name.equals("getMetaData") && args != null && args.length == 1
+                    && isOther(branch, listOwners.get(args[0]))) {
+                throw new RuntimeException("Collection is written by another parallel branch");
+            }
+
+            // Leave the collections of other branches out of the lists of collections
+            Object result = method.invoke(event, args);
+            if (result instanceof List && name.equals("get") && args.length == 1 && args[0] instanceof Class) {
+                List<Object> lists = new ArrayList<Object>();
+                for (Object list : (List<?>) result) {
+                    if (!isOther(branch, listOwners.get(list))) lists.add(list);
+                }
+                return lists;
+            }
+            if (result instanceof Set && name.equals("getLists")) {
+                Set<Object> lists = new LinkedHashSet<Object>();
+                for (Object list : (Set<?>) result) {
+                    if (!isOther(branch, listOwners.get(list))) lists.add(list);
+                }
+                return lists;
+            }
+            if (result instanceof Set && name.equals("getMetaData")) {
+                Set<Object> metas = new LinkedHashSet<Object>();
+                for (Object meta : (Set<?>) result) {
+                    if (!isOther(branch, owners.get(((EventHeader.LCMetaData) meta).getName()))) metas.add(meta);
+                }
+                return metas;
+            }
+            return result;
+        }
+
+        /**
+         * Put the changes each branch made to its parameter maps into the
+         * event, in branch order.  Called after all the branches have finished.
+         */
+        @SuppressWarnings("unchecked")
+        void merge() {
+            for (int i = 0; i < parameters.size(); i++) {
+                for (Map.Entry<String, Map<String, Object>> entry : parameters.get(i).entrySet()) {
+                    Map<String, Object> target;
+                    try {
+                        target = (Map<String, Object>) EventHeader.class.getMethod(entry.getKey()).invoke(event);
+                    } catch (Exception e) {
+                        throw new RuntimeException("Unable to merge the event parameters " + entry.getKey(), e);
+                    }
+                    Map<String, Object> original = originals.get(i).get(entry.getKey());
+                    for (Map.Entry<String, Object> param : entry.getValue().entrySet()) {
+                        if (original.get(param.getKey()) != param.getValue()) target.put(param.getKey(), param.getValue());
+                    }
+                    for (String key : original.keySet()) {
+                        if (!entry.getValue().containsKey(key)) target.remove(key);
+                    }
+                }
+            }
+        }
+
+        private static boolean isOther(int branch, Integer owner) {
+            return owner != null && owner != branch;
+        }
+
+        /**
+         * Return the collection name given to a call by name (the first String
+         * argument), or null if there isn't one.
+         */
+        private static String collectionName(Object[] args) {
+            if (args == null) return null;
+            for (Object arg : args) {
+                if (arg instanceof String) return (String) arg;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Chain of drivers run in order on one thread.
+     */
+    private static class Branch extends Driver {
+
+        void run(EventHeader event) {
+            processChildren(event);
+        }
+    }
+}